@@ -0,0 +1,278 @@
+package hudson.plugins.s3;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.regex.Pattern;
+
+/**
+ * Artifacts downloaded on this node, stored by their MD5, so copying the same artifact
+ * again doesn't go back to S3.
+ *
+ * Cached artifacts are copied into the workspace. With the {@code hardlink} system property on the node they are
+ * hardlinked instead, or copied where the file system can't link them, the workspaces then share the content
+ * with the cache and each other.
+ * The least recently used artifacts are removed once the cache grows beyond its maximum size,
+ * 10 GB unless configured otherwise with a system property on the node.
+ */
+public final class ArtifactCache {
+    private static final Logger LOGGER = Logger.getLogger(ArtifactCache.class.getName());
+
+    private static final long MAX_SIZE = Long.getLong(ArtifactCache.class.getName() + ".maxSize", 10L * 1024 * 1024 * 1024);
+    private static final boolean HARDLINK = Boolean.getBoolean(ArtifactCache.class.getName() + ".hardlink");
+    private static final Pattern MD5_PATTERN = Pattern.compile("[0-9a-f]{32}");
+    private static final ConcurrentMap<File, ArtifactCache> caches = new ConcurrentHashMap<>();
+
+    private final File dir;
+    private final long maxSize;
+    private final boolean hardlink;
+    /**
+     * Size of every cached artifact by MD5, in access order.
+     */
+    private final Map<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long size;
+    /**
+     * Downloads in progress, later requests for the same artifact wait for them.
+     */
+    private final ConcurrentMap<String, CompletableFuture<File>> downloads = new ConcurrentHashMap<>();
+
+    ArtifactCache(File dir, long maxSize, boolean hardlink) throws IOException {
+        this.dir = dir;
+        this.maxSize = maxSize;
+        this.hardlink = hardlink;
+        scan();
+    }
+
+    public static ArtifactCache forDirectory(File dir) throws IOException {
+        final File key = dir.getAbsoluteFile();
+        ArtifactCache cache = caches.get(key);
+        if (cache == null) {
+            final ArtifactCache created = new ArtifactCache(key, MAX_SIZE, HARDLINK);
+            cache = caches.putIfAbsent(key, created);
+            if (cache == null) {
+                cache = created;
+            }
+        }
+        return cache;
+    }
+
+    /**
+     * Puts the artifact with the MD5 at the target. It is downloaded into the cache first
+     * unless the cache has it already.
+     *
+     * @param download writes the artifact to a file and returns the MD5 of what it wrote
+     * @return the MD5 of the target's content
+     */
+    public String materialize(String md5, File target, Download download) throws IOException, InterruptedException {
+        File cached = lookup(md5);
+        if (cached == null) {
+            cached = fetch(md5, target, download);
+        }
+        if (cached == null) {
+            // the object's content doesn't match the recorded MD5, so it isn't cached, and another call downloaded it
+            return download.to(target);
+        }
+        if (cached.equals(target)) {
+            // this call downloaded the mismatching content, it was moved to the target, its MD5 is cached
+            return DigestCache.digest(target);
+        }
+
+        createParent(target);
+        try {
+            if (hardlink) {
+                Files.deleteIfExists(target.toPath());
+                try {
+                    Files.createLink(target.toPath(), cached.toPath());
+                } catch (IOException | UnsupportedOperationException e) {
+                    // another file system, or one without hardlinks
+                    Files.copy(cached.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+            } else {
+                Files.copy(cached.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (NoSuchFileException e) {
+            // evicted in the meantime
+            return download.to(target);
+        }
+        return md5;
+    }
+
+    private File lookup(String md5) throws IOException {
+        synchronized (this) {
+            if (entries.get(md5) == null) {
+                return null;
+            }
+        }
+        final File file = fileFor(md5);
+        // hardlinks share the content, a workspace file that was modified in place changed the cached one too
+        if (file.isFile() && md5.equals(DigestCache.digest(file))) {
+            return file;
+        }
+        LOGGER.fine("Dropping modified artifact " + md5 + " from " + dir);
+        remove(md5);
+        return null;
+    }
+
+    /**
+     * @return the cached artifact, the target if this call downloaded content that doesn't match the MD5 and moved
+     *         it there, {@code null} if another call did
+     */
+    private File fetch(String md5, File target, Download download) throws IOException, InterruptedException {
+        final CompletableFuture<File> mine = new CompletableFuture<>();
+        final CompletableFuture<File> running = downloads.putIfAbsent(md5, mine);
+        if (running != null) {
+            try {
+                return running.get();
+            } catch (ExecutionException e) {
+                throw new IOException("Download of " + md5 + " failed", e.getCause());
+            }
+        }
+
+        try {
+            // the previous download may have just finished
+            File file = lookup(md5);
+            if (file == null) {
+                file = download(md5, target, download);
+            }
+            // the calls waiting for a mismatching download fetch the content for their own targets
+            mine.complete(file != target ? file : null);
+            return file;
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            downloads.remove(md5, mine);
+        }
+    }
+
+    /**
+     * @return the cached artifact, or the target if the content doesn't match the MD5
+     */
+    private File download(String md5, File target, Download download) throws IOException, InterruptedException {
+        final File file = fileFor(md5);
+        Files.createDirectories(file.getParentFile().toPath());
+        final File tmp = new File(file.getParentFile(), md5 + '.' + UUID.randomUUID() + ".tmp");
+        try {
+            final String actual = download.to(tmp);
+            if (!md5.equals(actual)) {
+                // not cached, but not downloaded a second time either
+                createParent(target);
+                Files.move(tmp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                DigestCache.put(target, actual);
+                return target;
+            }
+            Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            DigestCache.put(file, md5);
+            add(md5, file.length());
+            return file;
+        } finally {
+            Files.deleteIfExists(tmp.toPath());
+            Files.deleteIfExists(RangedDownload.progressFileOf(tmp).toPath());
+        }
+    }
+
+    private void add(String md5, long length) {
+        final List<String> evicted = new ArrayList<>();
+        synchronized (this) {
+            final Long previous = entries.put(md5, length);
+            size += length - (previous != null ? previous : 0);
+            for (Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator(); size > maxSize && it.hasNext(); ) {
+                final Map.Entry<String, Long> eldest = it.next();
+                if (eldest.getKey().equals(md5)) {
+                    continue;
+                }
+                it.remove();
+                size -= eldest.getValue();
+                evicted.add(eldest.getKey());
+            }
+        }
+        for (String key : evicted) {
+            delete(key);
+        }
+    }
+
+    private void remove(String md5) {
+        synchronized (this) {
+            final Long length = entries.remove(md5);
+            if (length != null) {
+                size -= length;
+            }
+        }
+        delete(md5);
+    }
+
+    private void delete(String md5) {
+        try {
+            // links in workspaces keep their content
+            Files.deleteIfExists(fileFor(md5).toPath());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to delete cached artifact " + md5, e);
+        }
+    }
+
+    private static void createParent(File target) throws IOException {
+        final Path parent = target.toPath().getParent();
+        if (parent != null) {
+            Files.createDirectories(parent);
+        }
+    }
+
+    private File fileFor(String md5) {
+        return new File(new File(dir, md5.substring(0, 2)), md5);
+    }
+
+    /**
+     * Picks up the artifacts cached before this JVM started, oldest first.
+     */
+    private void scan() throws IOException {
+        if (!dir.isDirectory()) {
+            return;
+        }
+        final List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> prefixes = Files.newDirectoryStream(dir.toPath(), Files::isDirectory)) {
+            for (Path prefix : prefixes) {
+                try (DirectoryStream<Path> stream = Files.newDirectoryStream(prefix)) {
+                    for (Path file : stream) {
+                        if (MD5_PATTERN.matcher(file.getFileName().toString()).matches()) {
+                            files.add(file);
+                        } else {
+                            // left over by an interrupted download
+                            Files.deleteIfExists(file);
+                        }
+                    }
+                }
+            }
+        }
+        files.sort(Comparator.comparing(file -> file.toFile().lastModified()));
+        for (Path file : files) {
+            add(file.getFileName().toString(), Files.size(file));
+        }
+    }
+
+    /**
+     * Fetches an artifact from S3.
+     */
+    public interface Download {
+        /**
+         * @return the MD5 of the content written to the file
+         */
+        String to(File file) throws IOException, InterruptedException;
+    }
+}
@@ -0,0 +1,224 @@
+package hudson.plugins.s3;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Caps the bandwidth of the transfers of a profile, and of all transfers of a node, see {@link S3NodeProperty}.
+ *
+ * Both limits apply on the node the transfers run on, every transfer takes its bytes from the {@link TokenBucket}
+ * of its profile and from the one of the node, so concurrent builds share the bandwidth in the order they send.
+ * Request bodies and response bodies are slowed down as they are produced and consumed, not the connections,
+ * so S3 sees a slow client rather than idle connections.
+ */
+public final class BandwidthLimit implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final BandwidthLimit NONE = new BandwidthLimit(null, 0, 0);
+
+    /**
+     * Bytes read from a stream at once, so the delays stay short.
+     */
+    private static final int CHUNK_SIZE = 64 * 1024;
+    private static final String NODE_BUCKET = "node";
+
+    private final String profile;
+    private final long profileBytesPerSecond;
+    private final long nodeBytesPerSecond;
+
+    /**
+     * @param profileBytesPerSecond limit of the profile's transfers, {@code 0} for none
+     * @param nodeBytesPerSecond limit of all transfers on the node, {@code 0} for none
+     */
+    public BandwidthLimit(@CheckForNull String profile, long profileBytesPerSecond, long nodeBytesPerSecond) {
+        this.profile = profile;
+        this.profileBytesPerSecond = Math.max(0, profileBytesPerSecond);
+        this.nodeBytesPerSecond = Math.max(0, nodeBytesPerSecond);
+    }
+
+    public static long bytesPerSecond(int megabitsPerSecond) {
+        return Math.max(0, megabitsPerSecond) * 1_000_000L / 8;
+    }
+
+    public boolean isLimited() {
+        return profileBytesPerSecond > 0 || nodeBytesPerSecond > 0;
+    }
+
+    /**
+     * Takes the bytes from the buckets of the profile and the node.
+     *
+     * @return nanoseconds until the bytes may be sent
+     */
+    long reserve(long bytes) {
+        final long now = System.nanoTime();
+        long wait = 0;
+        if (profileBytesPerSecond > 0) {
+            wait = TokenBucket.forKey("profile " + profile, profileBytesPerSecond).reserve(bytes, now);
+        }
+        if (nodeBytesPerSecond > 0) {
+            wait = Math.max(wait, TokenBucket.forKey(NODE_BUCKET, nodeBytesPerSecond).reserve(bytes, now));
+        }
+        return wait;
+    }
+
+    /**
+     * Slows down reading the stream, for bodies pumped by a thread.
+     */
+    public InputStream limit(InputStream in) {
+        if (!isLimited()) {
+            return in;
+        }
+        return new FilterInputStream(in) {
+            @Override
+            public int read() throws IOException {
+                final int b = super.read();
+                if (b >= 0) {
+                    pause(1);
+                }
+                return b;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                final int read = super.read(b, off, Math.min(len, CHUNK_SIZE));
+                if (read > 0) {
+                    pause(read);
+                }
+                return read;
+            }
+
+            private void pause(int bytes) throws InterruptedIOException {
+                final long wait = reserve(bytes);
+                if (wait > 0) {
+                    try {
+                        TimeUnit.NANOSECONDS.sleep(wait);
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                        throw new InterruptedIOException("Interrupted while limiting the bandwidth");
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Slows down sending the body.
+     */
+    public AsyncRequestBody limitRequest(AsyncRequestBody body) {
+        if (!isLimited()) {
+            return body;
+        }
+        return new AsyncRequestBody() {
+            @Override
+            public Optional<Long> contentLength() {
+                return body.contentLength();
+            }
+
+            @Override
+            public String contentType() {
+                return body.contentType();
+            }
+
+            @Override
+            public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+                body.subscribe(new LimitingSubscriber(subscriber));
+            }
+        };
+    }
+
+    /**
+     * Slows down receiving the body.
+     */
+    public <R, T> AsyncResponseTransformer<R, T> limitResponse(AsyncResponseTransformer<R, T> transformer) {
+        if (!isLimited()) {
+            return transformer;
+        }
+        return new AsyncResponseTransformer<R, T>() {
+            @Override
+            public CompletableFuture<T> prepare() {
+                return transformer.prepare();
+            }
+
+            @Override
+            public void onResponse(R response) {
+                transformer.onResponse(response);
+            }
+
+            @Override
+            public void onStream(SdkPublisher<ByteBuffer> publisher) {
+                transformer.onStream(SdkPublisher.adapt(subscriber -> publisher.subscribe(new LimitingSubscriber(subscriber))));
+            }
+
+            @Override
+            public void exceptionOccurred(Throwable error) {
+                transformer.exceptionOccurred(error);
+            }
+        };
+    }
+
+    @Override
+    public String toString() {
+        return "BandwidthLimit[profile=" + profileBytesPerSecond + ", node=" + nodeBytesPerSecond + ']';
+    }
+
+    /**
+     * Passes the buffers on once the buckets had room for them, in the order they came.
+     * Signals arrive one after the other, so the chain of deliveries needs no lock.
+     */
+    private final class LimitingSubscriber implements Subscriber<ByteBuffer> {
+        private final Subscriber<? super ByteBuffer> downstream;
+        private CompletableFuture<Void> delivered = CompletableFuture.completedFuture(null);
+
+        LimitingSubscriber(Subscriber<? super ByteBuffer> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            downstream.onSubscribe(subscription);
+        }
+
+        @Override
+        public void onNext(ByteBuffer buffer) {
+            final long wait = reserve(buffer.remaining());
+            if (wait <= 0 && delivered.isDone()) {
+                downstream.onNext(buffer);
+                return;
+            }
+            final long due = System.nanoTime() + wait;
+            delivered = delivered.thenCompose(done -> until(due)).thenRun(() -> downstream.onNext(buffer));
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            delivered = delivered.handle((done, failure) -> null).thenRun(() -> downstream.onError(error));
+        }
+
+        @Override
+        public void onComplete() {
+            delivered = delivered.thenRun(downstream::onComplete);
+        }
+
+        private CompletableFuture<Void> until(long due) {
+            final long wait = due - System.nanoTime();
+            if (wait <= 0) {
+                return CompletableFuture.completedFuture(null);
+            }
+            return CompletableFuture.runAsync(() -> {}, CompletableFuture.delayedExecutor(wait, TimeUnit.NANOSECONDS));
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package hudson.plugins.s3;
+
+import software.amazon.awssdk.utils.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Supplier;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Shares clients between callers with the same configuration.
+ *
+ * Callers {@link #lease lease} a client and release it when they are done with it.
+ * Clients without leases are closed once they have been idle for a while, or as soon as the cache
+ * holds more than its maximum, least recently used first. A leased client is never closed,
+ * it is evicted once its last lease is released instead.
+ * After a configuration change {@link #invalidateAll()} retires every client, new leases get new ones.
+ *
+ * Clients are created outside of the cache's lock, so a slow one only holds up the callers waiting for the same key.
+ */
+public final class ClientCache<K, V extends AutoCloseable> implements AutoCloseable {
+    private static final Logger LOGGER = Logger.getLogger(ClientCache.class.getName());
+
+    private static final ScheduledExecutorService sweeper = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactoryBuilder().threadNamePrefix(ClientCache.class.getName()).daemonThreads(true).build());
+
+    /**
+     * In access order, the eldest entry is the least recently used.
+     */
+    private final Map<K, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private final int maxSize;
+    private final long idleNanos;
+    private final ScheduledFuture<?> sweep;
+
+    /**
+     * @param maxSize number of clients kept, leased clients may exceed it for a while
+     * @param idleTime time after which a client without leases is closed
+     */
+    public ClientCache(int maxSize, long idleTime, TimeUnit unit) {
+        this.maxSize = Math.max(maxSize, 0);
+        this.idleNanos = unit.toNanos(idleTime);
+        final long period = Math.max(unit.toMillis(idleTime) / 2, 1000);
+        this.sweep = sweeper.scheduleWithFixedDelay(this::sweep, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Leases the client for the key, creating it if there is none yet.
+     * Concurrent leases of a key which has no client yet wait for the one being created.
+     *
+     * @param factory creates the client, called outside of the cache's lock
+     */
+    public Lease<V> lease(K key, Supplier<? extends V> factory) {
+        final Entry entry;
+        final boolean create;
+        synchronized (this) {
+            final Entry existing = entries.get(key);
+            create = existing == null;
+            entry = create ? new Entry() : existing;
+            if (create) {
+                entries.put(key, entry);
+            }
+            entry.leases++;
+        }
+
+        if (create) {
+            try {
+                entry.client.complete(factory.get());
+            } catch (RuntimeException | Error e) {
+                entry.client.completeExceptionally(e);
+            }
+        }
+        final V client;
+        try {
+            client = entry.client.join();
+        } catch (CompletionException e) {
+            // the next lease tries again
+            synchronized (this) {
+                entry.leases--;
+                entries.remove(key, entry);
+            }
+            final Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw cause instanceof RuntimeException ? (RuntimeException) cause : e;
+        }
+
+        final List<V> evicted;
+        synchronized (this) {
+            evicted = evict(System.nanoTime());
+        }
+        closeAll(evicted);
+        return new Lease<>(client, () -> release(entry));
+    }
+
+    /**
+     * Closes the clients that are idle for too long.
+     */
+    public void sweep() {
+        final List<V> evicted;
+        synchronized (this) {
+            evicted = evict(System.nanoTime());
+        }
+        closeAll(evicted);
+    }
+
+    /**
+     * Forgets all clients. Those without leases are closed right away, the others once they are released.
+     */
+    public void invalidateAll() {
+        final List<V> evicted = new ArrayList<>();
+        synchronized (this) {
+            for (Entry entry : entries.values()) {
+                entry.invalidated = true;
+                if (entry.leases == 0) {
+                    evicted.add(entry.client.join());
+                }
+            }
+            entries.clear();
+        }
+        closeAll(evicted);
+    }
+
+    /**
+     * Stops sweeping the cache and {@link #invalidateAll() retires} its clients, leased clients are closed once they are released.
+     */
+    @Override
+    public void close() {
+        sweep.cancel(false);
+        invalidateAll();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    private void release(Entry entry) {
+        final List<V> evicted;
+        synchronized (this) {
+            entry.leases--;
+            entry.lastUsed = System.nanoTime();
+            evicted = evict(entry.lastUsed);
+            if (entry.invalidated && entry.leases == 0) {
+                evicted.add(entry.client.join());
+            }
+        }
+        closeAll(evicted);
+    }
+
+    /**
+     * Removes the entries without leases that are idle for too long, or exceed the maximum.
+     * The caller closes the returned clients, outside of the lock.
+     * Entries without leases have their client, clients being created are leased by their creator.
+     */
+    private List<V> evict(long now) {
+        final List<V> evicted = new ArrayList<>();
+        int size = entries.size();
+        for (Iterator<Entry> it = entries.values().iterator(); it.hasNext(); ) {
+            final Entry entry = it.next();
+            if (entry.leases == 0 && (size > maxSize || now - entry.lastUsed >= idleNanos)) {
+                it.remove();
+                size--;
+                evicted.add(entry.client.join());
+            }
+        }
+        return evicted;
+    }
+
+    private void closeAll(List<V> clients) {
+        for (V client : clients) {
+            try {
+                client.close();
+            } catch (Exception e) {
+                LOGGER.log(Level.WARNING, "Failed to close client " + client, e);
+            }
+        }
+    }
+
+    private final class Entry {
+        private final CompletableFuture<V> client = new CompletableFuture<>();
+        private int leases;
+        private boolean invalidated;
+        private long lastUsed = System.nanoTime();
+    }
+
+    /**
+     * A client in use, closing the lease releases it.
+     */
+    public static final class Lease<V> implements AutoCloseable {
+        private final V client;
+        private final Runnable release;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Lease(V client, Runnable release) {
+            this.client = client;
+            this.release = release;
+        }
+
+        public V get() {
+            if (released.get()) {
+                throw new IllegalStateException("Lease already released");
+            }
+            return client;
+        }
+
+        @Override
+        public void close() {
+            if (released.compareAndSet(false, true)) {
+                release.run();
+            }
+        }
+    }
+}
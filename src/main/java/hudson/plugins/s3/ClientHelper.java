@@ -5,10 +5,12 @@ import edu.umd.cs.findbugs.annotations.NonNull;
 import hudson.ProxyConfiguration;
 import io.netty.handler.ssl.SslProvider;
 import jenkins.model.Jenkins;
+import jenkins.security.FIPS140;
 import jenkins.util.JenkinsJVM;
 import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentials;
 import software.amazon.awssdk.auth.credentials.AwsCredentialsProvider;
+import software.amazon.awssdk.auth.credentials.DefaultCredentialsProvider;
 import software.amazon.awssdk.http.SdkHttpClient;
 import software.amazon.awssdk.http.apache.ApacheHttpClient;
 import software.amazon.awssdk.http.async.SdkAsyncHttpClient;
@@ -18,6 +20,8 @@ import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.S3AsyncClientBuilder;
 import software.amazon.awssdk.services.s3.S3Client;
 import software.amazon.awssdk.services.s3.S3ClientBuilder;
+import software.amazon.awssdk.services.s3.S3Configuration;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
 
 import java.net.URI;
 import java.net.URISyntaxException;
@@ -30,6 +34,7 @@ public class ClientHelper {
             "hudson.plugins.s3.DEFAULT_AMAZON_S3_REGION", Region.US_EAST_1.id());
     public static final String ENDPOINT = System.getProperty("hudson.plugins.s3.ENDPOINT", System.getenv("PLUGIN_S3_ENDPOINT"));
     public static final URI ENDPOINT_URI;
+    private static final AwsCredentialsProvider ROLE_CREDENTIALS = DefaultCredentialsProvider.create();
 
     static {
         try {
@@ -40,9 +45,19 @@ public class ClientHelper {
     }
 
     public static S3AsyncClient createAsyncClient(String accessKey, String secretKey, boolean useRole, String region, @CheckForNull ProxyConfiguration proxy, @CheckForNull URI customEndpoint, Long thresholdInBytes) {
+        return createAsyncClient(accessKey, secretKey, useRole, region, proxy, customEndpoint, thresholdInBytes, Uploads.MULTIPART_PART_SIZE, 0);
+    }
+
+    /**
+     * @param partSizeInBytes minimum part size of multipart transfers
+     * @param maxConnections connections to open at most, {@code 0} for the SDK's default
+     */
+    public static S3AsyncClient createAsyncClient(String accessKey, String secretKey, boolean useRole, String region, @CheckForNull ProxyConfiguration proxy, @CheckForNull URI customEndpoint, Long thresholdInBytes,
+                                                  long partSizeInBytes, int maxConnections) {
         Region awsRegion = getRegionFromString(region);
         S3AsyncClientBuilder builder = S3AsyncClient.builder();//.overrideConfiguration(clientConfiguration);
         builder.region(awsRegion);
+        builder.overrideConfiguration(o -> o.addExecutionInterceptor(new PrefixLimiter.Interceptor()));
 
         if (!useRole) {
             builder = builder.credentialsProvider(() -> AwsBasicCredentials.create(accessKey, secretKey));
@@ -50,15 +65,16 @@ public class ClientHelper {
 
         if (customEndpoint != null) {
             builder = builder.endpointOverride(customEndpoint).forcePathStyle(true);
-            builder.httpClient(getAsyncHttpClient(customEndpoint, proxy));
+            builder.httpClient(getAsyncHttpClient(customEndpoint, proxy, maxConnections));
         } else if (ENDPOINT_URI != null) {
             builder = builder.endpointOverride(ENDPOINT_URI).forcePathStyle(true);
-            builder.httpClient(getAsyncHttpClient(ENDPOINT_URI, proxy));
+            builder.httpClient(getAsyncHttpClient(ENDPOINT_URI, proxy, maxConnections));
         } else {
-            builder.httpClient(getAsyncHttpClient(null, proxy));
+            builder.httpClient(getAsyncHttpClient(null, proxy, maxConnections));
         }
         if (thresholdInBytes != null) {
-            builder.multipartConfiguration(mcb -> mcb.thresholdInBytes(thresholdInBytes));
+            // the part size is pinned, so ETags of uploaded files can be predicted, see ETag
+            builder.multipartConfiguration(mcb -> mcb.thresholdInBytes(thresholdInBytes).minimumPartSizeInBytes(partSizeInBytes));
         }
         return builder.build();
     }
@@ -71,6 +87,7 @@ public class ClientHelper {
         Region awsRegion = getRegionFromString(region);
         S3ClientBuilder builder = S3Client.builder();
         builder.region(awsRegion);
+        builder.overrideConfiguration(o -> o.addExecutionInterceptor(new PrefixLimiter.Interceptor()));
 
         if (!useRole) {
             builder = builder.credentialsProvider(() -> AwsBasicCredentials.create(accessKey, secretKey));
@@ -93,6 +110,30 @@ public class ClientHelper {
         return builder.build();
     }
 
+    /**
+     * The credentials of the role the clients without keys use, from the default provider chain.
+     * Temporary credentials have an {@link AwsCredentials#expirationTime() expiration}.
+     */
+    public static AwsCredentials resolveRoleCredentials() {
+        return ROLE_CREDENTIALS.resolveCredentials();
+    }
+
+    public static S3Presigner createPresigner(String accessKey, String secretKey, boolean useRole, String region) {
+        S3Presigner.Builder builder = S3Presigner.builder()
+                .fipsEnabled(FIPS140.useCompliantAlgorithms())
+                .region(getRegionFromString(region));
+
+        if (!useRole) {
+            builder = builder.credentialsProvider(() -> AwsBasicCredentials.create(accessKey, secretKey));
+        }
+
+        if (ENDPOINT_URI != null) {
+            builder = builder.endpointOverride(ENDPOINT_URI)
+                    .serviceConfiguration(S3Configuration.builder().pathStyleAccessEnabled(true).build());
+        }
+        return builder.build();
+    }
+
     /**
      * Gets the {@link Region} from its name with backward compatibility concerns and defaulting
      *
@@ -132,8 +173,11 @@ public class ClientHelper {
         return httpClient1.build();
     }
 
-    private static SdkAsyncHttpClient getAsyncHttpClient(URI serviceEndpoint, ProxyConfiguration proxy) {
+    private static SdkAsyncHttpClient getAsyncHttpClient(URI serviceEndpoint, ProxyConfiguration proxy, int maxConnections) {
         NettyNioAsyncHttpClient.Builder builder = NettyNioAsyncHttpClient.builder().sslProvider(SslProvider.JDK); //make sure we use BouncyCastle when available
+        if (maxConnections > 0) {
+            builder.maxConcurrency(maxConnections);
+        }
         if (proxy == null && JenkinsJVM.isJenkinsJVM()) {
             proxy = Jenkins.get().getProxy();
         }
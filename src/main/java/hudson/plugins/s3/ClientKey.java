@@ -0,0 +1,81 @@
+package hudson.plugins.s3;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.ProxyConfiguration;
+import hudson.util.Secret;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * Identifies the configuration a client was created with, see {@link ClientCache}.
+ *
+ * Only a digest of the secrets is kept, so keys can be logged and kept around safely.
+ * A rotated secret yields a different key, and the client of the old one ages out of the cache.
+ */
+public final class ClientKey {
+    private final String accessKey;
+    private final String secretDigest;
+    private final boolean useRole;
+    private final String region;
+    private final String proxy;
+    private final String endpoint;
+    private final List<Object> qualifiers;
+
+    private ClientKey(String accessKey, String secretDigest, boolean useRole, String region, String proxy, String endpoint, List<Object> qualifiers) {
+        this.accessKey = accessKey;
+        this.secretDigest = secretDigest;
+        this.useRole = useRole;
+        this.region = region;
+        this.proxy = proxy;
+        this.endpoint = endpoint;
+        this.qualifiers = qualifiers;
+    }
+
+    /**
+     * @param endpoint custom endpoint, {@code null} for AWS
+     * @param qualifiers anything else the client depends on, e.g. its multipart settings
+     */
+    public static ClientKey of(String accessKey, Secret secretKey, boolean useRole, String region,
+                               @CheckForNull ProxyConfiguration proxy, @CheckForNull String endpoint, Object... qualifiers) {
+        final String proxyKey = proxy == null ? null
+                : proxy.getName() + ':' + proxy.getPort() + ':' + proxy.getUserName() + ':' + digest(proxy.getSecretPassword()) + ':' + proxy.getNoProxyHost();
+        return new ClientKey(accessKey, useRole ? null : digest(secretKey), useRole, region, proxyKey, endpoint, Arrays.asList(qualifiers));
+    }
+
+    @CheckForNull
+    private static String digest(@CheckForNull Secret secret) {
+        final String plainText = Secret.toString(secret);
+        return plainText.isEmpty() ? null : DigestUtils.sha256Hex(plainText);
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof ClientKey)) {
+            return false;
+        }
+        final ClientKey other = (ClientKey) o;
+        return useRole == other.useRole
+                && Objects.equals(accessKey, other.accessKey)
+                && Objects.equals(secretDigest, other.secretDigest)
+                && Objects.equals(region, other.region)
+                && Objects.equals(proxy, other.proxy)
+                && Objects.equals(endpoint, other.endpoint)
+                && qualifiers.equals(other.qualifiers);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(accessKey, secretDigest, useRole, region, proxy, endpoint, qualifiers);
+    }
+
+    @Override
+    public String toString() {
+        return "ClientKey[accessKey=" + accessKey + ", useRole=" + useRole + ", region=" + region + ", endpoint=" + endpoint + ']';
+    }
+}
@@ -0,0 +1,153 @@
+package hudson.plugins.s3;
+
+import com.github.luben.zstd.ZstdInputStream;
+import com.github.luben.zstd.ZstdOutputStream;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorInputStream;
+import org.apache.commons.compress.compressors.lz4.FramedLZ4CompressorOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Locale;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Codecs files can be compressed with before they are uploaded.
+ *
+ * The codec is recorded in the object metadata under {@link #METADATA_KEY},
+ * so downloads know how to decompress the object again.
+ */
+public enum Compression {
+    NONE("None", null, 0),
+    GZIP("GZIP", "gzip", 9),
+    ZSTD("Zstandard", null, 22),
+    LZ4("LZ4", null, 0);
+
+    /**
+     * User metadata key of the codec an object was compressed with.
+     */
+    public static final String METADATA_KEY = "jenkins-compression";
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+    /**
+     * Below this size splitting gzip input into blocks isn't worth the overhead.
+     */
+    private static final long PARALLEL_GZIP_THRESHOLD = 8L * ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE;
+    private static final int DEFAULT_ZSTD_LEVEL = 3;
+
+    private final String displayName;
+    private final String contentEncoding;
+    private final int maxLevel;
+
+    Compression(String displayName, String contentEncoding, int maxLevel) {
+        this.displayName = displayName;
+        this.contentEncoding = contentEncoding;
+        this.maxLevel = maxLevel;
+    }
+
+    public String getDisplayName() {
+        return displayName;
+    }
+
+    /**
+     * @return value for the Content-Encoding header, {@code null} if browsers can't be expected to decode the codec
+     */
+    @CheckForNull
+    public String getContentEncoding() {
+        return contentEncoding;
+    }
+
+    /**
+     * @return highest compression level of the codec, 0 if it has no levels
+     */
+    public int getMaxLevel() {
+        return maxLevel;
+    }
+
+    /**
+     * @return the level within the codec's range, 0 for its default
+     */
+    public int levelFor(int level) {
+        return Math.max(0, Math.min(maxLevel, level));
+    }
+
+    public String getMetadataValue() {
+        return name().toLowerCase(Locale.ENGLISH);
+    }
+
+    /**
+     * Wraps the output, closing the result finishes the compressed stream.
+     *
+     * @param requestedLevel codec specific compression level, 0 or less for the codec's default, beyond the codec's range for its highest level
+     * @param length length of the uncompressed input, used to pick the strategy
+     */
+    public OutputStream compress(OutputStream out, int requestedLevel, long length) throws IOException {
+        final int level = levelFor(requestedLevel);
+        switch (this) {
+            case GZIP:
+                if (length >= PARALLEL_GZIP_THRESHOLD) {
+                    // large files are deflated block-wise on all cores, still as a single gzip member
+                    return new ParallelGzipOutputStream(out, level > 0 ? level : -1,
+                            ParallelGzipOutputStream.DEFAULT_BLOCK_SIZE, ForkJoinPool.commonPool());
+                }
+                // no sync flush: the stream is only flushed once, when it is finished
+                return new GZIPOutputStream(out, BUFFER_SIZE) {
+                    {
+                        if (level > 0) {
+                            def.setLevel(level);
+                        }
+                    }
+                };
+            case ZSTD:
+                return new ZstdOutputStream(out, level > 0 ? level : DEFAULT_ZSTD_LEVEL);
+            case LZ4:
+                // the frame format has no levels
+                return new FramedLZ4CompressorOutputStream(out);
+            default:
+                return out;
+        }
+    }
+
+    public InputStream decompress(InputStream in) throws IOException {
+        switch (this) {
+            case GZIP:
+                return new GZIPInputStream(in, BUFFER_SIZE);
+            case ZSTD:
+                return new ZstdInputStream(in);
+            case LZ4:
+                return new FramedLZ4CompressorInputStream(in);
+            default:
+                return in;
+        }
+    }
+
+    /**
+     * @param value value of {@link #METADATA_KEY}, may be {@code null}
+     * @return the codec, {@link #NONE} for objects without or with an unknown codec
+     */
+    public static Compression fromMetadata(@CheckForNull String value) {
+        for (Compression compression : values()) {
+            if (compression.getMetadataValue().equals(value)) {
+                return compression;
+            }
+        }
+        return NONE;
+    }
+
+    /**
+     * @param name enum name as stored in the configuration, may be {@code null}
+     */
+    public static Compression fromName(@CheckForNull String name) {
+        if (name == null || name.isEmpty()) {
+            return NONE;
+        }
+        try {
+            return valueOf(name);
+        } catch (IllegalArgumentException e) {
+            return NONE;
+        }
+    }
+}
@@ -0,0 +1,297 @@
+package hudson.plugins.s3;
+
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import jenkins.model.Jenkins;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Counts the builds referring to every object stored by its content, see {@link Destination#contentKey(String)}.
+ *
+ * Such an object is only deleted once the last artifact referring to it is deleted.
+ * The deletion runs outside the lock, a reference taken to the object meanwhile waits until it is gone,
+ * so the upload which took it looks it up only then and stores it again.
+ * The counts are saved to disk. An object without a count, e.g. because it was published
+ * before the counts were lost, is never deleted: leaking it is better than deleting content other builds still use.
+ *
+ * Every change is appended to a log, the counts as a whole are only saved once the log has grown
+ * beyond {@link #MAX_LOGGED} changes, or the number of counts if that is larger, and the log starts over.
+ */
+@Extension
+public final class ContentReferences {
+    private static final Logger LOGGER = Logger.getLogger(ContentReferences.class.getName());
+
+    static final int MAX_LOGGED = Integer.getInteger(ContentReferences.class.getName() + ".maxLogged", 10000);
+
+    private final File dir;
+    private final Consumer<Collection<Destination>> cancelDeletions;
+    /**
+     * Number of references by bucket and key.
+     */
+    private final Map<String, Integer> counts = new HashMap<>();
+    /**
+     * Objects being deleted by bucket and key, the latch opens once the deletion returned.
+     */
+    private final Map<String, CountDownLatch> deleting = new HashMap<>();
+    /**
+     * Generation of the saved counts, the changes since are appended to the log of the same generation.
+     */
+    private long generation;
+    private int logged;
+
+    public ContentReferences() {
+        this(Jenkins.get().getRootDir(), objects -> DeletionQueue.get().cancel(objects));
+    }
+
+    /**
+     * @param dir directory the counts are saved in
+     * @param cancelDeletions cancels the pending deletions of objects that are referred to again
+     */
+    ContentReferences(File dir, Consumer<Collection<Destination>> cancelDeletions) {
+        this.dir = dir;
+        this.cancelDeletions = cancelDeletions;
+        load();
+    }
+
+    public static ContentReferences get() {
+        return ExtensionList.lookupSingleton(ContentReferences.class);
+    }
+
+    /**
+     * Adds a reference to every object, once per occurrence.
+     * Pending deletions of the objects are cancelled, they are in use again.
+     * Objects which are being deleted right now are waited for.
+     *
+     * @throws InterruptedException while waiting for a deletion, the references are kept then,
+     *                              leaking the objects rather than deleting them under a build
+     */
+    public void acquire(Collection<Destination> objects) throws InterruptedException {
+        if (objects.isEmpty()) {
+            return;
+        }
+        final List<CountDownLatch> deletions = new ArrayList<>();
+        synchronized (this) {
+            final List<String> keys = new ArrayList<>(objects.size());
+            for (Destination object : objects) {
+                final String key = keyOf(object);
+                counts.merge(key, 1, Integer::sum);
+                keys.add(key);
+                final CountDownLatch deletion = deleting.get(key);
+                if (deletion != null) {
+                    deletions.add(deletion);
+                }
+            }
+            log('+', keys);
+        }
+        cancelDeletions.accept(objects);
+        for (CountDownLatch deletion : deletions) {
+            deletion.await();
+        }
+    }
+
+    /**
+     * Removes a reference to every object, once per occurrence.
+     *
+     * @return the objects no longer referred to, which can be deleted
+     */
+    public synchronized List<Destination> release(Collection<Destination> objects) {
+        final List<Destination> unused = new ArrayList<>();
+        if (objects.isEmpty()) {
+            return unused;
+        }
+        final List<String> keys = new ArrayList<>(objects.size());
+        for (Destination object : objects) {
+            final String key = keyOf(object);
+            final Integer count = counts.get(key);
+            if (count == null) {
+                LOGGER.fine("No references recorded for " + object + ", keeping it");
+                continue;
+            } else if (count > 1) {
+                counts.put(key, count - 1);
+            } else {
+                counts.remove(key);
+                unused.add(object);
+            }
+            keys.add(key);
+        }
+        log('-', keys);
+        return unused;
+    }
+
+    /**
+     * Deletes the objects no build refers to. The deletion runs outside the lock, a reference taken to one
+     * of the objects meanwhile waits for it, so an object a build looked up and found is never deleted under it.
+     *
+     * @param deletion deletes the objects it is given, those which were referred to again since their deletion
+     *                 was queued, or are being deleted by another call, are left out
+     * @return what the deletion returns
+     */
+    public <T> T deleteUnreferenced(Collection<Destination> objects, Function<List<Destination>, T> deletion) {
+        final List<Destination> unreferenced = new ArrayList<>(objects.size());
+        final List<String> keys = new ArrayList<>(objects.size());
+        final CountDownLatch deleted = new CountDownLatch(1);
+        synchronized (this) {
+            for (Destination object : objects) {
+                final String key = keyOf(object);
+                if (!counts.containsKey(key) && !deleting.containsKey(key)) {
+                    deleting.put(key, deleted);
+                    unreferenced.add(object);
+                    keys.add(key);
+                }
+            }
+        }
+        try {
+            return deletion.apply(unreferenced);
+        } finally {
+            synchronized (this) {
+                for (String key : keys) {
+                    deleting.remove(key, deleted);
+                }
+            }
+            deleted.countDown();
+        }
+    }
+
+    public synchronized int count(Destination object) {
+        final Integer count = counts.get(keyOf(object));
+        return count != null ? count : 0;
+    }
+
+    private static String keyOf(Destination object) {
+        return object.bucketName + '/' + object.objectName;
+    }
+
+    private XmlFile getConfigFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(dir, ContentReferences.class.getName() + ".xml"));
+    }
+
+    private File getLogFile(long generation) {
+        return new File(dir, ContentReferences.class.getName() + '.' + generation + ".log");
+    }
+
+    private synchronized void load() {
+        final XmlFile file = getConfigFile();
+        if (file.exists()) {
+            try {
+                final Object loaded = file.read();
+                if (loaded instanceof Saved) {
+                    generation = ((Saved) loaded).generation;
+                    counts.putAll(((Saved) loaded).counts);
+                } else if (loaded instanceof Map) {
+                    // saved as a whole on every change by earlier versions
+                    for (Map.Entry<?, ?> entry : ((Map<?, ?>) loaded).entrySet()) {
+                        if (entry.getKey() instanceof String && entry.getValue() instanceof Integer) {
+                            counts.put((String) entry.getKey(), (Integer) entry.getValue());
+                        }
+                    }
+                }
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+            }
+        }
+
+        final File log = getLogFile(generation);
+        final String changes;
+        try {
+            changes = new String(Files.readAllBytes(log.toPath()), StandardCharsets.UTF_8);
+        } catch (NoSuchFileException e) {
+            return;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load " + log, e);
+            return;
+        }
+        // the last line is incomplete if the controller stopped while it was written
+        final int complete = changes.lastIndexOf('\n') + 1;
+        for (String change : changes.substring(0, complete).split("\n")) {
+            if (change.length() < 3 || change.charAt(1) != ' ') {
+                continue;
+            }
+            final String key = change.substring(2);
+            if (change.charAt(0) == '+') {
+                counts.merge(key, 1, Integer::sum);
+            } else if (change.charAt(0) == '-') {
+                counts.computeIfPresent(key, (k, count) -> count > 1 ? count - 1 : null);
+            }
+        }
+        // starts a new log, rather than appending to an incomplete line
+        save();
+    }
+
+    /**
+     * Appends the changes of the counts of the keys to the log.
+     */
+    private void log(char change, List<String> keys) {
+        if (keys.isEmpty()) {
+            return;
+        }
+        final StringBuilder lines = new StringBuilder();
+        for (String key : keys) {
+            lines.append(change).append(' ').append(key).append('\n');
+        }
+        final File log = getLogFile(generation);
+        try {
+            Files.write(log.toPath(), lines.toString().getBytes(StandardCharsets.UTF_8),
+                    StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            logged += keys.size();
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to append to " + log + ", saving all counts", e);
+            save();
+            return;
+        }
+        if (logged > Math.max(MAX_LOGGED, counts.size())) {
+            save();
+        }
+    }
+
+    /**
+     * Saves the counts as a whole, as the next generation with a log of its own.
+     * Until the counts are saved, the current generation and its log are loaded.
+     */
+    private void save() {
+        final XmlFile file = getConfigFile();
+        try {
+            file.write(new Saved(generation + 1, counts));
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save " + file, e);
+            return;
+        }
+        final File log = getLogFile(generation);
+        generation++;
+        logged = 0;
+        try {
+            Files.deleteIfExists(log.toPath());
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to delete " + log, e);
+        }
+    }
+
+    /**
+     * The counts as saved to disk.
+     */
+    private static final class Saved {
+        private final long generation;
+        private final Map<String, Integer> counts;
+
+        Saved(long generation, Map<String, Integer> counts) {
+            this.generation = generation;
+            this.counts = new HashMap<>(counts);
+        }
+    }
+}
@@ -0,0 +1,403 @@
+package hudson.plugins.s3;
+
+import com.google.common.collect.Lists;
+import hudson.Extension;
+import hudson.ExtensionList;
+import hudson.XmlFile;
+import hudson.init.InitMilestone;
+import hudson.init.Initializer;
+import hudson.model.AsyncPeriodicWork;
+import hudson.model.TaskListener;
+import jenkins.model.Jenkins;
+import software.amazon.awssdk.utils.NamedThreadFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Deletes the artifacts of deleted builds in the background.
+ *
+ * Keys are grouped per profile, region and bucket and deleted with DeleteObjects, {@value #BATCH_SIZE} at a time.
+ * The queue is saved to disk, one file per {@link #enqueue} call, so queueing writes only the new deletions, and
+ * finishing a batch rewrites only the files it touched. Deletions still pending when the controller stops are
+ * resumed after the restart.
+ * A batch that fails as a whole is retried with backoff as {@link #RETRY_POLICY} allows, if that doesn't help
+ * it stays queued for the next run. A batch S3 refuses for good, e.g. as access is denied, is dropped and logged,
+ * it would be refused on every run.
+ */
+@Extension
+public final class DeletionQueue extends AsyncPeriodicWork {
+    private static final Logger LOGGER = Logger.getLogger(DeletionQueue.class.getName());
+
+    /**
+     * Maximum number of keys of a DeleteObjects request.
+     */
+    static final int BATCH_SIZE = 1000;
+    private static final int MAX_CONCURRENT_BATCHES = Integer.getInteger(DeletionQueue.class.getName() + ".maxConcurrentBatches", 4);
+    /**
+     * Attempts per batch within a run, throttled batches wait before the next one.
+     */
+    private static final RetryPolicy RETRY_POLICY = new RetryPolicy(
+            Integer.getInteger(DeletionQueue.class.getName() + ".maxAttempts", 3), TimeUnit.SECONDS.toMillis(1));
+
+    /**
+     * The pending deletions and the file each is saved in.
+     */
+    private final Map<Deletion, Long> pending = new LinkedHashMap<>();
+    private final Map<Long, Set<Deletion>> segments = new HashMap<>();
+    private final AtomicLong nextSegment = new AtomicLong();
+    /**
+     * Set when deletions are queued, so a run in progress does another round for them.
+     */
+    private final AtomicBoolean requested = new AtomicBoolean();
+
+    public DeletionQueue() {
+        super("S3 artifact deletion");
+        load();
+    }
+
+    public static DeletionQueue get() {
+        return ExtensionList.lookupSingleton(DeletionQueue.class);
+    }
+
+    /**
+     * Queues the deletions and starts deleting, a run in progress picks them up in its next round.
+     */
+    public void enqueue(Collection<Deletion> deletions) {
+        if (deletions.isEmpty()) {
+            return;
+        }
+        synchronized (this) {
+            add(deletions);
+        }
+        requested.set(true);
+        run();
+    }
+
+    /**
+     * Drops the pending deletions of the objects, whichever profile and region they were queued with.
+     * A batch that is being deleted right now isn't stopped.
+     */
+    public void cancel(Collection<Destination> objects) {
+        final Set<List<String>> keys = new HashSet<>();
+        for (Destination object : objects) {
+            keys.add(Arrays.asList(object.bucketName, object.objectName));
+        }
+        synchronized (this) {
+            final List<Deletion> cancelled = new ArrayList<>();
+            for (Deletion deletion : pending.keySet()) {
+                if (keys.contains(Arrays.asList(deletion.bucketName, deletion.objectName))) {
+                    cancelled.add(deletion);
+                }
+            }
+            remove(cancelled);
+        }
+    }
+
+    public synchronized int size() {
+        return pending.size();
+    }
+
+    @Override
+    public long getRecurrencePeriod() {
+        return TimeUnit.MINUTES.toMillis(5);
+    }
+
+    @Override
+    protected void execute(TaskListener listener) throws IOException, InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(MAX_CONCURRENT_BATCHES,
+                new NamedThreadFactory(Executors.defaultThreadFactory(), DeletionQueue.class.getName()));
+        try {
+            // another round as long as one makes progress, or deletions were queued while it ran
+            while (requested.getAndSet(false) | deleteQueued(executor, listener)) {
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Deletes what is queued right now.
+     *
+     * @return whether anything was removed from the queue
+     */
+    private boolean deleteQueued(ExecutorService executor, TaskListener listener) throws InterruptedException {
+        final Map<List<String>, List<Deletion>> byBucket = new LinkedHashMap<>();
+        synchronized (this) {
+            for (Deletion deletion : pending.keySet()) {
+                byBucket.computeIfAbsent(Arrays.asList(deletion.profile, deletion.region, deletion.bucketName), k -> new ArrayList<>()).add(deletion);
+            }
+        }
+        if (byBucket.isEmpty()) {
+            return false;
+        }
+
+        final List<List<Deletion>> partitions = new ArrayList<>();
+        for (List<Deletion> deletions : byBucket.values()) {
+            partitions.addAll(Lists.partition(deletions, BATCH_SIZE));
+        }
+        final RetryPolicy.Budget budget = RETRY_POLICY.newBudget(partitions.size());
+        final List<Future<List<Deletion>>> batches = new ArrayList<>();
+        for (List<Deletion> batch : partitions) {
+            batches.add(executor.submit(() -> delete(batch, budget, listener)));
+        }
+
+        final List<Deletion> done = new ArrayList<>();
+        for (Future<List<Deletion>> batch : batches) {
+            try {
+                done.addAll(batch.get());
+            } catch (ExecutionException e) {
+                listener.error("Failed to delete artifacts: " + e.getCause());
+            }
+        }
+
+        // saved once per round, a crash in between only repeats deletions
+        synchronized (this) {
+            remove(done);
+        }
+        return !done.isEmpty();
+    }
+
+    /**
+     * @return the deletions that are done with, including those S3 refused for good
+     */
+    private static List<Deletion> delete(List<Deletion> batch, RetryPolicy.Budget budget, TaskListener listener) throws InterruptedException {
+        final Deletion first = batch.get(0);
+        final S3Profile profile;
+        try {
+            profile = S3BucketPublisher.getProfile(first.profile);
+        } catch (IllegalArgumentException e) {
+            listener.getLogger().println("Dropping " + batch.size() + " deletions in " + first.bucketName + ": " + e.getMessage());
+            return batch;
+        }
+
+        final List<Destination> objects = new ArrayList<>(batch.size());
+        for (Deletion deletion : batch) {
+            objects.add(new Destination(deletion.bucketName, deletion.objectName));
+        }
+        try {
+            // content stored once for several builds may be referred to again since it was queued
+            final Map<String, String> failures = RETRY_POLICY.call(budget, first.bucketName,
+                    () -> ContentReferences.get().deleteUnreferenced(objects, unreferenced -> {
+                        if (unreferenced.isEmpty()) {
+                            return Collections.<String, String>emptyMap();
+                        }
+                        final List<String> objectNames = new ArrayList<>(unreferenced.size());
+                        for (Destination object : unreferenced) {
+                            objectNames.add(object.objectName);
+                        }
+                        return profile.delete(first.region, first.bucketName, objectNames);
+                    }));
+            for (Map.Entry<String, String> failure : failures.entrySet()) {
+                listener.getLogger().println("Failed to delete " + first.bucketName + '/' + failure.getKey() + ": " + failure.getValue());
+            }
+            listener.getLogger().println("Deleted " + (batch.size() - failures.size()) + " objects in " + first.bucketName);
+            return batch;
+        } catch (IOException e) {
+            if (RetryPolicy.classify(e) == RetryPolicy.Failure.PERMANENT) {
+                LOGGER.log(Level.WARNING, "Dropping " + batch.size() + " deletions in " + first.bucketName + ", S3 refused them", e);
+                listener.getLogger().println("Dropping " + batch.size() + " deletions in " + first.bucketName + ": " + e.getMessage());
+                return batch;
+            }
+            // throttled, unreachable or similar, retried on the next run
+            LOGGER.log(Level.WARNING, "Failed to delete " + batch.size() + " objects in " + first.bucketName, e);
+            return new ArrayList<>();
+        }
+    }
+
+    /**
+     * Adds the deletions not queued yet to the queue, and saves them to a new file.
+     */
+    private void add(Collection<Deletion> deletions) {
+        assert Thread.holdsLock(this);
+        final long segment = nextSegment.getAndIncrement();
+        final Set<Deletion> added = new LinkedHashSet<>();
+        for (Deletion deletion : deletions) {
+            if (pending.putIfAbsent(deletion, segment) == null) {
+                added.add(deletion);
+            }
+        }
+        if (!added.isEmpty()) {
+            segments.put(segment, added);
+            save(segment, added);
+        }
+    }
+
+    /**
+     * Drops the deletions from the queue, and saves the files they were in.
+     */
+    private void remove(Collection<Deletion> deletions) {
+        assert Thread.holdsLock(this);
+        final Set<Long> touched = new HashSet<>();
+        for (Deletion deletion : deletions) {
+            final Long segment = pending.remove(deletion);
+            if (segment != null) {
+                segments.get(segment).remove(deletion);
+                touched.add(segment);
+            }
+        }
+        for (Long segment : touched) {
+            final Set<Deletion> rest = segments.get(segment);
+            if (rest.isEmpty()) {
+                segments.remove(segment);
+            }
+            save(segment, rest);
+        }
+    }
+
+    private static File getSegmentsDir() {
+        return new File(Jenkins.get().getRootDir(), DeletionQueue.class.getName());
+    }
+
+    private static XmlFile getSegmentFile(long segment) {
+        return new XmlFile(Jenkins.XSTREAM2, new File(getSegmentsDir(), segment + ".xml"));
+    }
+
+    /**
+     * The single file the whole queue was saved in by earlier versions.
+     */
+    private static XmlFile getLegacyFile() {
+        return new XmlFile(Jenkins.XSTREAM2, new File(Jenkins.get().getRootDir(), DeletionQueue.class.getName() + ".xml"));
+    }
+
+    private synchronized void load() {
+        final File[] files = getSegmentsDir().listFiles((dir, name) -> name.matches("\\d+\\.xml"));
+        if (files != null) {
+            for (File file : files) {
+                final long segment = Long.parseLong(file.getName().substring(0, file.getName().length() - ".xml".length()));
+                nextSegment.set(Math.max(nextSegment.get(), segment + 1));
+                final Set<Deletion> deletions = new LinkedHashSet<>();
+                for (Deletion deletion : read(new XmlFile(Jenkins.XSTREAM2, file))) {
+                    if (pending.putIfAbsent(deletion, segment) == null) {
+                        deletions.add(deletion);
+                    }
+                }
+                if (deletions.isEmpty()) {
+                    save(segment, deletions);
+                } else {
+                    segments.put(segment, deletions);
+                }
+            }
+        }
+
+        final XmlFile legacy = getLegacyFile();
+        if (legacy.exists()) {
+            add(read(legacy));
+            try {
+                legacy.delete();
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to delete " + legacy, e);
+            }
+        }
+    }
+
+    private static List<Deletion> read(XmlFile file) {
+        final List<Deletion> deletions = new ArrayList<>();
+        try {
+            final Object read = file.read();
+            if (read instanceof Collection) {
+                for (Object deletion : (Collection<?>) read) {
+                    if (deletion instanceof Deletion) {
+                        deletions.add((Deletion) deletion);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to load " + file, e);
+        }
+        return deletions;
+    }
+
+    /**
+     * Saves the deletions still pending of a file, deletes the file once there are none.
+     */
+    private static void save(long segment, Set<Deletion> deletions) {
+        final XmlFile file = getSegmentFile(segment);
+        try {
+            if (deletions.isEmpty()) {
+                file.delete();
+            } else {
+                file.write(new ArrayList<>(deletions));
+            }
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to save " + file, e);
+        }
+    }
+
+    /**
+     * Resumes the deletions that were pending when the controller stopped.
+     */
+    @Initializer(after = InitMilestone.JOB_CONFIG_ADAPTED)
+    public static void resume() {
+        final DeletionQueue queue = get();
+        if (queue.size() > 0) {
+            queue.run();
+        }
+    }
+
+    /**
+     * An object to delete.
+     */
+    public static final class Deletion {
+        private final String profile;
+        private final String region;
+        private final String bucketName;
+        private final String objectName;
+
+        public Deletion(String profile, String region, String bucketName, String objectName) {
+            this.profile = profile;
+            this.region = region;
+            this.bucketName = bucketName;
+            this.objectName = objectName;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Deletion)) {
+                return false;
+            }
+            final Deletion other = (Deletion) o;
+            return Objects.equals(profile, other.profile)
+                    && Objects.equals(region, other.region)
+                    && Objects.equals(bucketName, other.bucketName)
+                    && Objects.equals(objectName, other.objectName);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(profile, region, bucketName, objectName);
+        }
+
+        @Override
+        public String toString() {
+            return bucketName + '/' + objectName;
+        }
+    }
+}
@@ -46,6 +46,15 @@ public class Destination implements Serializable {
   }
   
 
+  /**
+   * Key of content stored by its MD5, relative to the bucket's path.
+   * Builds publishing the same content share the object.
+   */
+  public static String contentKey(String md5)
+  {
+    return "cas/" + md5.substring(0, 2) + "/" + md5;
+  }
+
   public static Destination newFromRun(Run run, String bucketName, String fileName, boolean enableFullpath)
   {
     final String projectName;
@@ -63,6 +72,9 @@ public class Destination implements Serializable {
 
   public static Destination newFromRun(Run run, S3Artifact artifact) 
   {
+    if (artifact.getContentKey() != null) {
+      return new Destination(artifact.getBucket(), artifact.getContentKey());
+    }
     return newFromRun(run, artifact.getBucket(), artifact.getName(), artifact.useFullProjectName());
   }
 }
@@ -0,0 +1,69 @@
+package hudson.plugins.s3;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * MD5s of the files on this node, so files that haven't changed aren't read again to be compared.
+ *
+ * An entry is valid as long as the file keeps its size and modification time. Like make and rsync,
+ * a file rewritten with the same size within the timestamp resolution isn't noticed.
+ */
+public final class DigestCache {
+    private DigestCache() {}
+
+    private static final int MAX_ENTRIES = Integer.getInteger(DigestCache.class.getName() + ".maxEntries", 100000);
+
+    private static final Map<String, Entry> entries = Collections.synchronizedMap(new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    });
+
+    /**
+     * @return the MD5 of the file, only read if it changed since it was last digested
+     */
+    public static String digest(File file) throws IOException {
+        // the attributes are read first, a change while the file is read invalidates the entry
+        final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        final String path = file.getAbsolutePath();
+        final Entry entry = entries.get(path);
+        if (entry != null && entry.matches(attributes)) {
+            return entry.md5;
+        }
+
+        final String md5 = MD5.generateFromFile(file);
+        entries.put(path, new Entry(attributes, md5));
+        return md5;
+    }
+
+    /**
+     * Records the MD5 of a file that was just written, e.g. computed while it was downloaded.
+     */
+    public static void put(File file, String md5) throws IOException {
+        final BasicFileAttributes attributes = Files.readAttributes(file.toPath(), BasicFileAttributes.class);
+        entries.put(file.getAbsolutePath(), new Entry(attributes, md5));
+    }
+
+    private static final class Entry {
+        private final long size;
+        private final long lastModified;
+        private final String md5;
+
+        Entry(BasicFileAttributes attributes, String md5) {
+            this.size = attributes.size();
+            this.lastModified = attributes.lastModifiedTime().toMillis();
+            this.md5 = md5;
+        }
+
+        boolean matches(BasicFileAttributes attributes) {
+            return size == attributes.size() && lastModified == attributes.lastModifiedTime().toMillis();
+        }
+    }
+}
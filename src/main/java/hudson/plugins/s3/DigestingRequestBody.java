@@ -0,0 +1,68 @@
+package hudson.plugins.s3;
+
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.util.Optional;
+
+/**
+ * Feeds the content of a request body to a digest while it is sent, so the digest is the one of the bytes S3 received,
+ * and the file isn't read a second time for it.
+ *
+ * The SDK subscribes again for every attempt of the request, the digest starts over each time.
+ * Attempts follow each other, so once the request has completed the digest covers its last attempt.
+ */
+final class DigestingRequestBody implements AsyncRequestBody {
+    private final AsyncRequestBody body;
+    private final MessageDigest digest;
+
+    DigestingRequestBody(AsyncRequestBody body, MessageDigest digest) {
+        this.body = body;
+        this.digest = digest;
+    }
+
+    @Override
+    public Optional<Long> contentLength() {
+        return body.contentLength();
+    }
+
+    @Override
+    public String contentType() {
+        return body.contentType();
+    }
+
+    @Override
+    public void subscribe(Subscriber<? super ByteBuffer> subscriber) {
+        synchronized (digest) {
+            digest.reset();
+        }
+        body.subscribe(new Subscriber<ByteBuffer>() {
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscriber.onSubscribe(subscription);
+            }
+
+            @Override
+            public void onNext(ByteBuffer buffer) {
+                synchronized (digest) {
+                    // a view of the buffer, its position is left to the subscriber
+                    digest.update(buffer.duplicate());
+                }
+                subscriber.onNext(buffer);
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                subscriber.onError(error);
+            }
+
+            @Override
+            public void onComplete() {
+                subscriber.onComplete();
+            }
+        });
+    }
+}
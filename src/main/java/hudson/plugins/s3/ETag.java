@@ -0,0 +1,114 @@
+package hudson.plugins.s3;
+
+import org.apache.commons.codec.binary.Hex;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+
+/**
+ * Computes the ETag S3 assigns to a file uploaded by this plugin, without uploading it.
+ *
+ * Files up to the {@link TransferTuning#getMultipartThreshold() multipart threshold} are uploaded in one piece,
+ * their ETag is the MD5 of the content. Larger files are uploaded in parts, their ETag is the MD5 of the concatenated
+ * MD5s of the parts, followed by the number of parts, so it depends on the part size the file was uploaded with. This only holds for objects without SSE-C or SSE-KMS encryption, whose ETags aren't digests.
+ */
+public final class ETag {
+    /**
+     * Maximum number of parts of a multipart upload, the SDK grows the parts of larger files to stay below it.
+     */
+    static final int MAX_PARTS = 10000;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final String md5;
+    private final String eTag;
+
+    private ETag(String md5, String eTag) {
+        this.md5 = md5;
+        this.eTag = eTag;
+    }
+
+    /**
+     * MD5 of the whole content.
+     */
+    public String getMD5() {
+        return md5;
+    }
+
+    /**
+     * ETag without the surrounding quotes.
+     */
+    public String getETag() {
+        return eTag;
+    }
+
+    /**
+     * Reads the content once, for both the ETag and the MD5.
+     *
+     * @param length number of bytes to read
+     */
+    public static ETag compute(InputStream in, long length) throws IOException {
+        return compute(in, length, TransferTuning.DEFAULT);
+    }
+
+    /**
+     * @param tuning the tuning the file would be uploaded with
+     */
+    public static ETag compute(InputStream in, long length, TransferTuning tuning) throws IOException {
+        return compute(in, length, tuning.getMultipartThreshold(), tuning.partSizeFor(length));
+    }
+
+    static ETag compute(InputStream in, long length, long threshold, long minimumPartSize) throws IOException {
+        final MessageDigest whole = MD5.newDigest();
+        if (length <= threshold) {
+            copy(in, length, whole, null);
+            final String md5 = MD5.toHex(whole);
+            return new ETag(md5, md5);
+        }
+
+        final long partSize = partSize(length, minimumPartSize);
+        final MessageDigest composite = MD5.newDigest();
+        int parts = 0;
+        for (long remaining = length; remaining > 0; remaining -= partSize) {
+            final MessageDigest part = MD5.newDigest();
+            copy(in, Math.min(partSize, remaining), whole, part);
+            composite.update(part.digest());
+            parts++;
+        }
+        return new ETag(MD5.toHex(whole), Hex.encodeHexString(composite.digest()) + '-' + parts);
+    }
+
+    /**
+     * Part size the SDK's multipart upload uses for a file of the given length.
+     */
+    static long partSize(long length, long minimumPartSize) {
+        return Math.max(minimumPartSize, (length + MAX_PARTS - 1) / MAX_PARTS);
+    }
+
+    /**
+     * @return the ETag as reported by S3, without the quotes
+     */
+    public static String unquote(String eTag) {
+        if (eTag != null && eTag.length() >= 2 && eTag.startsWith("\"") && eTag.endsWith("\"")) {
+            return eTag.substring(1, eTag.length() - 1);
+        }
+        return eTag;
+    }
+
+    private static void copy(InputStream in, long length, MessageDigest first, MessageDigest second) throws IOException {
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        long remaining = length;
+        while (remaining > 0) {
+            final int read = in.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+            if (read < 0) {
+                throw new EOFException("File ended " + remaining + " bytes early");
+            }
+            first.update(buffer, 0, read);
+            if (second != null) {
+                second.update(buffer, 0, read);
+            }
+            remaining -= read;
+        }
+    }
+}
@@ -3,8 +3,11 @@ package hudson.plugins.s3;
 import hudson.Extension;
 import hudson.model.Describable;
 import hudson.model.Descriptor;
+import hudson.util.FormValidation;
 import hudson.util.ListBoxModel;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import org.kohsuke.stapler.QueryParameter;
 import software.amazon.awssdk.regions.Region;
 import software.amazon.awssdk.services.s3.S3Client;
 
@@ -69,10 +72,31 @@ public final class Entry implements Describable<Entry> {
     public boolean flatten;
 
     /**
-    * use GZIP to compress files
+    * use GZIP to compress files, superseded by {@link #compression}
     */
     public boolean gzipFiles;
 
+    /**
+     * Name of the {@link Compression} codec to compress files with,
+     * {@code null} for configurations predating codecs, see {@link #gzipFiles}
+     */
+    private String compression;
+
+    /**
+     * Codec specific compression level, 0 for the codec's default
+     */
+    private int compressionLevel;
+
+    /**
+     * Don't upload files whose content is in the bucket already
+     */
+    private boolean skipUnchanged;
+
+    /**
+     * Store managed artifacts by their content, once for all builds
+     */
+    private boolean contentAddressed;
+
     /**
      * show content of entity directly in browser
      */
@@ -110,6 +134,52 @@ public final class Entry implements Describable<Entry> {
         this.showDirectlyInBrowser = showDirectlyInBrowser;
     }
 
+    public String getCompression() {
+        return getCompressionCodec().name();
+    }
+
+    @DataBoundSetter
+    public void setCompression(String compression) {
+        this.compression = Compression.fromName(compression).name();
+    }
+
+    public Compression getCompressionCodec() {
+        if (compression == null) {
+            return gzipFiles ? Compression.GZIP : Compression.NONE;
+        }
+        return Compression.fromName(compression);
+    }
+
+    /**
+     * @return the configured level within the range of the codec, the codec may be set after the level
+     */
+    public int getCompressionLevel() {
+        return getCompressionCodec().levelFor(compressionLevel);
+    }
+
+    @DataBoundSetter
+    public void setCompressionLevel(int compressionLevel) {
+        this.compressionLevel = Math.max(0, compressionLevel);
+    }
+
+    public boolean isSkipUnchanged() {
+        return skipUnchanged;
+    }
+
+    @DataBoundSetter
+    public void setSkipUnchanged(boolean skipUnchanged) {
+        this.skipUnchanged = skipUnchanged;
+    }
+
+    public boolean isContentAddressed() {
+        return contentAddressed;
+    }
+
+    @DataBoundSetter
+    public void setContentAddressed(boolean contentAddressed) {
+        this.contentAddressed = contentAddressed;
+    }
+
     @Override
     public Descriptor<Entry> getDescriptor() {
         return DESCRIPOR;
@@ -133,6 +203,28 @@ public final class Entry implements Describable<Entry> {
             return model;
         }
 
+        public ListBoxModel doFillCompressionItems() {
+            final ListBoxModel model = new ListBoxModel();
+            for (Compression c : Compression.values()) {
+                model.add(c.getDisplayName(), c.name());
+            }
+            return model;
+        }
+
+        public FormValidation doCheckCompressionLevel(@QueryParameter String compression, @QueryParameter int value) {
+            final Compression codec = Compression.fromName(compression);
+            if (value < 0) {
+                return FormValidation.error("The compression level can't be negative");
+            }
+            if (value > codec.getMaxLevel()) {
+                if (codec.getMaxLevel() == 0) {
+                    return FormValidation.warning(codec.getDisplayName() + " has no compression levels, the level is ignored");
+                }
+                return FormValidation.error("The compression level of " + codec.getDisplayName() + " is at most " + codec.getMaxLevel());
+            }
+            return FormValidation.ok();
+        }
+
         public ListBoxModel doFillSelectedRegionItems() {
             final ListBoxModel model = new ListBoxModel();
             for (Region r : regions) {
@@ -21,8 +21,12 @@ public class FingerprintRecord implements Serializable {
 
 
     public FingerprintRecord(boolean produced, String bucket, String name, String region, String md5sum) {
+        this(produced, bucket, name, region, md5sum, null);
+    }
+
+    public FingerprintRecord(boolean produced, String bucket, String name, String region, String md5sum, String contentKey) {
         this.produced = produced;
-        this.artifact = new S3Artifact(region, bucket, name);
+        this.artifact = new S3Artifact(region, bucket, name, contentKey);
         this.md5sum = md5sum;
         this.showDirectlyInBrowser = false;
         this.keepForever = false;
@@ -0,0 +1,85 @@
+package hudson.plugins.s3;
+
+import java.io.Serializable;
+
+/**
+ * Counts values in buckets of powers of two, so it takes the same little space for any number of values
+ * and histograms of several nodes and builds add up. Percentiles are the upper bound of their bucket,
+ * at most twice the actual value.
+ */
+public final class Histogram implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Bucket {@code i} holds the values below {@code 2^i} and at least {@code 2^(i-1)}, bucket {@code 0} holds {@code 0}.
+     */
+    private final long[] counts = new long[Long.SIZE];
+    private long count;
+    private long sum;
+    private long max;
+
+    public synchronized void record(long value) {
+        final long v = Math.max(0, value);
+        counts[bucketOf(v)]++;
+        count++;
+        sum += v;
+        max = Math.max(max, v);
+    }
+
+    public void add(Histogram other) {
+        final long[] otherCounts;
+        final long otherCount, otherSum, otherMax;
+        synchronized (other) {
+            otherCounts = other.counts.clone();
+            otherCount = other.count;
+            otherSum = other.sum;
+            otherMax = other.max;
+        }
+        synchronized (this) {
+            for (int i = 0; i < counts.length; i++) {
+                counts[i] += otherCounts[i];
+            }
+            count += otherCount;
+            sum += otherSum;
+            max = Math.max(max, otherMax);
+        }
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+
+    public synchronized long getMean() {
+        return count > 0 ? sum / count : 0;
+    }
+
+    public synchronized long getMax() {
+        return max;
+    }
+
+    /**
+     * @param percent of the values which are at most the result
+     */
+    public synchronized long percentile(double percent) {
+        if (count == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long) Math.ceil(percent / 100 * count));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(max, upperBoundOf(i));
+            }
+        }
+        return max;
+    }
+
+    static int bucketOf(long value) {
+        return Long.SIZE - Long.numberOfLeadingZeros(value);
+    }
+
+    private static long upperBoundOf(int bucket) {
+        return bucket >= Long.SIZE - 1 ? Long.MAX_VALUE : (1L << bucket) - 1;
+    }
+}
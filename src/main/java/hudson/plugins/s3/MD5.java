@@ -1,12 +1,14 @@
 package hudson.plugins.s3;
 
 import hudson.FilePath;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.codec.digest.DigestUtils;
 
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.security.MessageDigest;
 
 public class MD5 {
     public static String generateFromFile(File file) throws IOException {
@@ -21,6 +23,18 @@ public class MD5 {
         }
     }
 
+    /**
+     * A fresh digest to be fed while the bytes are streamed elsewhere,
+     * e.g. by a {@link java.security.DigestInputStream}, so the file doesn't have to be read twice.
+     */
+    public static MessageDigest newDigest() {
+        return DigestUtils.getMd5Digest();
+    }
+
+    public static String toHex(MessageDigest digest) {
+        return Hex.encodeHexString(digest.digest());
+    }
+
     private static String getMD5FromStream(InputStream stream) throws IOException {
         return DigestUtils.md5Hex(stream);
     }
@@ -0,0 +1,289 @@
+package hudson.plugins.s3;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import software.amazon.awssdk.awscore.AwsRequest;
+import software.amazon.awssdk.awscore.AwsRequestOverrideConfiguration;
+import software.amazon.awssdk.core.SdkRequest;
+import software.amazon.awssdk.core.interceptor.Context;
+import software.amazon.awssdk.core.interceptor.ExecutionAttribute;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.core.interceptor.ExecutionInterceptor;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Limits the requests in flight to one prefix of a bucket in this JVM, as S3 limits the request rate per prefix.
+ *
+ * The limit adapts like TCP's congestion window: every request which completes raises it by {@code 1 / limit},
+ * about one per round of requests, and a throttling response lowers it to {@value #DECREASE} of what it was,
+ * at most once per {@value #DECREASE_INTERVAL_MILLIS} ms, as the requests of one round are throttled together.
+ * So the requests settle just below the rate S3 allows, instead of the SDK retrying into the limit over and over.
+ *
+ * Throttling is reported by the {@link Interceptor} of the clients, for every attempt the SDK makes, including those
+ * it retried successfully, and counted in the {@link TransferStats} the request carries, see {@link #countThrottles}.
+ * Requests are limited where they are sent: parts of {@link ResumableUpload}s and ranges of
+ * {@link RangedDownload}s take a permit each, other transfers one for the whole object.
+ *
+ * A limiter lives as long as its prefix is active: once it had no request in flight or waiting for {@link #IDLE_MILLIS},
+ * it is dropped, and the next request to the prefix starts from {@link #INITIAL_LIMIT} again.
+ */
+public final class PrefixLimiter {
+    private static final Logger LOGGER = Logger.getLogger(PrefixLimiter.class.getName());
+
+    /**
+     * Leading segments of a key S3 is assumed to partition by, {@code jobs/<project>/<build>/} for managed artifacts.
+     */
+    private static final int PREFIX_DEPTH = Integer.getInteger(PrefixLimiter.class.getName() + ".prefixDepth", 3);
+    static final int INITIAL_LIMIT = Integer.getInteger(PrefixLimiter.class.getName() + ".initialLimit", 64);
+    static final int MIN_LIMIT = 2;
+    static final int MAX_LIMIT = Integer.getInteger(PrefixLimiter.class.getName() + ".maxLimit", 1024);
+    static final double DECREASE = 0.7;
+    static final long DECREASE_INTERVAL_MILLIS = 1000;
+    static final long IDLE_MILLIS = Long.getLong(PrefixLimiter.class.getName() + ".idleMillis", TimeUnit.MINUTES.toMillis(10));
+
+    /**
+     * Stats of the call which sent the request.
+     */
+    private static final ExecutionAttribute<TransferStats> STATS = new ExecutionAttribute<>(TransferStats.class.getName());
+
+    private static final ConcurrentMap<List<String>, PrefixLimiter> limiters = new ConcurrentHashMap<>();
+    /**
+     * {@link System#nanoTime()} when the idle limiters were dropped last.
+     */
+    private static final AtomicLong sweptAt = new AtomicLong(System.nanoTime());
+
+    private final String bucketName;
+    private final String prefix;
+    private final String name;
+    private double limit = INITIAL_LIMIT;
+    private int inFlight;
+    private long decreasedAt;
+    private boolean decreased;
+    private long throttles;
+    private final Queue<CompletableFuture<Permit>> waiting = new ArrayDeque<>();
+    /**
+     * {@link System#nanoTime()} of the last request which started or finished.
+     */
+    private long usedAt = System.nanoTime();
+    private boolean retired;
+
+    PrefixLimiter(String bucketName, String prefix) {
+        this.bucketName = bucketName;
+        this.prefix = prefix;
+        this.name = bucketName + '/' + prefix;
+    }
+
+    public static PrefixLimiter forObject(String bucketName, String objectName) {
+        sweep(System.nanoTime());
+        final String prefix = prefixOf(objectName);
+        return limiters.computeIfAbsent(Arrays.asList(bucketName, prefix), k -> new PrefixLimiter(bucketName, prefix));
+    }
+
+    /**
+     * Counts the throttling of the request in the stats of the call which sends it. Other calls to the same prefix
+     * aren't counted, the limiter is shared by all of them.
+     *
+     * @param stats {@code null} if the call doesn't count
+     * @return the request
+     */
+    public static <B extends AwsRequest.Builder> B countThrottles(B request, @CheckForNull TransferStats stats) {
+        if (stats != null) {
+            final AwsRequestOverrideConfiguration configuration = request.overrideConfiguration();
+            request.overrideConfiguration((configuration != null ? configuration.toBuilder() : AwsRequestOverrideConfiguration.builder())
+                    .putExecutionAttribute(STATS, stats)
+                    .build());
+        }
+        return request;
+    }
+
+    /**
+     * Drops the limiters which are idle, once per {@link #IDLE_MILLIS}.
+     */
+    static void sweep(long now) {
+        final long swept = sweptAt.get();
+        if (now - swept < TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS) || !sweptAt.compareAndSet(swept, now)) {
+            return;
+        }
+        for (List<String> key : limiters.keySet()) {
+            // retired and removed at once, a limiter looked up meanwhile is either still in use or replaced
+            limiters.computeIfPresent(key, (k, limiter) -> limiter.retireIfIdle(now) ? null : limiter);
+        }
+    }
+
+    private synchronized boolean retireIfIdle(long now) {
+        if (inFlight == 0 && waiting.isEmpty() && now - usedAt >= TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS)) {
+            retired = true;
+        }
+        return retired;
+    }
+
+    /**
+     * @return the first {@link #PREFIX_DEPTH} directories of the key, at most its parent directory
+     */
+    static String prefixOf(String objectName) {
+        int end = 0;
+        for (int depth = 0; depth < PREFIX_DEPTH; depth++) {
+            final int slash = objectName.indexOf('/', end);
+            if (slash < 0) {
+                break;
+            }
+            end = slash + 1;
+        }
+        return objectName.substring(0, end);
+    }
+
+    /**
+     * @return completes once a request may be sent, the permit has to be released when it is done
+     */
+    public CompletableFuture<Permit> acquire() {
+        final CompletableFuture<Permit> permit = new CompletableFuture<>();
+        final boolean dropped;
+        synchronized (this) {
+            dropped = retired;
+            if (!dropped) {
+                usedAt = System.nanoTime();
+                if (!waiting.isEmpty() || inFlight >= (int) limit) {
+                    waiting.add(permit);
+                    return permit;
+                }
+                inFlight++;
+            }
+        }
+        if (dropped) {
+            // dropped while idle, e.g. held by a transfer which paused, the prefix has a limiter of its own by now
+            return forObject(bucketName, prefix).acquire();
+        }
+        permit.complete(new Permit());
+        return permit;
+    }
+
+    /**
+     * Waits for a permit, for transfers started by a thread of their own.
+     */
+    public Permit acquireInterruptibly() throws InterruptedException {
+        final CompletableFuture<Permit> permit = acquire();
+        try {
+            return permit.get();
+        } catch (InterruptedException e) {
+            if (!permit.cancel(false)) {
+                // granted meanwhile
+                permit.join().release(e);
+            }
+            throw e;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /**
+     * S3 throttled a request to the prefix.
+     */
+    public void throttled() {
+        throttled(System.nanoTime());
+    }
+
+    synchronized void throttled(long now) {
+        throttles++;
+        if (decreased && now - decreasedAt < TimeUnit.MILLISECONDS.toNanos(DECREASE_INTERVAL_MILLIS)) {
+            return;
+        }
+        final double previous = limit;
+        limit = Math.max(MIN_LIMIT, limit * DECREASE);
+        decreased = true;
+        decreasedAt = now;
+        LOGGER.fine(() -> "Throttled on " + name + ", requests limited to " + (int) limit + " instead of " + (int) previous);
+    }
+
+    public synchronized int getLimit() {
+        return (int) limit;
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * @return throttling responses to the prefix so far, including those which didn't lower the limit
+     */
+    public synchronized long getThrottles() {
+        return throttles;
+    }
+
+    private void release(boolean completed) {
+        final List<CompletableFuture<Permit>> admitted = new ArrayList<>();
+        synchronized (this) {
+            inFlight--;
+            usedAt = System.nanoTime();
+            if (completed) {
+                limit = Math.min(MAX_LIMIT, limit + 1 / limit);
+            }
+            while (!waiting.isEmpty() && inFlight < (int) limit) {
+                inFlight++;
+                admitted.add(waiting.poll());
+            }
+        }
+        // the waiting requests are sent outside the lock
+        for (CompletableFuture<Permit> permit : admitted) {
+            if (!permit.complete(new Permit())) {
+                // cancelled while waiting
+                release(false);
+            }
+        }
+    }
+
+    /**
+     * A request in flight.
+     */
+    public final class Permit {
+        private boolean released;
+
+        /**
+         * @param failure why the request failed, {@code null} if it completed
+         */
+        public void release(Throwable failure) {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            PrefixLimiter.this.release(failure == null);
+        }
+    }
+
+    /**
+     * Reports throttling responses to the limiter of the request's prefix, and to the stats of the call which sent it.
+     */
+    public static final class Interceptor implements ExecutionInterceptor {
+        @Override
+        public void afterTransmission(Context.AfterTransmission context, ExecutionAttributes executionAttributes) {
+            final int status = context.httpResponse().statusCode();
+            if (status != 503 && status != 429) {
+                return;
+            }
+            throttled(context.request(), executionAttributes);
+        }
+
+        static void throttled(SdkRequest request, ExecutionAttributes executionAttributes) {
+            final TransferStats stats = executionAttributes.getAttribute(STATS);
+            if (stats != null) {
+                stats.recordThrottle();
+            }
+            final String bucketName = request.getValueForField("Bucket", String.class).orElse(null);
+            if (bucketName != null) {
+                forObject(bucketName, request.getValueForField("Key", String.class).orElse("")).throttled();
+            }
+        }
+    }
+}
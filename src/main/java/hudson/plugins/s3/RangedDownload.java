@@ -0,0 +1,365 @@
+package hudson.plugins.s3;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import software.amazon.awssdk.core.FileTransformerConfiguration;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.BitSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Downloads a large object as byte ranges in parallel, every range written to its offset of the target,
+ * so a single object uses as many connections as a multipart upload does.
+ *
+ * A range which fails is requested again on its own. The ranges completed so far are recorded next to the target,
+ * see {@link #progressFileOf(File)}, so a download which failed or was interrupted continues with the missing ranges,
+ * as long as the object didn't change meanwhile. Every range is requested with the object's ETag,
+ * a range of a replaced object fails instead of mixing content.
+ *
+ * The download starts from a GET of the whole object, which tells its size and ETag without a HEAD request.
+ * The first range is read from that GET, the others are requested while it is.
+ *
+ * Every range takes a permit of the {@link PrefixLimiter} of the object's prefix.
+ */
+public final class RangedDownload {
+    private static final Logger LOGGER = Logger.getLogger(RangedDownload.class.getName());
+
+    /**
+     * Ranges of a single object in flight at the same time.
+     */
+    private static final int MAX_CONCURRENT_RANGES = Integer.getInteger(RangedDownload.class.getName() + ".maxConcurrentRanges", 16);
+    /**
+     * Times a range is requested before the download fails, on top of the SDK's own retries.
+     */
+    private static final int MAX_RANGE_ATTEMPTS = Integer.getInteger(RangedDownload.class.getName() + ".maxRangeAttempts", 3);
+
+    private static final String PROGRESS_SUFFIX = ".s3download";
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final S3AsyncClient client;
+    private final String bucket;
+    private final String key;
+    private final String eTag;
+    private final long length;
+    private final long rangeSize;
+    private final int rangeCount;
+    private final File target;
+    private final File progressFile;
+    private final PrefixLimiter limiter;
+    private final BandwidthLimit bandwidth;
+    @CheckForNull
+    private final TransferStats stats;
+    private final ResponseInputStream<GetObjectResponse> first;
+    private final PrefixLimiter.Permit firstPermit;
+    private final BitSet completed = new BitSet();
+    private final CompletableFuture<Void> result = new CompletableFuture<>();
+    private final Set<CompletableFuture<?>> inFlight = ConcurrentHashMap.newKeySet();
+
+    RangedDownload(S3AsyncClient client, String bucket, String key, ResponseInputStream<GetObjectResponse> first, PrefixLimiter.Permit firstPermit,
+                   long rangeSize, File target, BandwidthLimit bandwidth, @CheckForNull TransferStats stats) {
+        this.client = client;
+        this.bucket = bucket;
+        this.key = key;
+        this.first = first;
+        this.firstPermit = firstPermit;
+        this.eTag = first.response().eTag();
+        this.length = objectSize(first.response());
+        this.rangeSize = rangeSize;
+        this.rangeCount = (int) ((length + rangeSize - 1) / rangeSize);
+        this.target = target;
+        this.progressFile = progressFileOf(target);
+        this.limiter = PrefixLimiter.forObject(bucket, key);
+        this.bandwidth = bandwidth;
+        this.stats = stats;
+    }
+
+    /**
+     * Downloads the object to the target, continuing an earlier download of the same object if there is one.
+     *
+     * @param response GET of the whole object, the first range is read from it; it is closed and its permit
+     *                 of the {@link PrefixLimiter} released once it was
+     * @param rangeSize bytes requested at once
+     * @param bandwidth limit the ranges are received with
+     * @param stats counts the throttling of the ranges, {@code null} if nothing counts them
+     */
+    public static void download(S3AsyncClient client, String bucket, String key, ResponseInputStream<GetObjectResponse> response,
+                                PrefixLimiter.Permit permit, long rangeSize, File target, BandwidthLimit bandwidth,
+                                @CheckForNull TransferStats stats) throws IOException, InterruptedException {
+        new RangedDownload(client, bucket, key, response, permit, rangeSize, target, bandwidth, stats).run();
+    }
+
+    /**
+     * @return the size of the whole object, a multipart client answers with its first part and the part's range of the object
+     */
+    public static long objectSize(GetObjectResponse response) {
+        final String range = response.contentRange();
+        final int slash = range != null ? range.lastIndexOf('/') : -1;
+        if (slash >= 0 && !range.endsWith("*")) {
+            return Long.parseLong(range.substring(slash + 1).trim());
+        }
+        return response.contentLength();
+    }
+
+    /**
+     * The file the ranges completed for the target are recorded in, until the download completes.
+     */
+    public static File progressFileOf(File target) {
+        return new File(target.getParentFile(), target.getName() + PROGRESS_SUFFIX);
+    }
+
+    private void run() throws IOException, InterruptedException {
+        try {
+            prepare();
+        } catch (IOException | RuntimeException e) {
+            firstPermit.release(e);
+            try {
+                first.close();
+            } catch (IOException suppressed) {
+                e.addSuppressed(suppressed);
+            }
+            throw e;
+        }
+        // the first range comes with the GET the download started from
+        final boolean firstMissing = !completed.get(0);
+        final List<Integer> missing = new ArrayList<>();
+        for (int index = completed.nextClearBit(1); index < rangeCount; index = completed.nextClearBit(index + 1)) {
+            missing.add(index);
+        }
+        if (missing.size() + (firstMissing ? 1 : 0) < rangeCount) {
+            LOGGER.fine(() -> "Resuming download of " + key + " to " + target + " with " + (rangeCount - missing.size()) + " of " + rangeCount + " ranges");
+        }
+
+        final AtomicInteger next = new AtomicInteger();
+        final int workers = Math.max(1, Math.min(MAX_CONCURRENT_RANGES, missing.size()));
+        final AtomicInteger running = new AtomicInteger(workers + 1);
+        for (int i = 0; i < workers; i++) {
+            downloadNext(missing, next, running);
+        }
+        readFirst(firstMissing, () -> finish(running));
+
+        try {
+            result.get();
+        } catch (InterruptedException e) {
+            // the ranges in flight still complete and are recorded, the rest is left for the next attempt
+            result.cancel(false);
+            awaitInFlight();
+            throw e;
+        } catch (ExecutionException e) {
+            awaitInFlight();
+            final Throwable cause = e.getCause() instanceof CompletionException && e.getCause().getCause() != null
+                    ? e.getCause().getCause() : e.getCause();
+            throw new IOException("Download of " + key + " to " + target + " failed", cause);
+        }
+        Files.deleteIfExists(progressFile.toPath());
+    }
+
+    /**
+     * Waits for the ranges in flight, a retry of the download mustn't race with ranges still being written.
+     */
+    private void awaitInFlight() {
+        for (CompletableFuture<?>[] ranges = inFlight.toArray(new CompletableFuture<?>[0]); ranges.length > 0;
+             ranges = inFlight.toArray(new CompletableFuture<?>[0])) {
+            CompletableFuture.allOf(ranges).handle((done, failure) -> null).join();
+            // ranges retried meanwhile are waited for in the next round
+            inFlight.removeAll(Arrays.asList(ranges));
+        }
+    }
+
+    /**
+     * Writes the first range from the GET the download started from, while the other ranges are requested.
+     * If it fails, the range is requested on its own.
+     */
+    private void readFirst(boolean missing, Runnable then) {
+        Throwable failure = null;
+        try (InputStream in = bandwidth.limit(first)) {
+            if (missing) {
+                write(in, Math.min(length, rangeSize));
+            }
+        } catch (IOException | RuntimeException e) {
+            failure = e;
+        }
+        firstPermit.release(failure);
+
+        if (failure != null) {
+            if (!result.isDone() && RetryPolicy.classify(failure) != RetryPolicy.Failure.PERMANENT) {
+                LOGGER.log(Level.FINE, "Requesting the first range of " + key + " on its own", failure);
+                downloadRange(0, 2, then);
+            } else {
+                result.completeExceptionally(failure);
+            }
+            return;
+        }
+        if (missing) {
+            synchronized (completed) {
+                completed.set(0);
+            }
+            saveProgress();
+        }
+        then.run();
+    }
+
+    /**
+     * Writes the first bytes of the content to the start of the target.
+     */
+    private void write(InputStream in, long count) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            final byte[] buffer = new byte[BUFFER_SIZE];
+            for (long left = count; left > 0; ) {
+                final int read = in.read(buffer, 0, (int) Math.min(buffer.length, left));
+                if (read < 0) {
+                    throw new EOFException("Content of " + key + " ended after " + (count - left) + " bytes");
+                }
+                file.write(buffer, 0, read);
+                left -= read;
+            }
+        }
+    }
+
+    /**
+     * Picks up the progress of an earlier download of the object, or makes room for all of it.
+     */
+    private void prepare() throws IOException {
+        final Properties progress = readProgress();
+        if (progress != null && target.length() == length
+                && eTag.equals(progress.getProperty("eTag"))
+                && String.valueOf(length).equals(progress.getProperty("length"))
+                && String.valueOf(rangeSize).equals(progress.getProperty("rangeSize"))) {
+            completed.or(BitSet.valueOf(Base64.getDecoder().decode(progress.getProperty("completed", ""))));
+            return;
+        }
+
+        final File parent = target.getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+        // a new file, the target may be a link to a cached artifact which must keep its content
+        Files.deleteIfExists(target.toPath());
+        try (RandomAccessFile file = new RandomAccessFile(target, "rw")) {
+            file.setLength(length);
+        }
+        saveProgress();
+    }
+
+    /**
+     * Downloads the missing ranges one after the other, until none is left or one failed for good.
+     */
+    private void downloadNext(List<Integer> missing, AtomicInteger next, AtomicInteger running) {
+        if (result.isDone()) {
+            return;
+        }
+        final int index = next.getAndIncrement();
+        if (index >= missing.size()) {
+            finish(running);
+            return;
+        }
+        downloadRange(missing.get(index), 1, () -> downloadNext(missing, next, running));
+    }
+
+    private void finish(AtomicInteger running) {
+        if (running.decrementAndGet() == 0) {
+            result.complete(null);
+        }
+    }
+
+    private void downloadRange(int index, int attempt, Runnable then) {
+        final long start = index * rangeSize;
+        final long end = Math.min(length, start + rangeSize) - 1;
+        final CompletableFuture<GetObjectResponse> range = limiter.acquire().thenCompose(permit -> {
+            if (result.isDone()) {
+                // the download failed or was cancelled while the range waited
+                final CancellationException cancelled = new CancellationException("Download of " + key + " stopped");
+                permit.release(cancelled);
+                final CompletableFuture<GetObjectResponse> skipped = new CompletableFuture<>();
+                skipped.completeExceptionally(cancelled);
+                return skipped;
+            }
+            return client.getObject(b -> PrefixLimiter.countThrottles(b.bucket(bucket).key(key)
+                            .range("bytes=" + start + '-' + end).ifMatch(eTag), stats),
+                    bandwidth.limitResponse(AsyncResponseTransformer.toFile(target.toPath(), FileTransformerConfiguration.builder()
+                            .fileWriteOption(FileTransformerConfiguration.FileWriteOption.WRITE_TO_POSITION)
+                            .position(start)
+                            .failureBehavior(FileTransformerConfiguration.FailureBehavior.LEAVE)
+                            .build())))
+                    .whenComplete((response, failure) -> permit.release(failure));
+        });
+        // done once the range is recorded, and a retry of it is in flight
+        final CompletableFuture<Void> done = range.handle((response, failure) -> {
+            if (failure != null) {
+                if (attempt < MAX_RANGE_ATTEMPTS && !result.isDone() && RetryPolicy.classify(failure) != RetryPolicy.Failure.PERMANENT) {
+                    LOGGER.log(Level.FINE, "Retrying range " + start + '-' + end + " of " + key, failure);
+                    downloadRange(index, attempt + 1, then);
+                } else {
+                    result.completeExceptionally(failure);
+                }
+                return null;
+            }
+            synchronized (completed) {
+                completed.set(index);
+            }
+            saveProgress();
+            then.run();
+            return null;
+        });
+        inFlight.add(done);
+        done.whenComplete((ignored, failure) -> inFlight.remove(done));
+    }
+
+    private Properties readProgress() {
+        if (!progressFile.isFile()) {
+            return null;
+        }
+        final Properties progress = new Properties();
+        try (InputStream in = Files.newInputStream(progressFile.toPath())) {
+            progress.load(in);
+            return progress;
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read " + progressFile, e);
+            return null;
+        }
+    }
+
+    private void saveProgress() {
+        // ranges complete concurrently, the latest progress is written last
+        synchronized (completed) {
+            final Properties progress = new Properties();
+            progress.setProperty("eTag", eTag);
+            progress.setProperty("length", String.valueOf(length));
+            progress.setProperty("rangeSize", String.valueOf(rangeSize));
+            progress.setProperty("completed", Base64.getEncoder().encodeToString(completed.toByteArray()));
+            try {
+                final File tmp = File.createTempFile(progressFile.getName(), ".tmp", progressFile.getAbsoluteFile().getParentFile());
+                try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                    progress.store(out, null);
+                }
+                Files.move(tmp.toPath(), progressFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                // the download goes on, it just can't be resumed as far
+                LOGGER.log(Level.WARNING, "Failed to write " + progressFile, e);
+            }
+        }
+    }
+}
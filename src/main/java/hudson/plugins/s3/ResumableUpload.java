@@ -0,0 +1,466 @@
+package hudson.plugins.s3;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.FileRequestBodyConfiguration;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompletedPart;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
+import software.amazon.awssdk.services.s3.model.Part;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.TreeMap;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Uploads a local file in parts, so that a failed upload can be continued where it stopped.
+ *
+ * The upload id and the parts S3 confirmed are recorded in the {@link UploadJournal}. A failed or cancelled upload isn't
+ * aborted: the next upload of the same file, unchanged, to the same key with the same headers lists the parts S3 has and only
+ * sends the missing ones. Uploads which are never resumed are left to the bucket's lifecycle rule for incomplete multipart uploads.
+ * An upload running while the same one is journaled already isn't journaled itself, it is aborted if it fails.
+ *
+ * Parts have the size the SDK's multipart client would use, so the ETag of the object stays predictable, see {@link ETag}.
+ * An upload which sends every part reads the file once, in order, like the SDK's multipart client, and splits it into the parts,
+ * so the MD5 of the file is taken on the way, see {@link DigestingRequestBody}. Up to {@link #MAX_READ_AHEAD} bytes are read ahead
+ * of the parts being sent. A resumed upload reads its missing parts where they are, its MD5 is left to the caller.
+ * Every part takes a permit of the {@link PrefixLimiter} of the key's prefix, and when auto-tuning one of the
+ * {@link TransferTuner}, which is told how long S3 took for the part. All requests carry the override configuration
+ * of the given request.
+ */
+final class ResumableUpload {
+    private static final Logger LOGGER = Logger.getLogger(ResumableUpload.class.getName());
+
+    /**
+     * Parts of a single file in flight at the same time.
+     */
+    private static final int MAX_CONCURRENT_PARTS = Integer.getInteger(ResumableUpload.class.getName() + ".maxConcurrentParts", 8);
+    /**
+     * Bytes of a file read in one pass which may wait for their parts to be sent, at least one part.
+     */
+    private static final long MAX_READ_AHEAD = Long.getLong(ResumableUpload.class.getName() + ".maxReadAhead", 64L * 1024 * 1024);
+
+    private final S3AsyncClient client;
+    private final Path file;
+    private final long length;
+    private final long partSize;
+    private final int partCount;
+    private final PutObjectRequest request;
+    private final String journalKey;
+    private final PrefixLimiter limiter;
+    private final BandwidthLimit bandwidth;
+    @CheckForNull
+    private final TransferTuner tuner;
+    private final boolean digest;
+    private final CompletableFuture<String> result = new CompletableFuture<>();
+
+    private ResumableUpload(S3AsyncClient client, Path file, PutObjectRequest request, long partSize, BandwidthLimit bandwidth,
+                            @CheckForNull TransferTuner tuner, boolean digest) {
+        final File f = file.toFile();
+        this.client = client;
+        this.file = file;
+        this.length = f.length();
+        this.partSize = ETag.partSize(length, partSize);
+        this.partCount = (int) ((length + this.partSize - 1) / this.partSize);
+        this.request = request;
+        this.journalKey = request.bucket() + '/' + request.key() + '|' + f.getAbsolutePath() + '|' + length + '|' + f.lastModified() + '|' + this.partSize
+                + '|' + headersOf(request);
+        this.limiter = PrefixLimiter.forObject(request.bucket(), request.key());
+        this.bandwidth = bandwidth;
+        this.tuner = tuner;
+        this.digest = digest;
+    }
+
+    /**
+     * @param request the object to create, as it would be uploaded in one piece
+     * @param minimumPartSize part size for files of up to {@link ETag#MAX_PARTS} parts
+     * @param tuner gates and measures the parts when auto-tuning, {@code null} otherwise
+     * @param digest whether to take the MD5 of the file while its parts are sent
+     * @return completes once the object is created, with the MD5 of the file if it was taken, {@code null} if it wasn't requested
+     *         or parts were resumed
+     */
+    static CompletableFuture<String> start(S3AsyncClient client, Path file, PutObjectRequest request, long minimumPartSize,
+                                           BandwidthLimit bandwidth, @CheckForNull TransferTuner tuner, boolean digest) {
+        final ResumableUpload upload = new ResumableUpload(client, file, request, minimumPartSize, bandwidth, tuner, digest);
+        upload.start();
+        return upload.result;
+    }
+
+    private void start() {
+        final UploadJournal journal = UploadJournal.get();
+        if (!journal.claim(journalKey)) {
+            // the same file is being uploaded to the same key right now, this upload doesn't interfere with it
+            createUpload().thenCompose(entry -> upload(entry, false).whenComplete((md5, failure) -> {
+                if (failure != null) {
+                    abort(entry);
+                }
+            })).whenComplete(this::finish);
+            return;
+        }
+        final UploadJournal.Entry recorded = journal.load(journalKey);
+        final CompletableFuture<UploadJournal.Entry> entry = recorded != null ? resume(recorded) : createUpload();
+        entry.thenCompose(started -> upload(started, true))
+                .whenComplete((md5, failure) -> {
+                    journal.release(journalKey);
+                    finish(md5, failure);
+                });
+    }
+
+    private void finish(String md5, Throwable failure) {
+        if (failure != null) {
+            result.completeExceptionally(failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure);
+        } else {
+            result.complete(md5);
+        }
+    }
+
+    private CompletableFuture<UploadJournal.Entry> createUpload() {
+        return client.createMultipartUpload(toCreateRequest(request))
+                .thenApply(response -> new UploadJournal.Entry(response.uploadId()));
+    }
+
+    /**
+     * Aborts an upload nobody could resume, so S3 drops the parts it has.
+     */
+    private void abort(UploadJournal.Entry entry) {
+        client.abortMultipartUpload(b -> b.bucket(request.bucket()).key(request.key()).uploadId(entry.uploadId)
+                        .overrideConfiguration(request.overrideConfiguration().orElse(null)))
+                .whenComplete((response, failure) -> {
+                    if (failure != null) {
+                        LOGGER.log(Level.FINE, "Failed to abort the upload of " + file + " to " + request.key(), failure);
+                    }
+                });
+    }
+
+    /**
+     * Continues the recorded upload with the parts S3 has, or starts over if S3 no longer knows it.
+     */
+    private CompletableFuture<UploadJournal.Entry> resume(UploadJournal.Entry recorded) {
+        final Map<Integer, Part> listed = new ConcurrentHashMap<>();
+        return client.listPartsPaginator(b -> b.bucket(request.bucket()).key(request.key()).uploadId(recorded.uploadId)
+                        .sseCustomerAlgorithm(request.sseCustomerAlgorithm()).sseCustomerKey(request.sseCustomerKey()).sseCustomerKeyMD5(request.sseCustomerKeyMD5())
+                        .overrideConfiguration(request.overrideConfiguration().orElse(null)))
+                .parts().subscribe(part -> listed.put(part.partNumber(), part))
+                .thenApply(listing -> {
+                    final UploadJournal.Entry entry = new UploadJournal.Entry(recorded.uploadId);
+                    for (Part part : listed.values()) {
+                        // a part cut short, or of another part size, is sent again
+                        if (part.partNumber() <= partCount && part.size() == sizeOf(part.partNumber())) {
+                            entry.parts.put(part.partNumber(), part.eTag());
+                            if (part.checksumCRC32() != null) {
+                                entry.checksums.put(part.partNumber(), part.checksumCRC32());
+                            }
+                        }
+                    }
+                    LOGGER.fine(() -> "Resuming upload of " + file + " to " + request.key() + " with " + entry.parts.size() + " of " + partCount + " parts");
+                    return entry;
+                })
+                .exceptionally(failure -> {
+                    final Throwable cause = failure instanceof CompletionException ? failure.getCause() : failure;
+                    if (cause instanceof NoSuchUploadException) {
+                        return null;
+                    }
+                    throw failure instanceof CompletionException ? (CompletionException) failure : new CompletionException(failure);
+                })
+                .thenCompose(entry -> {
+                    if (entry != null) {
+                        return CompletableFuture.completedFuture(entry);
+                    }
+                    UploadJournal.get().remove(journalKey);
+                    return createUpload();
+                });
+    }
+
+    private CompletableFuture<String> upload(UploadJournal.Entry entry, boolean journaled) {
+        final List<Integer> missing = new ArrayList<>();
+        synchronized (entry) {
+            for (int partNumber = 1; partNumber <= partCount; partNumber++) {
+                if (!entry.parts.containsKey(partNumber)) {
+                    missing.add(partNumber);
+                }
+            }
+        }
+        if (journaled) {
+            UploadJournal.get().save(journalKey, entry);
+        }
+
+        final CompletableFuture<Void> parts = new CompletableFuture<>();
+        final AtomicInteger next = new AtomicInteger();
+        final int workers = Math.max(1, Math.min(MAX_CONCURRENT_PARTS, missing.size()));
+        final AtomicInteger running = new AtomicInteger(workers);
+        // the MD5 is taken from the parts only if all of them are sent, in one pass over the file
+        final MessageDigest md5 = digest && missing.size() == partCount ? MD5.newDigest() : null;
+        final SplitParts split = md5 != null ? new SplitParts(md5, Math.max(partSize, Math.min(partSize * workers, MAX_READ_AHEAD))) : null;
+        for (int i = 0; i < workers; i++) {
+            uploadNext(entry, journaled, missing, next, running, parts, split);
+        }
+        if (split != null) {
+            parts.whenComplete((done, failure) -> {
+                if (failure != null) {
+                    // stops reading the file, the parts left are sent by the next attempt
+                    split.cancel();
+                }
+            });
+        }
+        return parts.thenCompose(done -> complete(entry, journaled))
+                .thenApply(response -> md5 != null ? MD5.toHex(md5) : null);
+    }
+
+    /**
+     * Uploads the missing parts one after the other, until none is left or one failed.
+     * A part is taken once it may be sent, so the parts split from one pass over the file are sent in their order.
+     */
+    private void uploadNext(UploadJournal.Entry entry, boolean journaled, List<Integer> missing,
+                            AtomicInteger next, AtomicInteger running, CompletableFuture<Void> parts, @CheckForNull SplitParts split) {
+        // a cancelled upload stops sending parts, the ones sent so far stay for the next attempt
+        if (parts.isDone() || result.isDone()) {
+            parts.completeExceptionally(new CancellationException("Upload of " + request.key() + " stopped"));
+            return;
+        }
+        if (next.get() >= missing.size()) {
+            if (running.decrementAndGet() == 0) {
+                parts.complete(null);
+            }
+            return;
+        }
+        final CompletableFuture<TransferTuner.Permit> connection = tuner != null ? tuner.acquire() : CompletableFuture.completedFuture(null);
+        connection.thenCompose(slot -> limiter.acquire().thenAccept(permit -> {
+            final int index;
+            final CompletableFuture<AsyncRequestBody> content;
+            synchronized (next) {
+                index = next.getAndIncrement();
+                content = split != null && index < missing.size() ? split.next() : null;
+            }
+            if (index >= missing.size() || parts.isDone() || result.isDone()) {
+                permit.release(new CancellationException("No part left to upload to " + request.key()));
+                if (slot != null) {
+                    slot.release();
+                }
+                uploadNext(entry, journaled, missing, next, running, parts, split);
+                return;
+            }
+            final int partNumber = missing.get(index);
+            send(entry, partNumber, content, slot, permit).whenComplete((response, failure) -> {
+                if (failure != null) {
+                    parts.completeExceptionally(failure);
+                    return;
+                }
+                synchronized (entry) {
+                    entry.parts.put(partNumber, response.eTag());
+                    if (response.checksumCRC32() != null) {
+                        entry.checksums.put(partNumber, response.checksumCRC32());
+                    }
+                }
+                if (journaled) {
+                    UploadJournal.get().save(journalKey, entry);
+                }
+                uploadNext(entry, journaled, missing, next, running, parts, split);
+            });
+        })).exceptionally(failure -> {
+            parts.completeExceptionally(failure);
+            return null;
+        });
+    }
+
+    /**
+     * Sends the part, read from where it is in the file unless its content was split from one pass over the file.
+     */
+    private CompletableFuture<UploadPartResponse> send(UploadJournal.Entry entry, int partNumber, @CheckForNull CompletableFuture<AsyncRequestBody> content,
+                                                       @CheckForNull TransferTuner.Permit slot, PrefixLimiter.Permit permit) {
+        final CompletableFuture<AsyncRequestBody> body = content != null ? content
+                : CompletableFuture.completedFuture(AsyncRequestBody.fromFile(FileRequestBodyConfiguration.builder()
+                        .path(file).position((partNumber - 1) * partSize).numBytesToRead(sizeOf(partNumber)).build()));
+        final long sent = System.nanoTime();
+        return body.thenCompose(part -> client.uploadPart(b -> b.bucket(request.bucket()).key(request.key()).uploadId(entry.uploadId)
+                                .partNumber(partNumber).contentLength(sizeOf(partNumber))
+                                .sseCustomerAlgorithm(request.sseCustomerAlgorithm()).sseCustomerKey(request.sseCustomerKey()).sseCustomerKeyMD5(request.sseCustomerKeyMD5())
+                                .overrideConfiguration(request.overrideConfiguration().orElse(null)),
+                        bandwidth.limitRequest(part)))
+                .whenComplete((response, failure) -> {
+                    permit.release(failure);
+                    if (slot != null) {
+                        if (failure == null) {
+                            tuner.recordPart(sent, System.nanoTime());
+                        }
+                        slot.release();
+                    }
+                });
+    }
+
+    private CompletableFuture<CompleteMultipartUploadResponse> complete(UploadJournal.Entry entry, boolean journaled) {
+        final List<CompletedPart> completed = new ArrayList<>(partCount);
+        synchronized (entry) {
+            for (Map.Entry<Integer, String> part : entry.parts.entrySet()) {
+                completed.add(CompletedPart.builder().partNumber(part.getKey()).eTag(part.getValue())
+                        .checksumCRC32(entry.checksums.get(part.getKey())).build());
+            }
+        }
+        return client.completeMultipartUpload(b -> b.bucket(request.bucket()).key(request.key()).uploadId(entry.uploadId)
+                        .multipartUpload(upload -> upload.parts(completed))
+                        .sseCustomerAlgorithm(request.sseCustomerAlgorithm()).sseCustomerKey(request.sseCustomerKey()).sseCustomerKeyMD5(request.sseCustomerKeyMD5())
+                        .overrideConfiguration(request.overrideConfiguration().orElse(null)))
+                .whenComplete((response, failure) -> {
+                    if (failure == null && journaled) {
+                        UploadJournal.get().remove(journalKey);
+                    }
+                });
+    }
+
+    /**
+     * The parts of the file read in one pass, which feeds the MD5, handed out in their order.
+     * A part split this way can't be sent twice, a part the SDK fails to send fails the upload and is sent again when it's resumed.
+     */
+    private final class SplitParts implements Subscriber<AsyncRequestBody> {
+        private final Queue<CompletableFuture<AsyncRequestBody>> requested = new ArrayDeque<>();
+        private Subscription subscription;
+        private long pending;
+        private Throwable failure;
+
+        SplitParts(MessageDigest md5, long readAhead) {
+            new DigestingRequestBody(AsyncRequestBody.fromFile(file), md5)
+                    .split(b -> b.chunkSizeInBytes(partSize).bufferSizeInBytes(readAhead))
+                    .subscribe(this);
+        }
+
+        /**
+         * @return completes with the content of the next part
+         */
+        CompletableFuture<AsyncRequestBody> next() {
+            final CompletableFuture<AsyncRequestBody> part = new CompletableFuture<>();
+            final Subscription current;
+            final Throwable failed;
+            synchronized (this) {
+                failed = failure;
+                if (failed == null) {
+                    requested.add(part);
+                }
+                current = subscription;
+                if (current == null) {
+                    pending++;
+                }
+            }
+            if (failed != null) {
+                part.completeExceptionally(failed);
+            } else if (current != null) {
+                current.request(1);
+            }
+            return part;
+        }
+
+        void cancel() {
+            final Subscription current;
+            synchronized (this) {
+                current = subscription;
+            }
+            fail(new CancellationException("Upload of " + request.key() + " stopped"));
+            if (current != null) {
+                current.cancel();
+            }
+        }
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            final long demand;
+            synchronized (this) {
+                this.subscription = subscription;
+                demand = pending;
+            }
+            if (demand > 0) {
+                subscription.request(demand);
+            }
+        }
+
+        @Override
+        public void onNext(AsyncRequestBody part) {
+            final CompletableFuture<AsyncRequestBody> next;
+            synchronized (this) {
+                next = requested.poll();
+            }
+            // completed outside the lock, the part is sent right away
+            next.complete(part);
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            fail(error);
+        }
+
+        @Override
+        public void onComplete() {
+            fail(new IllegalStateException(file + " has fewer than " + partCount + " parts"));
+        }
+
+        private void fail(Throwable error) {
+            final List<CompletableFuture<AsyncRequestBody>> waiting;
+            synchronized (this) {
+                if (failure == null) {
+                    failure = error;
+                }
+                waiting = new ArrayList<>(requested);
+                requested.clear();
+            }
+            for (CompletableFuture<AsyncRequestBody> part : waiting) {
+                part.completeExceptionally(error);
+            }
+        }
+    }
+
+    private long sizeOf(int partNumber) {
+        return partNumber < partCount ? partSize : length - (partCount - 1) * partSize;
+    }
+
+    /**
+     * @return a digest of the headers the object is created with, an upload with other headers isn't resumed
+     */
+    private static String headersOf(PutObjectRequest request) {
+        final StringBuilder headers = new StringBuilder();
+        for (Object header : Arrays.asList(request.contentType(), request.contentEncoding(), request.contentDisposition(),
+                request.cacheControl(), request.expires(), request.storageClassAsString(), request.serverSideEncryptionAsString(),
+                request.sseCustomerAlgorithm(), request.sseCustomerKey(), request.sseCustomerKeyMD5())) {
+            headers.append(header).append('\n');
+        }
+        new TreeMap<>(request.metadata()).forEach((name, value) -> headers.append(name).append(':').append(value).append('\n'));
+        return DigestUtils.sha256Hex(headers.toString());
+    }
+
+    private static CreateMultipartUploadRequest toCreateRequest(PutObjectRequest request) {
+        return CreateMultipartUploadRequest.builder()
+                .bucket(request.bucket())
+                .key(request.key())
+                .contentType(request.contentType())
+                .contentEncoding(request.contentEncoding())
+                .contentDisposition(request.contentDisposition())
+                .cacheControl(request.cacheControl())
+                .expires(request.expires())
+                .storageClass(request.storageClassAsString())
+                .serverSideEncryption(request.serverSideEncryptionAsString())
+                .sseCustomerAlgorithm(request.sseCustomerAlgorithm())
+                .sseCustomerKey(request.sseCustomerKey())
+                .sseCustomerKeyMD5(request.sseCustomerKeyMD5())
+                .metadata(request.metadata())
+                // e.g. the stats which count the throttling of the requests
+                .overrideConfiguration(request.overrideConfiguration().orElse(null))
+                .build();
+    }
+}
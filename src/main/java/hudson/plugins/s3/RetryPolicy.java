@@ -0,0 +1,213 @@
+package hudson.plugins.s3;
+
+import software.amazon.awssdk.awscore.exception.AwsServiceException;
+import software.amazon.awssdk.core.exception.SdkServiceException;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.file.AccessDeniedException;
+import java.nio.file.NoSuchFileException;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decides whether a failed transfer is tried again, and how long to wait before.
+ *
+ * Failures are classified first: a request S3 refused, such as a 403 or a missing bucket, or a missing local file,
+ * fails the same way again and isn't retried. Throttling, such as a 503 SlowDown, is retried after longer delays
+ * than other errors, to let the prefix recover. Delays grow exponentially from the configured retry time,
+ * with jitter, so transfers which failed together don't retry together.
+ *
+ * All transfers of a publish share a {@link Budget} of retries, once it is used up failures are final,
+ * instead of every file of a failing publish being retried as often as one file could be.
+ */
+public final class RetryPolicy implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    /**
+     * Longest delay between two attempts.
+     */
+    private static final long MAX_DELAY = TimeUnit.SECONDS.toMillis(Long.getLong(RetryPolicy.class.getName() + ".maxDelaySeconds", 120));
+    /**
+     * Shortest delay after throttling, even if no retry time is configured.
+     */
+    private static final long MIN_THROTTLED_DELAY = TimeUnit.SECONDS.toMillis(1);
+    /**
+     * Retries per publish, in percent of the transfers, at least as many as a single transfer may take.
+     */
+    private static final int BUDGET_PERCENT = Integer.getInteger(RetryPolicy.class.getName() + ".budgetPercent", 20);
+
+    /**
+     * Client errors which do succeed when sent again.
+     * Not {@code ExpiredToken} or {@code RequestTimeTooSkewed}: the same credentials and clock sign the next attempt,
+     * it fails the same way.
+     */
+    private static final Set<String> TRANSIENT_CODES = new HashSet<>(Arrays.asList(
+            "RequestTimeout", "InternalError", "OperationAborted",
+            // the object changed during a ranged download, the next attempt starts over with the new one
+            "PreconditionFailed"));
+
+    public enum Failure {
+        /**
+         * Fails the same way again.
+         */
+        PERMANENT,
+        /**
+         * S3 asked to slow down.
+         */
+        THROTTLED,
+        /**
+         * Network errors, server errors and anything unknown.
+         */
+        TRANSIENT
+    }
+
+    private final int maxAttempts;
+    private final long baseDelay;
+
+    /**
+     * @param maxAttempts attempts per transfer, including the first one
+     * @param baseDelay delay before the first retry in milliseconds
+     */
+    public RetryPolicy(int maxAttempts, long baseDelay) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelay = Math.max(0, baseDelay);
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getBaseDelay() {
+        return baseDelay;
+    }
+
+    /**
+     * @param transfers number of transfers sharing the budget
+     */
+    public Budget newBudget(int transfers) {
+        return new Budget(Math.max(maxAttempts - 1, (int) ((long) transfers * BUDGET_PERCENT / 100)));
+    }
+
+    /**
+     * Classifies the failure by the first cause which tells, looking through wrapping exceptions.
+     */
+    public static Failure classify(Throwable failure) {
+        for (Throwable cause = failure; cause != null; cause = cause.getCause()) {
+            if (cause instanceof SdkServiceException) {
+                return classify((SdkServiceException) cause);
+            }
+            if (cause instanceof FileNotFoundException || cause instanceof NoSuchFileException || cause instanceof AccessDeniedException) {
+                return Failure.PERMANENT;
+            }
+            if (cause.getCause() == cause) {
+                break;
+            }
+        }
+        return Failure.TRANSIENT;
+    }
+
+    private static Failure classify(SdkServiceException e) {
+        final String code = e instanceof AwsServiceException && ((AwsServiceException) e).awsErrorDetails() != null
+                ? ((AwsServiceException) e).awsErrorDetails().errorCode() : null;
+        if (e.isThrottlingException() || e.statusCode() == 503 || "SlowDown".equals(code)) {
+            return Failure.THROTTLED;
+        }
+        if (e.statusCode() >= 500 || e.statusCode() == 408 || TRANSIENT_CODES.contains(code)) {
+            return Failure.TRANSIENT;
+        }
+        return e.statusCode() >= 400 ? Failure.PERMANENT : Failure.TRANSIENT;
+    }
+
+    /**
+     * Decides on the next attempt after a failed one, and takes the retry from the budget.
+     *
+     * @param attempts attempts made so far, including the failed one
+     * @return milliseconds to wait before the next attempt, {@code -1} if the failure is final
+     */
+    public long delayAfter(Throwable failure, int attempts, Budget budget) {
+        final Failure kind = classify(failure);
+        if (kind == Failure.PERMANENT || attempts >= maxAttempts || !budget.take()) {
+            return -1;
+        }
+        return delay(kind, attempts);
+    }
+
+    /**
+     * Exponential backoff with equal jitter: half of the delay is fixed, the other half random.
+     */
+    long delay(Failure kind, int attempts) {
+        long delay = kind == Failure.THROTTLED ? Math.max(MIN_THROTTLED_DELAY, 2 * baseDelay) : baseDelay;
+        for (int i = 1; i < attempts && delay < MAX_DELAY; i++) {
+            delay <<= 1;
+        }
+        delay = Math.min(delay, MAX_DELAY);
+        return delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+    }
+
+    /**
+     * Runs the call until it succeeds, or its failure is final.
+     *
+     * @param what names the transfer in the failure
+     */
+    public <T> T call(Budget budget, Object what, Attempt<T> call) throws IOException, InterruptedException {
+        int attempts = 0;
+        while (true) {
+            try {
+                return call.run();
+            } catch (InterruptedException e) {
+                throw e;
+            } catch (Exception e) {
+                attempts++;
+                final long delay = delayAfter(e, attempts, budget);
+                if (delay < 0) {
+                    throw new IOException("Call fails for " + what + ": " + e + ":: Failed after " + attempts + " tries.", e);
+                }
+                Thread.sleep(delay);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "RetryPolicy[maxAttempts=" + maxAttempts + ", baseDelay=" + baseDelay + ']';
+    }
+
+    @FunctionalInterface
+    public interface Attempt<T> {
+        T run() throws Exception;
+    }
+
+    /**
+     * Retries left to the transfers of one publish.
+     */
+    public static final class Budget {
+        private final int retries;
+        private final AtomicInteger remaining;
+
+        Budget(int retries) {
+            this.retries = retries;
+            this.remaining = new AtomicInteger(retries);
+        }
+
+        public int getRemaining() {
+            return Math.max(0, remaining.get());
+        }
+
+        /**
+         * @return retries taken from the budget so far
+         */
+        public int getUsed() {
+            return retries - getRemaining();
+        }
+
+        boolean take() {
+            return remaining.getAndDecrement() > 0;
+        }
+    }
+}
@@ -14,12 +14,21 @@ public final class S3Artifact implements Serializable {
     private final String name;
     private final String region;
     private /*almost final*/ Boolean useFullProjectName;
+    /**
+     * Key of the content relative to the bucket's path, for artifacts stored by their content.
+     */
+    private final String contentKey;
 
     public S3Artifact(String region, String bucket, String name) {
+        this(region, bucket, name, null);
+    }
+
+    public S3Artifact(String region, String bucket, String name, String contentKey) {
         this.bucket = bucket.intern();
         this.name = name.intern();
         this.region = region.intern();
         this.useFullProjectName = true;
+        this.contentKey = contentKey;
     }
 
     /* Old version of this plugin used short name,
@@ -46,6 +55,15 @@ public final class S3Artifact implements Serializable {
         return region;
     }
 
+    /**
+     * @return the key the content is stored under, see {@link Destination#contentKey(String)},
+     * {@code null} if the artifact is stored under the build
+     */
+    @Exported
+    public String getContentKey() {
+        return contentKey;
+    }
+
     public Boolean useFullProjectName() {
         if (useFullProjectName == null)
             return false;
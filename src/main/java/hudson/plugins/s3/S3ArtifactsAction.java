@@ -2,26 +2,20 @@ package hudson.plugins.s3;
 
 import hudson.Functions;
 import hudson.model.Run;
-import hudson.util.Secret;
 import jakarta.servlet.ServletException;
 import jenkins.model.RunAction2;
-import jenkins.security.FIPS140;
+import org.apache.commons.io.FilenameUtils;
 import org.kohsuke.stapler.StaplerRequest2;
 import org.kohsuke.stapler.StaplerResponse2;
 import org.kohsuke.stapler.export.Exported;
 import org.kohsuke.stapler.export.ExportedBean;
-import software.amazon.awssdk.auth.credentials.AwsBasicCredentials;
-import software.amazon.awssdk.regions.Region;
-import software.amazon.awssdk.services.s3.S3Client;
-import software.amazon.awssdk.services.s3.model.GetObjectRequest;
-import software.amazon.awssdk.services.s3.presigner.S3Presigner;
-import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
-
-import java.io.File;
+
 import java.io.IOException;
-import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static jakarta.servlet.http.HttpServletResponse.SC_NOT_FOUND;
 import static org.apache.commons.lang.StringUtils.isNotEmpty;
@@ -31,6 +25,10 @@ public class S3ArtifactsAction implements RunAction2 {
     private final Run<?,?> build; // Compatibility for old versions
     private final String profile;
     private final List<FingerprintRecord> artifacts;
+    /**
+     * Artifacts by name, built on first use so downloads don't scan the whole list.
+     */
+    private transient volatile Map<String, FingerprintRecord> index;
 
     public S3ArtifactsAction(Run<?, ?> run, S3Profile profile, List<FingerprintRecord> artifacts) {
         this.build = run;
@@ -61,6 +59,7 @@ public class S3ArtifactsAction implements RunAction2 {
 
     @Override
     public void onLoad(Run<?, ?> r) {
+        index = null;
     }
 
     public void onAttached(Run r) {
@@ -70,12 +69,41 @@ public class S3ArtifactsAction implements RunAction2 {
         return profile;
     }
 
+    /**
+     * @return a copy, the artifacts of another publish are added under the lock
+     */
     @Exported
-    public List<FingerprintRecord> getArtifacts() {
+    public synchronized List<FingerprintRecord> getArtifacts() {
         if (!hasAccess()) {
             return Collections.emptyList();
         }
-        return artifacts;
+        return Collections.unmodifiableList(new ArrayList<>(artifacts));
+    }
+
+    /**
+     * Adds the artifacts of another publish to this build.
+     */
+    public synchronized void addArtifacts(List<FingerprintRecord> records) {
+        artifacts.addAll(records);
+        index = null;
+    }
+
+    private Map<String, FingerprintRecord> getIndex() {
+        Map<String, FingerprintRecord> result = index;
+        if (result == null) {
+            synchronized (this) {
+                result = index;
+                if (result == null) {
+                    result = new HashMap<>();
+                    for (FingerprintRecord record : artifacts) {
+                        // the first record wins, as it did when the list was scanned
+                        result.putIfAbsent(record.getArtifact().getName(), record);
+                    }
+                    index = result;
+                }
+            }
+        }
+        return result;
     }
 
     public void doDownload(final StaplerRequest2 request, final StaplerResponse2 response) throws IOException, ServletException {
@@ -89,14 +117,12 @@ public class S3ArtifactsAction implements RunAction2 {
 
         // skip the leading /
         final String artifact = restOfPath.substring(1);
-        for (FingerprintRecord record : artifacts) {
-            if (record.getArtifact().getName().equals(artifact)) {
-                final S3Profile s3 = S3BucketPublisher.getProfile(profile);
-                final var client = s3.getClient(record.getArtifact().getRegion());
-                final String url = getDownloadURL(client, s3, build, record);
-                response.sendRedirect2(url);
-                return;
-            }
+        final FingerprintRecord record = getIndex().get(artifact);
+        if (record != null) {
+            final S3Profile s3 = S3BucketPublisher.getProfile(profile);
+            final String url = getDownloadURL(s3, build, record);
+            response.sendRedirect2(url);
+            return;
         }
         response.sendError(SC_NOT_FOUND, "This artifact is not available");
     }
@@ -109,34 +135,14 @@ public class S3ArtifactsAction implements RunAction2 {
      * download and there's no need for the user to have credentials to
      * access S3.
      */
-    private String getDownloadURL(S3Client client, S3Profile s3, Run run, FingerprintRecord record) {
+    private String getDownloadURL(S3Profile s3, Run run, FingerprintRecord record) {
         final Destination dest = Destination.newFromRun(run, record.getArtifact());
-        S3Presigner.Builder presignerBuilder = S3Presigner.builder()
-                .fipsEnabled(FIPS140.useCompliantAlgorithms())
-                .s3Client(client)
-                .region(Region.of(record.getArtifact().getRegion()));
-        if (ClientHelper.ENDPOINT_URI != null) {
-            presignerBuilder.endpointOverride(ClientHelper.ENDPOINT_URI);
-        }
-        if (!s3.isUseRole()) {
-            presignerBuilder.credentialsProvider(() -> AwsBasicCredentials.create(s3.getAccessKey(), Secret.toString(s3.getSecretKey())));
-        }
-        try (S3Presigner presigner = presignerBuilder.build()) {
-            GetObjectRequest.Builder builder = GetObjectRequest.builder().bucket(dest.bucketName).key(dest.objectName);
-            if (!record.isShowDirectlyInBrowser()) {
-                // let the browser use the last part of the name, not the full path
-                // when saving.
-                final String fileName = (new File(dest.objectName)).getName().trim();
-                builder.responseContentDisposition(fileName);
-            }
-
-            GetObjectRequest getObjectRequest = builder.build();
-            GetObjectPresignRequest getObjectPresignRequest = GetObjectPresignRequest.builder()
-                    .signatureDuration(Duration.ofSeconds(s3.getSignedUrlExpirySeconds()))
-                    .getObjectRequest(getObjectRequest).build();
-
-            return presigner.presignGetObject(getObjectPresignRequest).url().toExternalForm();
-
+        String contentDisposition = null;
+        if (!record.isShowDirectlyInBrowser()) {
+            // let the browser use the last part of the name, not the full path
+            // when saving, content stored by its digest has no name of its own
+            contentDisposition = FilenameUtils.getName(record.getArtifact().getName()).trim();
         }
+        return s3.getSignedDownloadURL(record.getArtifact().getRegion(), dest.bucketName, dest.objectName, contentDisposition);
     }
 }
@@ -311,7 +311,7 @@ public final class S3BucketPublisher extends Recorder implements SimpleBuildStep
                                 startPath.trim(),
                                 getProfile().isKeepStructure());
                         filenames.add(getFilename(path, entry.flatten, workspacePath));
-                        log(console, "bucket=" + bucket + ", file=" + path.getName() + " region=" + selRegion + ", will be uploaded from slave=" + entry.uploadFromSlave + " managed=" + entry.managedArtifacts + " , server encryption " + entry.useServerSideEncryption);
+                        log(console, "bucket=" + bucket + ", file=" + path.getName() + " region=" + selRegion + ", will be uploaded from slave=" + entry.uploadFromSlave + " managed=" + entry.managedArtifacts + " , server encryption " + entry.useServerSideEncryption + ", compression " + entry.getCompressionCodec());
                     }
                 }
 
@@ -324,7 +324,7 @@ public final class S3BucketPublisher extends Recorder implements SimpleBuildStep
                 final Map<String, String> escapedMetadata = buildMetadata(envVars, entry);
 
                 final List<FingerprintRecord> records = Lists.newArrayList();
-                final List<FingerprintRecord> fingerprints = profile.upload(run, bucket, paths, filenames, escapedMetadata, storageClass, selRegion, entry.uploadFromSlave, entry.managedArtifacts, entry.useServerSideEncryption, entry.gzipFiles);
+                final List<FingerprintRecord> fingerprints = profile.upload(run, bucket, paths, filenames, escapedMetadata, storageClass, selRegion, entry.uploadFromSlave, entry.managedArtifacts, entry.useServerSideEncryption, entry.getCompressionCodec(), entry.getCompressionLevel(), entry.isSkipUnchanged(), entry.isContentAddressed());
 
                 for (FingerprintRecord fingerprintRecord : fingerprints) {
                     records.add(fingerprintRecord);
@@ -357,7 +357,7 @@ public final class S3BucketPublisher extends Recorder implements SimpleBuildStep
     private void addS3ArtifactsAction(Run<?, ?> run, S3Profile profile, List<FingerprintRecord> artifacts) {
         S3ArtifactsAction existingAction = run.getAction(S3ArtifactsAction.class);
         if (existingAction != null) {
-            existingAction.getArtifacts().addAll(artifacts);
+            existingAction.addArtifacts(artifacts);
         } else {
             run.addAction(new S3ArtifactsAction(run, profile, artifacts));
         }
@@ -442,12 +442,31 @@ public final class S3BucketPublisher extends Recorder implements SimpleBuildStep
         public void onDeleted(Run run) {
             final S3ArtifactsAction artifacts = run.getAction(S3ArtifactsAction.class);
             if (artifacts != null) {
-                final S3Profile profile = S3BucketPublisher.getProfile(artifacts.getProfile());
+                // the objects are deleted in the background, rotating many builds mustn't block this thread
+                final List<DeletionQueue.Deletion> deletions = new ArrayList<>();
+                final List<FingerprintRecord> shared = new ArrayList<>();
+                final List<Destination> contents = new ArrayList<>();
                 for (FingerprintRecord record : artifacts.getArtifacts()) {
-                    if (!record.isKeepForever()) {
-                        profile.delete(run, record);
+                    if (record.isKeepForever()) {
+                        continue;
+                    }
+                    final Destination dest = Destination.newFromRun(run, record.getArtifact());
+                    if (record.getArtifact().getContentKey() != null) {
+                        shared.add(record);
+                        contents.add(dest);
+                    } else {
+                        deletions.add(new DeletionQueue.Deletion(artifacts.getProfile(), record.getArtifact().getRegion(), dest.bucketName, dest.objectName));
+                    }
+                }
+                // content stored once for several builds goes with the last of them
+                final List<Destination> unused = ContentReferences.get().release(contents);
+                for (int i = 0; i < shared.size(); i++) {
+                    if (unused.contains(contents.get(i))) {
+                        deletions.add(new DeletionQueue.Deletion(artifacts.getProfile(), shared.get(i).getArtifact().getRegion(),
+                                contents.get(i).bucketName, contents.get(i).objectName));
                     }
                 }
+                DeletionQueue.get().enqueue(deletions);
             }
         }
     }
@@ -497,6 +516,8 @@ public final class S3BucketPublisher extends Recorder implements SimpleBuildStep
             } else {
                 profiles.replaceBy(req.bindJSON(S3Profile.class, json.getJSONObject("profile")));
             }
+            // clients of the previous configuration are closed, not just aged out
+            S3Profile.invalidateClients();
             save();
             return true;
         }
@@ -538,6 +559,7 @@ public final class S3BucketPublisher extends Recorder implements SimpleBuildStep
         @SuppressWarnings("unused")
         public void replaceProfiles(List<S3Profile> profiles) {
             this.profiles.replaceBy(profiles);
+            S3Profile.invalidateClients();
             save();
         }
 
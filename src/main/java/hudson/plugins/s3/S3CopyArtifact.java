@@ -38,12 +38,14 @@ import hudson.maven.MavenModuleSetBuild;
 import hudson.model.AbstractBuild;
 import hudson.model.AbstractProject;
 import hudson.model.Build;
+import hudson.model.Computer;
 import hudson.model.Descriptor;
 import hudson.model.EnvironmentContributingAction;
 import hudson.model.Fingerprint;
 import hudson.model.FingerprintMap;
 import hudson.model.Item;
 import hudson.model.Job;
+import hudson.model.Node;
 import hudson.model.Project;
 import hudson.model.Result;
 import hudson.model.Run;
@@ -81,6 +83,7 @@ import org.acegisecurity.providers.UsernamePasswordAuthenticationToken;
 import org.jenkinsci.Symbol;
 import org.kohsuke.stapler.AncestorInPath;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
 import org.kohsuke.stapler.QueryParameter;
 
 import edu.umd.cs.findbugs.annotations.NonNull;
@@ -100,6 +103,8 @@ public class S3CopyArtifact extends Builder implements SimpleBuildStep {
     private /*almost final*/ BuildSelector selector;
     private final Boolean flatten;
     private final Boolean optional;
+    private boolean incremental;
+    private boolean useCache;
 
     private static final BuildSelector DEFAULT_BUILD_SELECTOR = new StatusBuildSelector(true);
 
@@ -151,6 +156,30 @@ public class S3CopyArtifact extends Builder implements SimpleBuildStep {
         return optional != null && optional;
     }
 
+    public boolean isIncremental() {
+        return incremental;
+    }
+
+    /**
+     * Only download the artifacts that are missing in the target directory, or differ from the recorded fingerprint.
+     */
+    @DataBoundSetter
+    public void setIncremental(boolean incremental) {
+        this.incremental = incremental;
+    }
+
+    public boolean isUseCache() {
+        return useCache;
+    }
+
+    /**
+     * Keep the downloaded artifacts in a cache on the node, later copies of the same artifacts are taken from there.
+     */
+    @DataBoundSetter
+    public void setUseCache(boolean useCache) {
+        this.useCache = useCache;
+    }
+
     private void setResult(@NonNull Run<?, ?> run, boolean isOk) {
         if (isOptional()) {
             return;
@@ -162,6 +191,19 @@ public class S3CopyArtifact extends Builder implements SimpleBuildStep {
             run.setResult(Result.FAILURE);
     }
     
+    /**
+     * The artifact cache lives in the root directory of the node the artifacts are copied to.
+     */
+    private FilePath getCacheDir(FilePath targetDir) {
+        if (!useCache) {
+            return null;
+        }
+        final Computer computer = targetDir.toComputer();
+        final Node node = computer != null ? computer.getNode() : null;
+        final FilePath root = node != null ? node.getRootPath() : null;
+        return root != null ? root.child("s3-artifact-cache") : null;
+    }
+
     private static boolean isMavenPluginInstalled() {
       Jenkins instance = Jenkins.getInstanceOrNull();
       return instance != null && instance.getPlugin("maven-plugin") != null;
@@ -272,7 +314,7 @@ public class S3CopyArtifact extends Builder implements SimpleBuildStep {
         }
 
         targetDir.mkdirs();
-        final List<FingerprintRecord> records = profile.downloadAll(src, action.getArtifacts(), includeFilter, excludeFilter, targetDir, isFlatten());
+        final List<FingerprintRecord> records = profile.downloadAll(src, action.getArtifacts(), includeFilter, excludeFilter, targetDir, isFlatten(), isIncremental(), getCacheDir(targetDir));
 
         final Map<String, String> fingerprints = Maps.newHashMap();
         for(FingerprintRecord record : records) {
@@ -0,0 +1,43 @@
+package hudson.plugins.s3;
+
+import hudson.Extension;
+import hudson.model.Api;
+import hudson.model.RootAction;
+import jenkins.model.Jenkins;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import java.util.List;
+
+/**
+ * Lists the {@link TransferMetrics} at {@code /s3-metrics/api/json}, for monitoring without JMX access.
+ */
+@Extension
+@ExportedBean
+public class S3MetricsAction implements RootAction {
+    @Override
+    public String getIconFileName() {
+        // not linked from the side panel
+        return null;
+    }
+
+    @Override
+    public String getDisplayName() {
+        return "S3 transfer metrics";
+    }
+
+    @Override
+    public String getUrlName() {
+        return "s3-metrics";
+    }
+
+    public Api getApi() {
+        Jenkins.get().checkPermission(Jenkins.SYSTEM_READ);
+        return new Api(this);
+    }
+
+    @Exported(inline = true)
+    public List<TransferMetrics.Series> getTransfers() {
+        return TransferMetrics.get().getSeries();
+    }
+}
@@ -0,0 +1,48 @@
+package hudson.plugins.s3;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.Extension;
+import hudson.model.Node;
+import hudson.slaves.NodeProperty;
+import hudson.slaves.NodePropertyDescriptor;
+import org.jenkinsci.Symbol;
+import org.kohsuke.stapler.DataBoundConstructor;
+
+/**
+ * S3 settings of a node, for the transfers of all profiles running there.
+ */
+public final class S3NodeProperty extends NodeProperty<Node> {
+    /**
+     * Bandwidth of all transfers on the node in Mbit/s, {@code 0} for no limit.
+     */
+    private final int bandwidthLimit;
+
+    @DataBoundConstructor
+    public S3NodeProperty(int bandwidthLimit) {
+        this.bandwidthLimit = Math.max(0, bandwidthLimit);
+    }
+
+    public int getBandwidthLimit() {
+        return bandwidthLimit;
+    }
+
+    /**
+     * @return the bandwidth limit of the node in Mbit/s, {@code 0} if it has none
+     */
+    public static int bandwidthLimitOf(@CheckForNull Node node) {
+        if (node == null) {
+            return 0;
+        }
+        final S3NodeProperty property = node.getNodeProperties().get(S3NodeProperty.class);
+        return property != null ? property.getBandwidthLimit() : 0;
+    }
+
+    @Extension
+    @Symbol("s3Transfers")
+    public static final class DescriptorImpl extends NodePropertyDescriptor {
+        @Override
+        public String getDisplayName() {
+            return "S3 transfers";
+        }
+    }
+}
@@ -1,32 +1,60 @@
 package hudson.plugins.s3;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.Lists;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.FilePath;
 import hudson.ProxyConfiguration;
+import hudson.model.Computer;
+import hudson.model.Node;
 import hudson.model.Run;
+import hudson.plugins.s3.callable.DigestAllCallable;
 import hudson.plugins.s3.callable.MasterSlaveCallable;
-import hudson.plugins.s3.callable.S3CleanupUploadCallable;
+import hudson.plugins.s3.callable.S3BaseUploadCallable;
+import hudson.plugins.s3.callable.S3CompressCallable;
+import hudson.plugins.s3.callable.S3DownloadAllCallable;
 import hudson.plugins.s3.callable.S3DownloadCallable;
-import hudson.plugins.s3.callable.S3GzipCallable;
+import hudson.plugins.s3.callable.S3UploadAllCallable;
 import hudson.plugins.s3.callable.S3UploadCallable;
-import hudson.plugins.s3.callable.S3WaitUploadCallable;
+import hudson.plugins.s3.callable.TransferFailedException;
+import hudson.plugins.s3.callable.TransferResult;
 import hudson.util.Secret;
 import jenkins.model.Jenkins;
 import org.apache.commons.io.FilenameUtils;
+import org.apache.commons.lang.StringUtils;
 import org.kohsuke.stapler.DataBoundConstructor;
+import org.kohsuke.stapler.DataBoundSetter;
+import software.amazon.awssdk.auth.credentials.AwsCredentials;
+import software.amazon.awssdk.auth.credentials.StaticCredentialsProvider;
+import software.amazon.awssdk.services.s3.DelegatingS3Client;
 import software.amazon.awssdk.services.s3.S3Client;
+import software.amazon.awssdk.services.s3.model.Delete;
 import software.amazon.awssdk.services.s3.model.DeleteObjectRequest;
+import software.amazon.awssdk.services.s3.model.DeleteObjectsRequest;
 import software.amazon.awssdk.services.s3.model.GetObjectRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectsRequest;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Request;
 import software.amazon.awssdk.services.s3.model.ListObjectsV2Response;
+import software.amazon.awssdk.services.s3.model.ObjectIdentifier;
+import software.amazon.awssdk.services.s3.model.S3Error;
 import software.amazon.awssdk.services.s3.model.S3Object;
+import software.amazon.awssdk.services.s3.presigner.S3Presigner;
+import software.amazon.awssdk.services.s3.presigner.model.GetObjectPresignRequest;
+import software.amazon.awssdk.services.s3.presigner.model.PresignedGetObjectRequest;
 
 import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
-import java.util.concurrent.Callable;
+import java.util.Set;
+import java.util.UUID;
 import java.util.concurrent.TimeUnit;
 
 public class S3Profile {
@@ -42,6 +70,76 @@ public class S3Profile {
     private final boolean useRole;
     private final int signedUrlExpirySeconds;
 
+    /**
+     * Maximum number of files of a single entry that are transferred at the same time.
+     * Further files are only started once earlier ones have finished.
+     */
+    private int maxConcurrentUploads = DEFAULT_MAX_CONCURRENT_UPLOADS;
+
+    static final int DEFAULT_MAX_CONCURRENT_UPLOADS = 16;
+
+    /**
+     * Maximum number of artifacts of a build that are downloaded at the same time.
+     */
+    private int maxConcurrentDownloads = DEFAULT_MAX_CONCURRENT_DOWNLOADS;
+
+    static final int DEFAULT_MAX_CONCURRENT_DOWNLOADS = 16;
+
+    private static final int MB = 1024 * 1024;
+
+    /**
+     * Files larger than this are transferred in parts, in MB.
+     */
+    private int multipartThreshold = DEFAULT_MULTIPART_THRESHOLD;
+
+    static final int DEFAULT_MULTIPART_THRESHOLD = Uploads.MULTIPART_UPLOAD_THRESHOLD / MB;
+
+    /**
+     * Minimum size of the parts of multipart transfers, in MB.
+     */
+    private int partSize = DEFAULT_PART_SIZE;
+
+    static final int DEFAULT_PART_SIZE = Uploads.MULTIPART_PART_SIZE / MB;
+
+    /**
+     * Connections of a client, {@code 0} for the SDK's default.
+     */
+    private int maxConnections;
+
+    /**
+     * Pick part sizes per file and tune the number of connections from the observed throughput.
+     */
+    private boolean autoTuneTransfers;
+
+    /**
+     * Bandwidth of the transfers on a node in Mbit/s, {@code 0} for no limit.
+     */
+    private int bandwidthLimit;
+
+    private static final ClientCache<ClientKey, S3Client> clients = new ClientCache<>(
+            Integer.getInteger(S3Profile.class.getName() + ".maxClients", 16),
+            Long.getLong(S3Profile.class.getName() + ".clientIdleSeconds", 300), TimeUnit.SECONDS);
+    private static final ClientCache<ClientKey, S3Presigner> presigners = new ClientCache<>(
+            Integer.getInteger(S3Profile.class.getName() + ".maxPresigners", 16),
+            Long.getLong(S3Profile.class.getName() + ".presignerIdleSeconds", 300), TimeUnit.SECONDS);
+
+    /**
+     * Signed download URLs, handed out again while they are valid for long enough.
+     */
+    private static final Cache<String, SignedUrl> signedUrls = CacheBuilder.newBuilder()
+            .maximumSize(Long.getLong(S3Profile.class.getName() + ".maxSignedUrls", 10000))
+            .build();
+
+    /**
+     * Objects listed at least to find the existing ones among, see {@link #listExisting}.
+     */
+    private static final long MAX_LISTED_OBJECTS = 10000;
+
+    /**
+     * A cached URL is reused while at least a quarter of its validity, and no less than this, is left.
+     */
+    private static final Duration MIN_SIGNED_URL_VALIDITY = Duration.ofSeconds(10);
+
     @DataBoundConstructor
     public S3Profile(String name, String accessKey, String secretKey, boolean useRole, int signedUrlExpirySeconds, String maxUploadRetries, String uploadRetryTime, String maxDownloadRetries, String downloadRetryTime, boolean keepStructure) {
         this.name = name;
@@ -114,8 +212,182 @@ public class S3Profile {
         return signedUrlExpirySeconds;
     }
 
+    public int getMaxConcurrentUploads() {
+        // profiles saved by older versions of the plugin don't have the field
+        return maxConcurrentUploads > 0 ? maxConcurrentUploads : DEFAULT_MAX_CONCURRENT_UPLOADS;
+    }
+
+    @DataBoundSetter
+    public void setMaxConcurrentUploads(String maxConcurrentUploads) {
+        this.maxConcurrentUploads = parseWithDefault(maxConcurrentUploads, DEFAULT_MAX_CONCURRENT_UPLOADS);
+    }
+
+    public int getMaxConcurrentDownloads() {
+        return maxConcurrentDownloads > 0 ? maxConcurrentDownloads : DEFAULT_MAX_CONCURRENT_DOWNLOADS;
+    }
+
+    @DataBoundSetter
+    public void setMaxConcurrentDownloads(String maxConcurrentDownloads) {
+        this.maxConcurrentDownloads = parseWithDefault(maxConcurrentDownloads, DEFAULT_MAX_CONCURRENT_DOWNLOADS);
+    }
+
+    public int getMultipartThreshold() {
+        return multipartThreshold > 0 ? multipartThreshold : DEFAULT_MULTIPART_THRESHOLD;
+    }
+
+    @DataBoundSetter
+    public void setMultipartThreshold(String multipartThreshold) {
+        this.multipartThreshold = parseWithDefault(multipartThreshold, DEFAULT_MULTIPART_THRESHOLD);
+    }
+
+    public int getPartSize() {
+        return partSize > 0 ? partSize : DEFAULT_PART_SIZE;
+    }
+
+    @DataBoundSetter
+    public void setPartSize(String partSize) {
+        this.partSize = parseWithDefault(partSize, DEFAULT_PART_SIZE);
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    @DataBoundSetter
+    public void setMaxConnections(String maxConnections) {
+        this.maxConnections = Math.max(0, parseWithDefault(maxConnections, 0));
+    }
+
+    public boolean isAutoTuneTransfers() {
+        return autoTuneTransfers;
+    }
+
+    @DataBoundSetter
+    public void setAutoTuneTransfers(boolean autoTuneTransfers) {
+        this.autoTuneTransfers = autoTuneTransfers;
+    }
+
+    public int getBandwidthLimit() {
+        return bandwidthLimit;
+    }
+
+    @DataBoundSetter
+    public void setBandwidthLimit(String bandwidthLimit) {
+        this.bandwidthLimit = Math.max(0, parseWithDefault(bandwidthLimit, 0));
+    }
+
+    /**
+     * The bandwidth limits of transfers of this profile running on the node.
+     */
+    public BandwidthLimit bandwidthLimitOn(@CheckForNull Node node) {
+        return new BandwidthLimit(name, BandwidthLimit.bytesPerSecond(bandwidthLimit),
+                BandwidthLimit.bytesPerSecond(S3NodeProperty.bandwidthLimitOf(node)));
+    }
+
+    /**
+     * How the callables of this profile transfer large files.
+     */
+    public TransferTuning getTransferTuning() {
+        return new TransferTuning((long) getMultipartThreshold() * MB, (long) getPartSize() * MB, maxConnections, autoTuneTransfers);
+    }
+
+    public RetryPolicy getUploadRetryPolicy() {
+        return new RetryPolicy(maxUploadRetries, TimeUnit.SECONDS.toMillis(uploadRetryTime));
+    }
+
+    public RetryPolicy getDownloadRetryPolicy() {
+        return new RetryPolicy(maxDownloadRetries, TimeUnit.SECONDS.toMillis(downloadRetryTime));
+    }
+
+    /**
+     * Leases the client for the region, clients are shared so requests reuse warm connections.
+     * The lease has to be closed once the client isn't needed anymore.
+     */
+    public ClientCache.Lease<S3Client> leaseClient(String region) {
+        final ProxyConfiguration proxy = getProxy();
+        final ClientKey key = ClientKey.of(accessKey, secretKey, useRole, region, proxy, ClientHelper.ENDPOINT, name);
+        return clients.lease(key, () -> ClientHelper.createClient(accessKey, Secret.toString(secretKey), useRole, region, proxy));
+    }
+
+    /**
+     * The shared client for the region, closing it releases it rather than closing the shared client.
+     *
+     * @deprecated use {@link #leaseClient(String)}, a client which isn't closed keeps its lease forever
+     */
+    @Deprecated
     public S3Client getClient(String region) {
-        return ClientHelper.createClient(accessKey, Secret.toString(secretKey), useRole, region, getProxy());
+        final ClientCache.Lease<S3Client> lease = leaseClient(region);
+        return new DelegatingS3Client(lease.get()) {
+            @Override
+            public void close() {
+                lease.close();
+            }
+        };
+    }
+
+    /**
+     * Closes the shared clients and forgets the signed URLs, called when the profiles have been reconfigured.
+     */
+    static void invalidateClients() {
+        clients.invalidateAll();
+        presigners.invalidateAll();
+        signedUrls.invalidateAll();
+    }
+
+    /**
+     * Signs a short-lived download URL for the object. Signed URLs are cached, so repeated
+     * downloads of the same artifact are redirected without signing again, at most until the credentials
+     * of the role they were signed with expire.
+     *
+     * @param contentDisposition file name to save the object as, {@code null} to let the browser decide
+     */
+    public String getSignedDownloadURL(String region, String bucketName, String objectName, @CheckForNull String contentDisposition) {
+        final Duration expiry = Duration.ofSeconds(signedUrlExpirySeconds);
+        Duration margin = expiry.dividedBy(4);
+        if (margin.compareTo(MIN_SIGNED_URL_VALIDITY) < 0) {
+            margin = MIN_SIGNED_URL_VALIDITY;
+        }
+        final String key = String.join("\n", name, String.valueOf(region), bucketName, objectName,
+                String.valueOf(contentDisposition), String.valueOf(signedUrlExpirySeconds));
+
+        final SignedUrl cached = signedUrls.getIfPresent(key);
+        if (cached != null && Instant.now().plus(margin).isBefore(cached.expiration)) {
+            return cached.url;
+        }
+
+        final PresignedGetObjectRequest presigned;
+        // temporary credentials of a role may expire before the URL, which is invalid from then on
+        Instant validUntil = null;
+        try (ClientCache.Lease<S3Presigner> presigner = leasePresigner(region)) {
+            GetObjectRequest.Builder builder = GetObjectRequest.builder().bucket(bucketName).key(objectName);
+            if (contentDisposition != null) {
+                builder.responseContentDisposition(contentDisposition);
+            }
+            if (useRole) {
+                // signed with the credentials whose expiration is known
+                final AwsCredentials credentials = ClientHelper.resolveRoleCredentials();
+                builder.overrideConfiguration(c -> c.credentialsProvider(StaticCredentialsProvider.create(credentials)));
+                validUntil = credentials.expirationTime().orElse(null);
+            }
+            GetObjectPresignRequest presignRequest = GetObjectPresignRequest.builder()
+                    .signatureDuration(expiry)
+                    .getObjectRequest(builder.build()).build();
+            presigned = presigner.get().presignGetObject(presignRequest);
+        }
+
+        final String url = presigned.url().toExternalForm();
+        if (validUntil == null || presigned.expiration().isBefore(validUntil)) {
+            validUntil = presigned.expiration();
+        }
+        if (margin.compareTo(expiry) < 0) {
+            signedUrls.put(key, new SignedUrl(url, validUntil));
+        }
+        return url;
+    }
+
+    private ClientCache.Lease<S3Presigner> leasePresigner(String region) {
+        final ClientKey key = ClientKey.of(accessKey, secretKey, useRole, region, null, ClientHelper.ENDPOINT, name);
+        return presigners.lease(key, () -> ClientHelper.createPresigner(accessKey, Secret.toString(secretKey), useRole, region));
     }
 
     public List<FingerprintRecord> upload(Run<?, ?> run,
@@ -128,67 +400,134 @@ public class S3Profile {
                                     final boolean uploadFromSlave,
                                     final boolean managedArtifacts,
                                     final boolean useServerSideEncryption,
-                                    final boolean gzipFiles) throws IOException, InterruptedException {
-        final List<FingerprintRecord> fingerprints = new ArrayList<>(fileNames.size());
+                                    final Compression compression,
+                                    final int compressionLevel,
+                                    final boolean skipUnchanged,
+                                    final boolean contentAddressed) throws IOException, InterruptedException {
+        if (filePaths.isEmpty()) {
+            return new ArrayList<>();
+        }
 
-        try {
-            for (int i = 0; i < fileNames.size(); i++) {
-                final FilePath filePath = filePaths.get(i);
-                final String fileName = fileNames.get(i);
-
-                final Destination dest;
-                final boolean produced;
-                if (managedArtifacts) {
-                    dest = Destination.newFromRun(run, bucketName, fileName, true);
-                    produced = run.getTimeInMillis() <= filePath.lastModified() + 2000;
-                } else {
-                    dest = new Destination(bucketName, fileName);
-                    produced = false;
-                }
+        final TransferTuning tuning = getTransferTuning();
+        // files are uploaded by the node of the workspace, or streamed through the controller
+        final BandwidthLimit bandwidth = bandwidthLimitOn(uploadFromSlave ? nodeOf(filePaths.get(0)) : Jenkins.get());
+        final List<String> files = new ArrayList<>(filePaths.size());
+        final List<S3BaseUploadCallable> uploads = new ArrayList<>(filePaths.size());
+        for (int i = 0; i < fileNames.size(); i++) {
+            final String fileName = fileNames.get(i);
+
+            final Destination dest;
+            if (managedArtifacts) {
+                dest = Destination.newFromRun(run, bucketName, fileName, true);
+            } else {
+                dest = new Destination(bucketName, fileName);
+            }
 
-                final MasterSlaveCallable<String> upload;
-                if (gzipFiles) {
-                    upload = new S3GzipCallable(accessKey, secretKey, useRole, dest, userMetadata,
-                            storageClass, selregion, useServerSideEncryption, getProxy());
-                } else {
-                    upload = new S3UploadCallable(accessKey, secretKey, useRole, dest, userMetadata,
-                            storageClass, selregion, useServerSideEncryption, getProxy());
-                }
+            final S3BaseUploadCallable upload;
+            if (compression != Compression.NONE) {
+                upload = new S3CompressCallable(accessKey, secretKey, useRole, dest, userMetadata,
+                        storageClass, selregion, useServerSideEncryption, getProxy(), tuning, bandwidth, compression, compressionLevel);
+            } else {
+                upload = new S3UploadCallable(accessKey, secretKey, useRole, dest, userMetadata,
+                        storageClass, selregion, useServerSideEncryption, getProxy(), tuning, bandwidth);
+            }
+
+            files.add(filePaths.get(i).getRemote());
+            uploads.add(upload);
+        }
 
-                final FingerprintRecord fingerprintRecord = repeat(maxUploadRetries, uploadRetryTime, dest, new Callable<FingerprintRecord>() {
-                    @Override
-                    public FingerprintRecord call() throws IOException, InterruptedException {
-                        final String md5 = invoke(uploadFromSlave, filePath, upload);
-                        return new FingerprintRecord(produced, bucketName, fileName, selregion, md5);
-                    }
-                });
+        // managed artifacts go to a new location per build, compressed files have no predictable ETag
+        Map<String, S3UploadAllCallable.ExistingObject> existing = null;
+        if (skipUnchanged && !managedArtifacts && compression == Compression.NONE) {
+            existing = listExisting(selregion, uploads);
+        }
 
-                fingerprints.add(fingerprintRecord);
+        // the content is referred to before the upload looks it up, so deleting another build can't remove it in between,
+        // the references belong to the build once the upload succeeded
+        List<String> md5s = null;
+        final List<Destination> contents = new ArrayList<>();
+        if (managedArtifacts && contentAddressed) {
+            // all files come from the same workspace, so any of them gives the right channel
+            md5s = invoke(uploadFromSlave, filePaths.get(0), new DigestAllCallable(files));
+            for (String md5 : md5s) {
+                contents.add(new Destination(bucketName, Destination.contentKey(md5)));
             }
+            ContentReferences.get().acquire(contents);
+        }
+
+        // one upload session per publish, so concurrent builds never share state
+        final String sessionId = run.getExternalizableId() + '#' + UUID.randomUUID();
+        final S3UploadAllCallable uploadAll = new S3UploadAllCallable(sessionId, bucketName, selregion, files, fileNames, uploads,
+                managedArtifacts, run.getTimeInMillis(), getMaxConcurrentUploads(), getUploadRetryPolicy(), existing, md5s);
 
-            waitUploads(filePaths, uploadFromSlave);
-        } catch (InterruptedException | IOException exception) {
-            cleanupUploads(filePaths, uploadFromSlave);
-            throw exception;
+        final TransferMetrics.Series metrics = TransferMetrics.get().series(name, uploads.get(0).getDest().bucketName, TransferMetrics.Operation.UPLOAD);
+        metrics.started(filePaths.size());
+        TransferResult<List<FingerprintRecord>> result = null;
+        Map<String, TransferStats> stats = null;
+        try {
+            result = invoke(uploadFromSlave, filePaths.get(0), uploadAll);
+            stats = result.getStats();
+        } catch (IOException e) {
+            // the files uploaded before the call failed
+            stats = TransferFailedException.statsOf(e);
+            throw e;
+        } finally {
+            metrics.finished(filePaths.size(), stats != null ? stats.get(metrics.getBucket()) : null, result == null);
+            if (result == null) {
+                releaseContents(selregion, contents);
+            }
         }
+        return result.getValue();
+    }
 
-        return fingerprints;
+    /**
+     * Drops the references of a failed upload, content no other build refers to is deleted.
+     */
+    private void releaseContents(String region, List<Destination> contents) {
+        final List<DeletionQueue.Deletion> deletions = new ArrayList<>();
+        for (Destination unused : ContentReferences.get().release(contents)) {
+            deletions.add(new DeletionQueue.Deletion(name, region, unused.bucketName, unused.objectName));
+        }
+        DeletionQueue.get().enqueue(deletions);
     }
 
-    private void cleanupUploads(final List<FilePath> filePaths, boolean uploadFromSlave) {
-        for (FilePath filePath : filePaths) {
-            try {
-                invoke(uploadFromSlave, filePath, new S3CleanupUploadCallable());
-            }
-            catch (InterruptedException | IOException ignored) {
+    /**
+     * Lists the objects under the common prefix of the destinations, rather than asking for every single one.
+     * The listing stops after {@link #MAX_LISTED_OBJECTS} objects, or ten times the number of uploads,
+     * so a prefix shared with many unrelated objects doesn't take longer than uploading.
+     */
+    private Map<String, S3UploadAllCallable.ExistingObject> listExisting(String region, List<S3BaseUploadCallable> uploads) {
+        final String bucketName = uploads.get(0).getDest().bucketName;
+        final Set<String> keys = new HashSet<>();
+        String prefix = null;
+        for (S3BaseUploadCallable upload : uploads) {
+            final String key = upload.getDest().objectName;
+            keys.add(key);
+            prefix = prefix == null ? key : StringUtils.getCommonPrefix(new String[] {prefix, key});
+        }
+        prefix = prefix.substring(0, prefix.lastIndexOf('/') + 1);
+
+        final long maxListed = Math.max(MAX_LISTED_OBJECTS, 10L * uploads.size());
+        final Map<String, S3UploadAllCallable.ExistingObject> existing = new HashMap<>();
+        try (ClientCache.Lease<S3Client> client = leaseClient(region)) {
+            final ListObjectsV2Request request = ListObjectsV2Request.builder().bucket(bucketName).prefix(prefix).build();
+            long listed = 0;
+            for (S3Object object : client.get().listObjectsV2Paginator(request).contents()) {
+                if (keys.contains(object.key())) {
+                    existing.put(object.key(), new S3UploadAllCallable.ExistingObject(object.size(), ETag.unquote(object.eTag())));
+                }
+                if (++listed >= maxListed) {
+                    break;
+                }
             }
         }
+        return existing;
     }
 
-    private void waitUploads(final List<FilePath> filePaths, boolean uploadFromSlave) throws InterruptedException, IOException {
-        for (FilePath filePath : filePaths) {
-            invoke(uploadFromSlave, filePath, new S3WaitUploadCallable());
-        }
+    @CheckForNull
+    private static Node nodeOf(FilePath filePath) {
+        final Computer computer = filePath.toComputer();
+        return computer != null ? computer.getNode() : null;
     }
 
     private <T> T invoke(boolean uploadFromSlave, FilePath filePath, MasterSlaveCallable<T> callable) throws InterruptedException, IOException {
@@ -200,29 +539,29 @@ public class S3Profile {
     }
 
     public List<String> list(Run build, String bucket) {
-        final S3Client s3client = getClient(ClientHelper.DEFAULT_AMAZON_S3_REGION_NAME);
-
         final String buildName = build.getDisplayName();
         final int buildID = build.getNumber();
         final Destination dest = new Destination(bucket, "jobs/" + buildName + '/' + buildID + '/' + name);
         final List<String> files = Lists.newArrayList();
-        String nextContinuationToken = null;
-        do {
-            final ListObjectsV2Request listObjectsRequest = ListObjectsV2Request.builder()
-                    .bucket(dest.bucketName)
-                    .prefix(dest.objectName)
-                    .encodingType("url")
-                    .continuationToken(nextContinuationToken)
-                    .build();
-
-            ListObjectsV2Response response = s3client.listObjectsV2(listObjectsRequest);
-            nextContinuationToken = response.nextContinuationToken();
-
-            for (S3Object summary : response.contents()) {
-                final GetObjectRequest req = GetObjectRequest.builder().bucket(dest.bucketName).key(summary.key()).build();
-                files.add(req.key());
-            }
-        } while (nextContinuationToken != null);
+        try (ClientCache.Lease<S3Client> s3client = leaseClient(ClientHelper.DEFAULT_AMAZON_S3_REGION_NAME)) {
+            String nextContinuationToken = null;
+            do {
+                final ListObjectsV2Request listObjectsRequest = ListObjectsV2Request.builder()
+                        .bucket(dest.bucketName)
+                        .prefix(dest.objectName)
+                        .encodingType("url")
+                        .continuationToken(nextContinuationToken)
+                        .build();
+
+                ListObjectsV2Response response = s3client.get().listObjectsV2(listObjectsRequest);
+                nextContinuationToken = response.nextContinuationToken();
+
+                for (S3Object summary : response.contents()) {
+                    final GetObjectRequest req = GetObjectRequest.builder().bucket(dest.bucketName).key(summary.key()).build();
+                    files.add(req.key());
+                }
+            } while (nextContinuationToken != null);
+        }
 
 
         return files;
@@ -237,40 +576,78 @@ public class S3Profile {
                                                  final String excludeFilter,
                                                  final FilePath targetDir,
                                                  final boolean flatten) throws IOException, InterruptedException {
-          final List<FingerprintRecord> fingerprints = Lists.newArrayList();
+          return downloadAll(build, artifacts, includeFilter, excludeFilter, targetDir, flatten, false, null);
+      }
+
+      /**
+       * Download all artifacts from a given build
+       *
+       * @param incremental keep the target files which already have the recorded MD5
+       * @param cacheDir artifact cache on the node of the target directory, {@code null} for none
+       */
+      public List<FingerprintRecord> downloadAll(Run<?,?> build,
+                                                 final List<FingerprintRecord> artifacts,
+                                                 final String includeFilter,
+                                                 final String excludeFilter,
+                                                 final FilePath targetDir,
+                                                 final boolean flatten,
+                                                 final boolean incremental,
+                                                 @CheckForNull final FilePath cacheDir) throws IOException, InterruptedException {
+          final TransferTuning tuning = getTransferTuning();
+          final BandwidthLimit bandwidth = bandwidthLimitOn(nodeOf(targetDir));
+          final List<S3Artifact> selected = new ArrayList<>();
+          final List<FilePath> targets = new ArrayList<>();
+          final List<S3DownloadCallable> downloads = new ArrayList<>();
+          final List<String> md5s = new ArrayList<>();
           for(final FingerprintRecord record : artifacts) {
               final S3Artifact artifact = record.getArtifact();
-              final Destination dest = Destination.newFromRun(build, artifact);
-              final FilePath target = getFilePath(targetDir, flatten, artifact.getName());
-
               if (FileHelper.selected(includeFilter, excludeFilter, artifact.getName())) {
-                  fingerprints.add(repeat(maxDownloadRetries, downloadRetryTime, dest, new Callable<FingerprintRecord>() {
-                      @Override
-                      public FingerprintRecord call() throws IOException, InterruptedException {
-                          final String md5 = target.act(new S3DownloadCallable(accessKey, secretKey, useRole, dest, artifact.getRegion(), getProxy()));
-                          return new FingerprintRecord(true, dest.bucketName, target.getName(), artifact.getRegion(), md5);
-                      }
-                  }));
+                  final Destination dest = Destination.newFromRun(build, artifact);
+                  selected.add(artifact);
+                  targets.add(getFilePath(targetDir, flatten, artifact.getName()));
+                  downloads.add(new S3DownloadCallable(accessKey, secretKey, useRole, dest, artifact.getRegion(), getProxy(), tuning, bandwidth));
+                  md5s.add(record.getFingerprint());
               }
           }
-          return fingerprints;
-      }
 
-    private <T> T repeat(int maxRetries, int waitTime, Destination dest, Callable<T> func) throws IOException, InterruptedException {
-        int retryCount = 0;
+          final List<FingerprintRecord> fingerprints = Lists.newArrayList();
+          if (downloads.isEmpty()) {
+              return fingerprints;
+          }
 
-        while (true) {
-            try {
-                return func.call();
-            } catch (Exception e) {
-                retryCount++;
-                if(retryCount >= maxRetries){
-                    throw new IOException("Call fails for " + dest + ": " + e + ":: Failed after " + retryCount + " tries.", e);
-                }
-                Thread.sleep(TimeUnit.SECONDS.toMillis(waitTime));
-            }
-        }
-    }
+          // a single call for all files, they are downloaded in parallel on the node of the target directory
+          final List<String> remotes = new ArrayList<>(targets.size());
+          for (FilePath target : targets) {
+              remotes.add(target.getRemote());
+          }
+          final Map<TransferMetrics.Series, Integer> metrics = new LinkedHashMap<>();
+          for (S3DownloadCallable download : downloads) {
+              metrics.merge(TransferMetrics.get().series(name, download.getDest().bucketName, TransferMetrics.Operation.DOWNLOAD), 1, Integer::sum);
+          }
+          metrics.forEach(TransferMetrics.Series::started);
+          TransferResult<List<String>> result = null;
+          Map<String, TransferStats> stats = null;
+          try {
+              result = targetDir.act(new S3DownloadAllCallable(remotes, downloads, md5s, incremental,
+                      cacheDir != null ? cacheDir.getRemote() : null, getMaxConcurrentDownloads(), getDownloadRetryPolicy()));
+              stats = result.getStats();
+          } catch (IOException e) {
+              // the files downloaded before the call failed
+              stats = TransferFailedException.statsOf(e);
+              throw e;
+          } finally {
+              for (Map.Entry<TransferMetrics.Series, Integer> entry : metrics.entrySet()) {
+                  entry.getKey().finished(entry.getValue(), stats != null ? stats.get(entry.getKey().getBucket()) : null, result == null);
+              }
+          }
+          final List<String> downloaded = result.getValue();
+
+          for (int i = 0; i < selected.size(); i++) {
+              final S3Artifact artifact = selected.get(i);
+              fingerprints.add(new FingerprintRecord(true, downloads.get(i).getDest().bucketName, targets.get(i).getName(), artifact.getRegion(), downloaded.get(i)));
+          }
+          return fingerprints;
+      }
 
     private FilePath getFilePath(FilePath targetDir, boolean flatten, String fullName) {
         if (flatten) {
@@ -286,11 +663,47 @@ public class S3Profile {
        */
       public void delete(Run run, FingerprintRecord record) {
           final Destination dest = Destination.newFromRun(run, record.getArtifact());
+          if (record.getArtifact().getContentKey() != null
+                  && ContentReferences.get().release(Collections.singletonList(dest)).isEmpty()) {
+              // other builds still refer to the content
+              return;
+          }
           final DeleteObjectRequest req = DeleteObjectRequest.builder().bucket(dest.bucketName).key(dest.objectName).build();
-          final var client = getClient(record.getArtifact().getRegion());
-          client.deleteObject(req);
+          ContentReferences.get().deleteUnreferenced(Collections.singletonList(dest), unreferenced -> {
+              if (!unreferenced.isEmpty()) {
+                  try (ClientCache.Lease<S3Client> client = leaseClient(record.getArtifact().getRegion())) {
+                      client.get().deleteObject(req);
+                  }
+              }
+              return null;
+          });
       }
 
+    /**
+     * Deletes up to 1000 objects of a bucket with a single request.
+     *
+     * @return the keys that couldn't be deleted, with the reason
+     */
+    public Map<String, String> delete(String region, String bucketName, List<String> objectNames) {
+        final List<ObjectIdentifier> objects = new ArrayList<>(objectNames.size());
+        for (String objectName : objectNames) {
+            objects.add(ObjectIdentifier.builder().key(objectName).build());
+        }
+        // quiet: only failures are reported back
+        final DeleteObjectsRequest req = DeleteObjectsRequest.builder()
+                .bucket(bucketName)
+                .delete(Delete.builder().objects(objects).quiet(true).build())
+                .build();
+
+        final Map<String, String> failures = new LinkedHashMap<>();
+        try (ClientCache.Lease<S3Client> client = leaseClient(region)) {
+            for (S3Error error : client.get().deleteObjects(req).errors()) {
+                failures.put(error.key(), error.code() + ": " + error.message());
+            }
+        }
+        return failures;
+    }
+
     @Override
     public String toString() {
         return "S3Profile{" +
@@ -304,4 +717,14 @@ public class S3Profile {
     private ProxyConfiguration getProxy() {
         return Jenkins.get().proxy;
     }
+
+    private static final class SignedUrl {
+        private final String url;
+        private final Instant expiration;
+
+        SignedUrl(String url, Instant expiration) {
+            this.url = url;
+            this.expiration = expiration;
+        }
+    }
 }
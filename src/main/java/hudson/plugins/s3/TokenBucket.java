@@ -0,0 +1,76 @@
+package hudson.plugins.s3;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hands out bytes at a fixed rate, with bursts of up to a tenth of a second.
+ *
+ * Bytes are reserved rather than waited for: a transfer asking for more than the bucket holds is told how long
+ * to wait, and the next one queues behind it. So transfers sharing a bucket get the bandwidth in the order they asked,
+ * a large read can't starve the small ones.
+ */
+final class TokenBucket {
+    private static final ConcurrentMap<String, TokenBucket> buckets = new ConcurrentHashMap<>();
+
+    private long bytesPerSecond;
+    /**
+     * Bytes available right now, negative while reservations are waiting.
+     */
+    private double available;
+    private long refilledAt;
+
+    TokenBucket(long bytesPerSecond, long now) {
+        this.bytesPerSecond = bytesPerSecond;
+        this.available = capacity();
+        this.refilledAt = now;
+    }
+
+    /**
+     * The bucket of the key in this JVM, taking on the given rate, so a changed limit applies to running transfers too.
+     */
+    static TokenBucket forKey(String key, long bytesPerSecond) {
+        final TokenBucket bucket = buckets.computeIfAbsent(key, k -> new TokenBucket(bytesPerSecond, System.nanoTime()));
+        bucket.setRate(bytesPerSecond);
+        return bucket;
+    }
+
+    synchronized void setRate(long bytesPerSecond) {
+        if (this.bytesPerSecond != bytesPerSecond) {
+            refill(System.nanoTime());
+            this.bytesPerSecond = bytesPerSecond;
+            available = Math.min(available, capacity());
+        }
+    }
+
+    synchronized long getRate() {
+        return bytesPerSecond;
+    }
+
+    /**
+     * Takes the bytes from the bucket.
+     *
+     * @return nanoseconds until the bytes may be sent
+     */
+    synchronized long reserve(long bytes, long now) {
+        refill(now);
+        available -= bytes;
+        if (available >= 0) {
+            return 0;
+        }
+        return (long) Math.ceil(-available * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+    }
+
+    private void refill(long now) {
+        final long elapsed = now - refilledAt;
+        if (elapsed > 0) {
+            available = Math.min(capacity(), available + elapsed * (double) bytesPerSecond / TimeUnit.SECONDS.toNanos(1));
+            refilledAt = now;
+        }
+    }
+
+    private double capacity() {
+        return bytesPerSecond / 10.0;
+    }
+}
@@ -0,0 +1,270 @@
+package hudson.plugins.s3;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import org.kohsuke.stapler.export.Exported;
+import org.kohsuke.stapler.export.ExportedBean;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Numbers of the uploads and downloads since the controller started, by profile, bucket and operation.
+ *
+ * The nodes transferring the files send their {@link TransferStats} back with the result of the call,
+ * so the controller has the numbers of all nodes. Every series is registered as MBean
+ * {@code hudson.plugins.s3:type=Transfers,profile=...,bucket=...,operation=...}, and is listed by {@link S3MetricsAction}.
+ */
+public final class TransferMetrics {
+    private static final Logger LOGGER = Logger.getLogger(TransferMetrics.class.getName());
+
+    static final String DOMAIN = "hudson.plugins.s3";
+
+    private static final TransferMetrics INSTANCE = new TransferMetrics(ManagementFactory.getPlatformMBeanServer());
+
+    public enum Operation {
+        UPLOAD, DOWNLOAD;
+
+        @Override
+        public String toString() {
+            return name().toLowerCase(Locale.ENGLISH);
+        }
+    }
+
+    @CheckForNull
+    private final MBeanServer mbeans;
+    private final ConcurrentMap<List<String>, Series> series = new ConcurrentHashMap<>();
+
+    /**
+     * @param mbeans server to register the series with, {@code null} for none
+     */
+    TransferMetrics(@CheckForNull MBeanServer mbeans) {
+        this.mbeans = mbeans;
+    }
+
+    public static TransferMetrics get() {
+        return INSTANCE;
+    }
+
+    public Series series(String profile, String bucket, Operation operation) {
+        return series.computeIfAbsent(Arrays.asList(profile, bucket, operation.toString()), k -> register(new Series(profile, bucket, operation)));
+    }
+
+    public List<Series> getSeries() {
+        return new ArrayList<>(series.values());
+    }
+
+    private Series register(Series series) {
+        if (mbeans != null) {
+            try {
+                final Hashtable<String, String> properties = new Hashtable<>();
+                properties.put("type", "Transfers");
+                properties.put("profile", ObjectName.quote(series.profile));
+                properties.put("bucket", ObjectName.quote(series.bucket));
+                properties.put("operation", series.operation.toString());
+                mbeans.registerMBean(new StandardMBean(series, SeriesMBean.class), new ObjectName(DOMAIN, properties));
+            } catch (JMException e) {
+                LOGGER.log(Level.WARNING, "Failed to register the transfer metrics of " + series.profile + " with JMX", e);
+            }
+        }
+        return series;
+    }
+
+    /**
+     * Attributes of a series over JMX.
+     */
+    public interface SeriesMBean {
+        long getCalls();
+
+        long getFailedCalls();
+
+        long getFiles();
+
+        long getSkippedFiles();
+
+        long getBytes();
+
+        long getRetries();
+
+        long getThrottles();
+
+        long getInFlight();
+
+        long getLatencyMeanMillis();
+
+        long getLatencyP50Millis();
+
+        long getLatencyP95Millis();
+
+        long getLatencyP99Millis();
+
+        long getLatencyMaxMillis();
+
+        long getThroughputMeanBytesPerSecond();
+
+        long getThroughputP50BytesPerSecond();
+    }
+
+    /**
+     * The transfers of one operation of a profile to one bucket.
+     */
+    @ExportedBean
+    public static final class Series implements SeriesMBean {
+        private final String profile;
+        private final String bucket;
+        private final Operation operation;
+        private final AtomicLong inFlight = new AtomicLong();
+        private final AtomicLong calls = new AtomicLong();
+        private final AtomicLong failedCalls = new AtomicLong();
+        private final TransferStats stats = new TransferStats();
+
+        Series(String profile, String bucket, Operation operation) {
+            this.profile = profile;
+            this.bucket = bucket;
+            this.operation = operation;
+        }
+
+        /**
+         * A call to transfer the files started.
+         */
+        public void started(int files) {
+            inFlight.addAndGet(files);
+        }
+
+        /**
+         * The call finished.
+         *
+         * @param stats numbers of the transfers, of a failed call those until it failed, {@code null} if there are none
+         */
+        public void finished(int files, @CheckForNull TransferStats stats, boolean failed) {
+            inFlight.addAndGet(-files);
+            calls.incrementAndGet();
+            if (stats != null) {
+                this.stats.add(stats);
+            }
+            if (failed) {
+                failedCalls.incrementAndGet();
+            }
+        }
+
+        @Exported
+        public String getProfile() {
+            return profile;
+        }
+
+        @Exported
+        public String getBucket() {
+            return bucket;
+        }
+
+        @Exported
+        public String getOperation() {
+            return operation.toString();
+        }
+
+        @Exported
+        @Override
+        public long getCalls() {
+            return calls.get();
+        }
+
+        @Exported
+        @Override
+        public long getFailedCalls() {
+            return failedCalls.get();
+        }
+
+        @Exported
+        @Override
+        public long getFiles() {
+            return stats.getFiles();
+        }
+
+        @Exported
+        @Override
+        public long getSkippedFiles() {
+            return stats.getSkippedFiles();
+        }
+
+        @Exported
+        @Override
+        public long getBytes() {
+            return stats.getBytes();
+        }
+
+        @Exported
+        @Override
+        public long getRetries() {
+            return stats.getRetries();
+        }
+
+        @Exported
+        @Override
+        public long getThrottles() {
+            return stats.getThrottles();
+        }
+
+        /**
+         * Files of the calls running right now.
+         */
+        @Exported
+        @Override
+        public long getInFlight() {
+            return inFlight.get();
+        }
+
+        @Exported
+        @Override
+        public long getLatencyMeanMillis() {
+            return stats.getLatency().getMean();
+        }
+
+        @Exported
+        @Override
+        public long getLatencyP50Millis() {
+            return stats.getLatency().percentile(50);
+        }
+
+        @Exported
+        @Override
+        public long getLatencyP95Millis() {
+            return stats.getLatency().percentile(95);
+        }
+
+        @Exported
+        @Override
+        public long getLatencyP99Millis() {
+            return stats.getLatency().percentile(99);
+        }
+
+        @Exported
+        @Override
+        public long getLatencyMaxMillis() {
+            return stats.getLatency().getMax();
+        }
+
+        @Exported
+        @Override
+        public long getThroughputMeanBytesPerSecond() {
+            return stats.getThroughput().getMean();
+        }
+
+        @Exported
+        @Override
+        public long getThroughputP50BytesPerSecond() {
+            return stats.getThroughput().percentile(50);
+        }
+    }
+}
@@ -0,0 +1,96 @@
+package hudson.plugins.s3;
+
+import java.io.Serializable;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Numbers of the transfers of one call to a node, sent back with its result and added to the {@link TransferMetrics}
+ * of the controller, as the transfers run wherever the files are.
+ */
+public final class TransferStats implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private long files;
+    private long skippedFiles;
+    private long bytes;
+    private long retries;
+    private long throttles;
+    /**
+     * Milliseconds per transferred file.
+     */
+    private final Histogram latency = new Histogram();
+    /**
+     * Bytes per second of every transferred file.
+     */
+    private final Histogram throughput = new Histogram();
+
+    /**
+     * A file was transferred.
+     */
+    public synchronized void recordFile(long length, long nanos) {
+        files++;
+        bytes += length;
+        latency.record(TimeUnit.NANOSECONDS.toMillis(nanos));
+        if (nanos > 0) {
+            throughput.record((long) (length * (double) TimeUnit.SECONDS.toNanos(1) / nanos));
+        }
+    }
+
+    /**
+     * A file had not to be transferred, it was there already.
+     */
+    public synchronized void recordSkipped() {
+        skippedFiles++;
+    }
+
+    public synchronized void addRetries(long retries) {
+        this.retries += retries;
+    }
+
+    /**
+     * S3 throttled a request of the call, see {@link PrefixLimiter#countThrottles}.
+     */
+    public synchronized void recordThrottle() {
+        throttles++;
+    }
+
+    public synchronized void add(TransferStats other) {
+        synchronized (other) {
+            files += other.files;
+            skippedFiles += other.skippedFiles;
+            bytes += other.bytes;
+            retries += other.retries;
+            throttles += other.throttles;
+        }
+        latency.add(other.latency);
+        throughput.add(other.throughput);
+    }
+
+    public synchronized long getFiles() {
+        return files;
+    }
+
+    public synchronized long getSkippedFiles() {
+        return skippedFiles;
+    }
+
+    public synchronized long getBytes() {
+        return bytes;
+    }
+
+    public synchronized long getRetries() {
+        return retries;
+    }
+
+    public synchronized long getThrottles() {
+        return throttles;
+    }
+
+    public Histogram getLatency() {
+        return latency;
+    }
+
+    public Histogram getThroughput() {
+        return throughput;
+    }
+}
@@ -0,0 +1,301 @@
+package hudson.plugins.s3;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Logger;
+
+/**
+ * Tunes the number of parts the resumable uploads of one configuration in this JVM send at the same time,
+ * see {@link TransferTuning#isAutoTune()}. The clients keep a pool of {@link TransferTuning#getConnectionLimit()}
+ * connections for their whole life, every part of a {@link ResumableUpload} waits for a permit of the tuner instead.
+ *
+ * Transfers are observed in windows of {@value #WINDOW}. After every window the number of connections is doubled,
+ * or halved, and kept moving that way while it pays off: more connections have to bring at least 10% more throughput,
+ * without doubling the latency of the UploadPart requests, a sign of throttling or a congested link. Fewer connections
+ * have to keep at least 95% of the throughput. Once a move doesn't pay off, the previous number is restored and kept for
+ * {@value #HOLD_WINDOWS} windows, then the other direction is probed, as the link may have changed.
+ *
+ * A tuner lives as long as its configuration is used: once it had no part in flight or waiting for {@link #IDLE_MILLIS},
+ * it is dropped, like the clients of rotated credentials, and the next transfer starts from {@value #INITIAL_CONNECTIONS}
+ * connections again.
+ */
+public final class TransferTuner {
+    private static final Logger LOGGER = Logger.getLogger(TransferTuner.class.getName());
+
+    static final int MIN_CONNECTIONS = 8;
+    static final int INITIAL_CONNECTIONS = 32;
+    static final int WINDOW = 8;
+    static final int HOLD_WINDOWS = 16;
+    private static final double MIN_GAIN = 1.1;
+    private static final double MAX_LOSS = 0.95;
+    private static final double MAX_LATENCY_GROWTH = 2;
+    static final long IDLE_MILLIS = Long.getLong(TransferTuner.class.getName() + ".idleMillis", TimeUnit.MINUTES.toMillis(10));
+
+    private static final ConcurrentMap<Object, TransferTuner> tuners = new ConcurrentHashMap<>();
+    /**
+     * {@link System#nanoTime()} when the idle tuners were dropped last.
+     */
+    private static final AtomicLong sweptAt = new AtomicLong(System.nanoTime());
+
+    private final Object key;
+    private final int maxConnections;
+    private int connections;
+    private int previousConnections;
+    /**
+     * {@link System#nanoTime()} of the last change, transfers started before ran with the previous number.
+     */
+    private long changedAt;
+    private boolean changed;
+    private boolean increasing = true;
+    private int hold;
+
+    /**
+     * Throughput in bytes per nanosecond and latency per part in nanoseconds of the previous window,
+     * {@code NaN} until there is one to compare with.
+     */
+    private double previousThroughput = Double.NaN;
+    private double previousLatency = Double.NaN;
+
+    private int transfers;
+    private long bytes;
+    private int parts;
+    private long latencies;
+    private long windowStart = Long.MAX_VALUE;
+    private long windowEnd = Long.MIN_VALUE;
+
+    private int inFlight;
+    private final Queue<CompletableFuture<Permit>> waiting = new ArrayDeque<>();
+    /**
+     * {@link System#nanoTime()} of the last part which started or finished.
+     */
+    private long usedAt = System.nanoTime();
+    private boolean retired;
+
+    TransferTuner(Object key, int maxConnections) {
+        this.key = key;
+        this.maxConnections = Math.max(MIN_CONNECTIONS, maxConnections);
+        this.connections = Math.min(INITIAL_CONNECTIONS, this.maxConnections);
+    }
+
+    /**
+     * @param key identifies the configuration, e.g. a {@link ClientKey}
+     */
+    public static TransferTuner forKey(Object key, int maxConnections) {
+        sweep(System.nanoTime());
+        return tuners.computeIfAbsent(key, k -> new TransferTuner(key, maxConnections));
+    }
+
+    /**
+     * Drops the tuners which are idle, once per {@link #IDLE_MILLIS}.
+     */
+    static void sweep(long now) {
+        final long swept = sweptAt.get();
+        if (now - swept < TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS) || !sweptAt.compareAndSet(swept, now)) {
+            return;
+        }
+        for (Object key : tuners.keySet()) {
+            // retired and removed at once, a tuner looked up meanwhile is either still in use or replaced
+            tuners.computeIfPresent(key, (k, tuner) -> tuner.retireIfIdle(now) ? null : tuner);
+        }
+    }
+
+    private synchronized boolean retireIfIdle(long now) {
+        if (inFlight == 0 && waiting.isEmpty() && now - usedAt >= TimeUnit.MILLISECONDS.toNanos(IDLE_MILLIS)) {
+            retired = true;
+        }
+        return retired;
+    }
+
+    public synchronized int connections() {
+        return connections;
+    }
+
+    /**
+     * @return completes once another part may be sent, the permit has to be released when it is done
+     */
+    public CompletableFuture<Permit> acquire() {
+        final CompletableFuture<Permit> permit = new CompletableFuture<>();
+        final boolean dropped;
+        synchronized (this) {
+            dropped = retired;
+            if (!dropped) {
+                usedAt = System.nanoTime();
+                if (!waiting.isEmpty() || inFlight >= connections) {
+                    waiting.add(permit);
+                    return permit;
+                }
+                inFlight++;
+            }
+        }
+        if (dropped) {
+            // dropped while idle, e.g. held by an upload which paused, the configuration has a tuner of its own by now
+            return forKey(key, maxConnections).acquire();
+        }
+        permit.complete(new Permit());
+        return permit;
+    }
+
+    /**
+     * Records a finished transfer.
+     *
+     * @param startNanos {@link System#nanoTime()} when the transfer started
+     * @param endNanos {@link System#nanoTime()} when it finished
+     */
+    public void record(long bytes, long startNanos, long endNanos) {
+        final List<CompletableFuture<Permit>> admitted;
+        synchronized (this) {
+            if (changed && startNanos - changedAt < 0) {
+                return;
+            }
+            transfers++;
+            this.bytes += bytes;
+            windowStart = Math.min(windowStart, startNanos);
+            windowEnd = Math.max(windowEnd, endNanos);
+            if (transfers < WINDOW) {
+                return;
+            }
+
+            // transfers run concurrently, the window's throughput is what they achieved together
+            final double throughput = this.bytes / (double) Math.max(1, windowEnd - windowStart);
+            // no latency if no part was sent, e.g. all transfers resumed with the parts S3 had
+            final double latency = parts > 0 ? latencies / (double) parts : Double.NaN;
+            transfers = 0;
+            this.bytes = 0;
+            parts = 0;
+            latencies = 0;
+            windowStart = Long.MAX_VALUE;
+            windowEnd = Long.MIN_VALUE;
+            adjust(throughput, latency, endNanos);
+            admitted = admit();
+        }
+        grant(admitted);
+    }
+
+    /**
+     * Records a part that was sent.
+     *
+     * @param startNanos {@link System#nanoTime()} when its request was sent
+     * @param endNanos {@link System#nanoTime()} when S3 confirmed it
+     */
+    public synchronized void recordPart(long startNanos, long endNanos) {
+        if (changed && startNanos - changedAt < 0) {
+            return;
+        }
+        parts++;
+        latencies += endNanos - startNanos;
+    }
+
+    private void adjust(double throughput, double latency, long now) {
+        if (hold > 0) {
+            hold--;
+            return;
+        }
+        if (Double.isNaN(previousThroughput)) {
+            // the current number is the baseline of the next move
+            previousThroughput = throughput;
+            previousLatency = latency;
+            move(now);
+            return;
+        }
+
+        // a latency compared with NaN doesn't hold the move back, a window without parts doesn't tell
+        final boolean paidOff = increasing
+                ? throughput >= previousThroughput * MIN_GAIN && !(latency > previousLatency * MAX_LATENCY_GROWTH)
+                : throughput >= previousThroughput * MAX_LOSS;
+        if (paidOff) {
+            previousThroughput = throughput;
+            previousLatency = latency;
+            move(now);
+        } else {
+            // back to the previous number, the next probe goes the way back led
+            change(previousConnections, now);
+            increasing = !increasing;
+            settle();
+        }
+    }
+
+    /**
+     * Takes the next step in the current direction, or settles where the direction ends.
+     */
+    private void move(long now) {
+        final int next = increasing ? Math.min(maxConnections, connections * 2) : Math.max(MIN_CONNECTIONS, connections / 2);
+        if (next == connections) {
+            increasing = !increasing;
+            settle();
+        } else {
+            change(next, now);
+        }
+    }
+
+    private void change(int next, long now) {
+        LOGGER.fine("Transfers now use " + next + " connections instead of " + connections);
+        previousConnections = connections;
+        connections = next;
+        changedAt = now;
+        changed = true;
+    }
+
+    private void settle() {
+        hold = HOLD_WINDOWS;
+        previousThroughput = Double.NaN;
+        previousLatency = Double.NaN;
+    }
+
+    /**
+     * @return the waiting permits which fit into the current number of connections
+     */
+    private List<CompletableFuture<Permit>> admit() {
+        final List<CompletableFuture<Permit>> admitted = new ArrayList<>();
+        while (!waiting.isEmpty() && inFlight < connections) {
+            inFlight++;
+            admitted.add(waiting.poll());
+        }
+        return admitted;
+    }
+
+    /**
+     * Grants the admitted permits, outside the lock, as the waiting parts are sent right away.
+     */
+    private void grant(List<CompletableFuture<Permit>> admitted) {
+        for (CompletableFuture<Permit> permit : admitted) {
+            if (!permit.complete(new Permit())) {
+                // cancelled while waiting
+                release();
+            }
+        }
+    }
+
+    private void release() {
+        final List<CompletableFuture<Permit>> admitted;
+        synchronized (this) {
+            inFlight--;
+            usedAt = System.nanoTime();
+            admitted = admit();
+        }
+        grant(admitted);
+    }
+
+    /**
+     * A part in flight.
+     */
+    public final class Permit {
+        private boolean released;
+
+        public void release() {
+            synchronized (this) {
+                if (released) {
+                    return;
+                }
+                released = true;
+            }
+            TransferTuner.this.release();
+        }
+    }
+}
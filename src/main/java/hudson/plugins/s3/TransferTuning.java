@@ -0,0 +1,132 @@
+package hudson.plugins.s3;
+
+import java.io.Serializable;
+import java.util.Objects;
+
+/**
+ * How a profile transfers large files: from which size on they are sent in parts, how large the parts are,
+ * and how many connections a client opens.
+ *
+ * With auto-tuning, the part size grows with the file, so a large file has enough parts to keep the connections busy
+ * without paying for thousands of requests. The number of connections is tuned on every node from the throughput
+ * of its transfers, see {@link TransferTuner}.
+ */
+public final class TransferTuning implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    public static final TransferTuning DEFAULT = new TransferTuning(Uploads.MULTIPART_UPLOAD_THRESHOLD, Uploads.MULTIPART_PART_SIZE, 0, false);
+
+    /**
+     * S3 rejects smaller parts, except for the last one.
+     */
+    public static final long MIN_PART_SIZE = 5L * 1024 * 1024;
+    /**
+     * Largest part size picked by auto-tuning.
+     */
+    static final long MAX_AUTO_PART_SIZE = 512L * 1024 * 1024;
+    /**
+     * Connections of the SDK's asynchronous client unless configured otherwise.
+     */
+    static final int SDK_DEFAULT_CONNECTIONS = 50;
+    /**
+     * Most connections auto-tuning goes up to, unless a maximum is configured.
+     */
+    static final int MAX_AUTO_CONNECTIONS = 256;
+
+    private final long multipartThreshold;
+    private final long partSize;
+    private final int maxConnections;
+    private final boolean autoTune;
+
+    /**
+     * @param maxConnections connections per client, {@code 0} for the SDK's default, or no limit but the built-in one when auto-tuning
+     */
+    public TransferTuning(long multipartThreshold, long partSize, int maxConnections, boolean autoTune) {
+        this.multipartThreshold = multipartThreshold;
+        this.partSize = Math.max(MIN_PART_SIZE, partSize);
+        this.maxConnections = Math.max(0, maxConnections);
+        this.autoTune = autoTune;
+    }
+
+    public long getMultipartThreshold() {
+        return multipartThreshold;
+    }
+
+    public long getPartSize() {
+        return partSize;
+    }
+
+    public int getMaxConnections() {
+        return maxConnections;
+    }
+
+    public boolean isAutoTune() {
+        return autoTune;
+    }
+
+    /**
+     * Most connections a client of this tuning opens.
+     */
+    public int getConnectionLimit() {
+        if (maxConnections > 0) {
+            return maxConnections;
+        }
+        return autoTune ? MAX_AUTO_CONNECTIONS : SDK_DEFAULT_CONNECTIONS;
+    }
+
+    /**
+     * Minimum part size for a file of the given length, which the SDK grows further for files of more than
+     * {@link ETag#MAX_PARTS} parts.
+     *
+     * When auto-tuning, the part size is doubled until the file has no more than two parts per connection.
+     * Part sizes stay powers of two of the configured one, so few distinct clients are needed.
+     */
+    public long partSizeFor(long length) {
+        if (!autoTune || length <= multipartThreshold) {
+            return partSize;
+        }
+        final long target = length / (2L * getConnectionLimit());
+        long size = partSize;
+        while (size < target && size < MAX_AUTO_PART_SIZE) {
+            size <<= 1;
+        }
+        return size;
+    }
+
+    /**
+     * Number of requests a file of the given length is uploaded with.
+     */
+    public long partsFor(long length) {
+        if (length <= multipartThreshold) {
+            return 1;
+        }
+        final long size = ETag.partSize(length, partSizeFor(length));
+        return (length + size - 1) / size;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof TransferTuning)) {
+            return false;
+        }
+        final TransferTuning other = (TransferTuning) o;
+        return multipartThreshold == other.multipartThreshold
+                && partSize == other.partSize
+                && maxConnections == other.maxConnections
+                && autoTune == other.autoTune;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(multipartThreshold, partSize, maxConnections, autoTune);
+    }
+
+    @Override
+    public String toString() {
+        return "TransferTuning[multipartThreshold=" + multipartThreshold + ", partSize=" + partSize
+                + ", maxConnections=" + maxConnections + ", autoTune=" + autoTune + ']';
+    }
+}
@@ -0,0 +1,200 @@
+package hudson.plugins.s3;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import org.apache.commons.codec.digest.DigestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Remembers the multipart uploads started on this node which haven't completed yet, with the parts S3 has already,
+ * so a failed upload can be resumed instead of started over, see {@link ResumableUpload}.
+ *
+ * The journal is kept in memory, which covers retries within a build. When the system property
+ * {@code hudson.plugins.s3.UploadJournal.dir} names a directory, every upload is also written to a small file there,
+ * so a rerun resumes even after the agent restarted. Files older than a week are removed.
+ *
+ * Uploads nobody resumes don't stay in memory: with a directory they are read from their file again once they stopped,
+ * without one they are dropped once they haven't made progress for as long as files are kept.
+ */
+public final class UploadJournal {
+    private static final Logger LOGGER = Logger.getLogger(UploadJournal.class.getName());
+
+    private static final String DIR = System.getProperty(UploadJournal.class.getName() + ".dir");
+    private static final long MAX_AGE = TimeUnit.DAYS.toMillis(Long.getLong(UploadJournal.class.getName() + ".maxAgeDays", 7));
+
+    private static final UploadJournal instance = new UploadJournal(DIR != null && !DIR.isEmpty() ? new File(DIR) : null);
+
+    private final File dir;
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<>();
+    /**
+     * Uploads running right now, an upload of the same file to the same key meanwhile starts one of its own.
+     */
+    private final Set<String> active = ConcurrentHashMap.newKeySet();
+
+    UploadJournal(@CheckForNull File dir) {
+        this.dir = dir;
+        if (dir != null) {
+            removeExpired();
+        }
+    }
+
+    public static UploadJournal get() {
+        return instance;
+    }
+
+    /**
+     * Claims the upload with the key, for as long as it runs.
+     *
+     * @return {@code false} if another upload with the key is running
+     */
+    boolean claim(String key) {
+        evictAbandoned(System.currentTimeMillis() - MAX_AGE);
+        return active.add(key);
+    }
+
+    void release(String key) {
+        active.remove(key);
+        if (dir != null) {
+            entries.remove(key);
+        }
+    }
+
+    /**
+     * Forgets the uploads in memory which aren't running and haven't made progress since the given time.
+     */
+    void evictAbandoned(long before) {
+        entries.entrySet().removeIf(entry -> entry.getValue().saved < before && !active.contains(entry.getKey()));
+    }
+
+    /**
+     * @return the upload recorded for the key, {@code null} if there is none
+     */
+    @CheckForNull
+    Entry load(String key) {
+        final Entry entry = entries.get(key);
+        if (entry != null || dir == null) {
+            return entry;
+        }
+        final File file = fileFor(key);
+        if (!file.isFile()) {
+            return null;
+        }
+        final Properties properties = new Properties();
+        try (InputStream in = Files.newInputStream(file.toPath())) {
+            properties.load(in);
+        } catch (IOException e) {
+            LOGGER.log(Level.WARNING, "Failed to read " + file, e);
+            return null;
+        }
+        if (!key.equals(properties.getProperty("key"))) {
+            return null;
+        }
+        final Entry loaded = new Entry(properties.getProperty("uploadId"));
+        for (String name : properties.stringPropertyNames()) {
+            if (name.startsWith("part.")) {
+                loaded.parts.put(Integer.parseInt(name.substring("part.".length())), properties.getProperty(name));
+            } else if (name.startsWith("crc32.")) {
+                loaded.checksums.put(Integer.parseInt(name.substring("crc32.".length())), properties.getProperty(name));
+            }
+        }
+        final Entry existing = entries.putIfAbsent(key, loaded);
+        return existing != null ? existing : loaded;
+    }
+
+    /**
+     * Records the upload, or the progress it made.
+     */
+    void save(String key, Entry entry) {
+        entry.saved = System.currentTimeMillis();
+        entries.put(key, entry);
+        if (dir == null) {
+            return;
+        }
+        // parts complete concurrently, the latest progress is written last
+        synchronized (entry) {
+            final Properties properties = new Properties();
+            properties.setProperty("key", key);
+            properties.setProperty("uploadId", entry.uploadId);
+            for (Map.Entry<Integer, String> part : entry.parts.entrySet()) {
+                properties.setProperty("part." + part.getKey(), part.getValue());
+            }
+            for (Map.Entry<Integer, String> checksum : entry.checksums.entrySet()) {
+                properties.setProperty("crc32." + checksum.getKey(), checksum.getValue());
+            }
+            final File file = fileFor(key);
+            try {
+                Files.createDirectories(dir.toPath());
+                final File tmp = File.createTempFile(file.getName(), ".tmp", dir);
+                try (OutputStream out = Files.newOutputStream(tmp.toPath())) {
+                    properties.store(out, null);
+                }
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to write " + file, e);
+            }
+        }
+    }
+
+    /**
+     * Forgets the upload, once it completed or S3 no longer knows it.
+     */
+    void remove(String key) {
+        entries.remove(key);
+        if (dir != null) {
+            try {
+                Files.deleteIfExists(fileFor(key).toPath());
+            } catch (IOException e) {
+                LOGGER.log(Level.WARNING, "Failed to remove the journal of " + key, e);
+            }
+        }
+    }
+
+    private File fileFor(String key) {
+        return new File(dir, DigestUtils.sha256Hex(key) + ".properties");
+    }
+
+    private void removeExpired() {
+        final File[] files = dir.listFiles();
+        if (files == null) {
+            return;
+        }
+        final long expired = System.currentTimeMillis() - MAX_AGE;
+        for (File file : files) {
+            if (file.lastModified() < expired && !file.delete()) {
+                LOGGER.fine("Failed to remove " + file);
+            }
+        }
+    }
+
+    /**
+     * A multipart upload with the ETags, and CRC32 checksums where S3 reported them, of the parts uploaded so far.
+     */
+    static final class Entry {
+        final String uploadId;
+        final SortedMap<Integer, String> parts = new TreeMap<>();
+        final SortedMap<Integer, String> checksums = new TreeMap<>();
+        /**
+         * {@link System#currentTimeMillis()} of the last progress.
+         */
+        volatile long saved = System.currentTimeMillis();
+
+        Entry(String uploadId) {
+            this.uploadId = uploadId;
+        }
+    }
+}
@@ -1,75 +1,121 @@
 package hudson.plugins.s3;
 
-import hudson.FilePath;
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.BlockingOutputStreamAsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
 import software.amazon.awssdk.transfer.s3.S3TransferManager;
-import software.amazon.awssdk.transfer.s3.model.FileUpload;
 import software.amazon.awssdk.transfer.s3.model.Upload;
 import software.amazon.awssdk.transfer.s3.model.UploadRequest;
 import software.amazon.awssdk.transfer.s3.progress.TransferListener;
+import software.amazon.awssdk.utils.CancellableOutputStream;
 import software.amazon.awssdk.utils.NamedThreadFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Path;
+import java.security.MessageDigest;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.function.Consumer;
+import java.util.logging.Level;
 import java.util.logging.Logger;
 
+/**
+ * Keeps track of the uploads in flight, grouped in {@link Session}s.
+ *
+ * Every publish opens a session of its own, so builds sharing an agent, and even
+ * publishing identical workspace paths, never see each other's uploads.
+ *
+ * Request bodies are slowed down to the {@link BandwidthLimit} of the profile and the node.
+ */
 public final class Uploads {
-    private Uploads() {}
     private static final Logger LOGGER = Logger.getLogger(Uploads.class.getName());
     public static final int MULTIPART_UPLOAD_THRESHOLD = 16*1024*1024; // 16 MB
+    /**
+     * Part size of multipart uploads, {@link ETag} depends on it.
+     */
+    public static final int MULTIPART_PART_SIZE = 8*1024*1024; // 8 MB
+
+    /**
+     * Streams pumped or written into request bodies at the same time in this JVM, each takes a thread.
+     */
+    private static final int MAX_STREAMS = Integer.getInteger(Uploads.class.getName() + ".maxStreams", 64);
+    private static final int DIGEST_THREADS = Integer.getInteger(Uploads.class.getName() + ".digestThreads", Runtime.getRuntime().availableProcessors());
 
     private static transient volatile Uploads instance;
-    private final transient HashMap<FilePath, Upload> startedUploads = new HashMap<>();
-    private final ExecutorService executors = Executors.newScheduledThreadPool(1, new NamedThreadFactory(Executors.defaultThreadFactory(), Uploads.class.getName()));
-    private final transient HashMap<FilePath, InputStream> openedStreams = new HashMap<>();
-
-    public Upload startUploading(S3TransferManager manager, FilePath file, InputStream inputStream, String bucketName, String objectName, Metadata metadata, TransferListener listener) {
-        UploadRequest.Builder request = UploadRequest.builder();
-        request.putObjectRequest(metadata.builder.andThen(b -> b.bucket(bucketName).key(objectName).metadata(metadata.metadata)));
-        request.requestBody(AsyncRequestBody.fromInputStream(inputStream, metadata.getContentLength(), executors));
-
-        if (listener != null) {
-            request.addTransferListener(listener);
-        }
-        final Upload upload = manager.upload(request.build());
-        startedUploads.put(file, upload);
-        openedStreams.put(file, inputStream);
-        return upload;
+    /**
+     * Pumps remote streams into their request bodies, one thread per stream in flight,
+     * so concurrent uploads don't queue up behind each other. An upload waits for one of the {@link #streams}
+     * before it starts, rather than its request waiting for a thread until S3 times it out.
+     */
+    private final ExecutorService executors = Executors.newCachedThreadPool(new NamedThreadFactory(Executors.defaultThreadFactory(), Uploads.class.getName()));
+    private final ExecutorService writers = Executors.newCachedThreadPool(new NamedThreadFactory(Executors.defaultThreadFactory(), Uploads.class.getName() + "-writer"));
+    private final Semaphore streams = new Semaphore(MAX_STREAMS, true);
+    private final ThreadPoolExecutor digesters = new ThreadPoolExecutor(DIGEST_THREADS, DIGEST_THREADS, 60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(),
+            new NamedThreadFactory(Executors.defaultThreadFactory(), Uploads.class.getName() + "-digest"));
+    private final ConcurrentMap<String, Session> sessions = new ConcurrentHashMap<>();
+
+    private Uploads() {
+        digesters.allowCoreThreadTimeOut(true);
     }
 
-    public void finishUploading(FilePath filePath) throws InterruptedException {
-        final Upload upload = startedUploads.remove(filePath);
-        if (upload == null) {
-            LOGGER.info("File: " + filePath.getName() + " already was uploaded");
-            return;
-        }
-        try {
-            upload.completionFuture().join();
-        }
-        finally {
-            closeStream(filePath);
+    /**
+     * Opens the session with the given id, or returns it if it is open already.
+     *
+     * @param id unique per publish, e.g. the run's id with a random suffix
+     */
+    public Session openSession(String id) {
+        return sessions.computeIfAbsent(id, Session::new);
+    }
+
+    /**
+     * @throws IllegalStateException if the session was not opened or already closed
+     */
+    public Session getSession(String id) {
+        final Session session = sessions.get(id);
+        if (session == null) {
+            throw new IllegalStateException("No upload session " + id);
         }
+        return session;
     }
 
-    public void cleanup(FilePath filePath) {
-        startedUploads.remove(filePath);
-        closeStream(filePath);
+    /**
+     * For blocking work that accompanies uploads, e.g. computing digests, with a thread per core.
+     */
+    public Executor getExecutor() {
+        return digesters;
     }
 
-    private void closeStream(FilePath filePath) {
+    /**
+     * Waits until another stream may be pumped, the stream is closed if the wait is interrupted.
+     */
+    private void acquireStream(InputStream inputStream) throws InterruptedException {
         try {
-            final InputStream stream = openedStreams.remove(filePath);
-            if (stream != null) {
-                stream.close();
+            streams.acquire();
+        } catch (InterruptedException e) {
+            try {
+                inputStream.close();
+            } catch (IOException closing) {
+                e.addSuppressed(closing);
             }
-        } catch (IOException e) {
-            LOGGER.warning("Failed to close stream for file:" + filePath);
+            throw e;
         }
     }
 
@@ -84,6 +130,208 @@ public final class Uploads {
         return instance;
     }
 
+    /**
+     * The uploads started by one publish. Safe to use from several threads.
+     */
+    public final class Session implements Closeable {
+        private final String id;
+        private final Set<Transfer> transfers = ConcurrentHashMap.newKeySet();
+
+        private Session(String id) {
+            this.id = id;
+        }
+
+        public String getId() {
+            return id;
+        }
+
+        /**
+         * Uploads a stream, pumped into the request body by a thread of its own. Waits for a thread if all are busy.
+         */
+        public Upload startUploading(S3TransferManager manager, InputStream inputStream, String bucketName, String objectName, Metadata metadata, TransferListener listener,
+                                     BandwidthLimit bandwidth) throws InterruptedException {
+            acquireStream(inputStream);
+            try {
+                UploadRequest.Builder request = UploadRequest.builder();
+                request.putObjectRequest(metadata.builder.andThen(b -> b.bucket(bucketName).key(objectName).metadata(metadata.metadata)));
+                request.requestBody(AsyncRequestBody.fromInputStream(bandwidth.limit(inputStream), metadata.getContentLength(), executors));
+
+                if (listener != null) {
+                    request.addTransferListener(listener);
+                }
+                return releaseStreamWhenDone(track(manager.upload(request.build()), inputStream));
+            } catch (RuntimeException e) {
+                streams.release();
+                throw e;
+            }
+        }
+
+        /**
+         * Uploads a local file straight from disk. The body reads the file through a file channel,
+         * with positional reads for every part, so no thread has to copy the bytes.
+         *
+         * @param md5 fed with the content as it is sent
+         */
+        public Upload startUploading(S3TransferManager manager, Path file, String bucketName, String objectName, Metadata metadata, TransferListener listener,
+                                     BandwidthLimit bandwidth, MessageDigest md5) {
+            UploadRequest.Builder request = UploadRequest.builder();
+            request.putObjectRequest(metadata.builder.andThen(b -> b.bucket(bucketName).key(objectName).metadata(metadata.metadata)));
+            request.requestBody(bandwidth.limitRequest(new DigestingRequestBody(AsyncRequestBody.fromFile(file), md5)));
+
+            if (listener != null) {
+                request.addTransferListener(listener);
+            }
+            return track(manager.upload(request.build()), null);
+        }
+
+        /**
+         * Uploads a large local file in parts which survive a failure, a retry sends only the parts S3 doesn't have yet.
+         * See {@link ResumableUpload}.
+         *
+         * @param minimumPartSize part size for files of up to {@link ETag#MAX_PARTS} parts
+         * @param tuner gates and measures the parts when auto-tuning, {@code null} otherwise
+         * @param digest whether to take the MD5 of the file from its parts
+         * @return completes with the MD5 of the file, {@code null} if it wasn't requested or parts were resumed
+         */
+        public CompletableFuture<String> startResumable(S3AsyncClient client, Path file, String bucketName, String objectName, Metadata metadata, long minimumPartSize,
+                                                        BandwidthLimit bandwidth, @CheckForNull TransferTuner tuner, boolean digest) {
+            final CompletableFuture<String> upload = ResumableUpload.start(client, file, metadata.toRequest(bucketName, objectName), minimumPartSize,
+                    bandwidth, tuner, digest);
+            track(upload, null);
+            return upload;
+        }
+
+        /**
+         * Starts an upload whose content is produced while it is being uploaded, e.g. compressed on the fly,
+         * so its length doesn't need to be known up front and nothing is staged on disk.
+         * The writer runs on a separate thread and blocks while the transfer can't take more data.
+         * Waits for a thread if all are busy.
+         */
+        public Upload startStreaming(S3TransferManager manager, InputStream inputStream, String bucketName, String objectName, Metadata metadata, ContentWriter writer,
+                                     BandwidthLimit bandwidth) throws InterruptedException {
+            acquireStream(inputStream);
+            final Upload upload;
+            try {
+                final BlockingOutputStreamAsyncRequestBody body = AsyncRequestBody.forBlockingOutputStream(null);
+                UploadRequest.Builder request = UploadRequest.builder();
+                request.putObjectRequest(metadata.builder.andThen(b -> b.bucket(bucketName).key(objectName).metadata(metadata.metadata)));
+                // the limit applies to the content as sent, the writer blocks while the body is held back
+                request.requestBody(bandwidth.limitRequest(body));
+
+                upload = releaseStreamWhenDone(track(manager.upload(request.build()), inputStream));
+                writers.execute(() -> write(body, inputStream, objectName, writer));
+            } catch (RuntimeException e) {
+                streams.release();
+                throw e;
+            }
+            return upload;
+        }
+
+        private void write(BlockingOutputStreamAsyncRequestBody body, InputStream inputStream, String objectName, ContentWriter writer) {
+            final CancellableOutputStream outputStream = body.outputStream();
+            try {
+                writer.write(inputStream, outputStream);
+                outputStream.close();
+            } catch (IOException | RuntimeException e) {
+                LOGGER.log(Level.WARNING, "Failed to produce content for " + objectName, e);
+                outputStream.cancel();
+            } catch (Error e) {
+                // e.g. a codec which failed to link, the upload would wait for the rest of the content until it times out
+                LOGGER.log(Level.SEVERE, "Failed to produce content for " + objectName, e);
+                outputStream.cancel();
+                throw e;
+            }
+        }
+
+        private Upload releaseStreamWhenDone(Upload upload) {
+            upload.completionFuture().whenComplete((completed, failure) -> streams.release());
+            return upload;
+        }
+
+        private Upload track(Upload upload, InputStream inputStream) {
+            track(upload.completionFuture(), inputStream);
+            return upload;
+        }
+
+        private void track(CompletableFuture<?> completion, InputStream inputStream) {
+            final Transfer transfer = new Transfer(completion, inputStream);
+            transfers.add(transfer);
+            // the stream is released as soon as the upload is done, whichever way it ends
+            completion.whenComplete((completed, failure) -> {
+                transfers.remove(transfer);
+                transfer.closeStream();
+            });
+        }
+
+        /**
+         * Waits until every upload started in this session has finished.
+         */
+        public void awaitCompletion() throws InterruptedException {
+            for (Transfer transfer : transfers) {
+                try {
+                    transfer.completion.get();
+                } catch (InterruptedException e) {
+                    // the build was aborted, the uploads still in flight aren't waited for
+                    cancelInFlight();
+                    throw e;
+                } catch (ExecutionException e) {
+                    throw new CompletionException(e.getCause());
+                }
+            }
+        }
+
+        /**
+         * Cancels the uploads still in flight, releases their streams and forgets the session.
+         */
+        @Override
+        public void close() {
+            sessions.remove(id, this);
+            cancelInFlight();
+        }
+
+        private void cancelInFlight() {
+            for (Transfer transfer : transfers) {
+                if (!transfer.completion.isDone()) {
+                    LOGGER.info("Cancelling upload in session " + id);
+                    transfer.completion.cancel(true);
+                }
+                transfer.closeStream();
+            }
+            transfers.clear();
+        }
+    }
+
+    private static final class Transfer {
+        private final CompletableFuture<?> completion;
+        private final InputStream inputStream;
+
+        Transfer(CompletableFuture<?> completion, InputStream inputStream) {
+            this.completion = completion;
+            this.inputStream = inputStream;
+        }
+
+        void closeStream() {
+            if (inputStream == null) {
+                return;
+            }
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+                LOGGER.warning("Failed to close stream for upload: " + e);
+            }
+        }
+    }
+
+    /**
+     * Produces the content of a streamed upload.
+     */
+    public interface ContentWriter {
+        /**
+         * Writes the content for the given source. Closing the output is left to the caller.
+         */
+        void write(InputStream source, OutputStream target) throws IOException;
+    }
+
     public static class Metadata {
         private Consumer<PutObjectRequest.Builder> builder;
         private final Map<String, String> metadata;
@@ -112,5 +360,11 @@ public final class Uploads {
         public void andThen(Consumer<PutObjectRequest.Builder> addition) {
             builder = builder.andThen(addition);
         }
+
+        PutObjectRequest toRequest(String bucketName, String objectName) {
+            final PutObjectRequest.Builder request = PutObjectRequest.builder();
+            builder.andThen(b -> b.bucket(bucketName).key(objectName).metadata(metadata)).accept(request);
+            return request.build();
+        }
     }
 }
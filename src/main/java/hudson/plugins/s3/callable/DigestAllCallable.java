@@ -0,0 +1,109 @@
+package hudson.plugins.s3.callable;
+
+import hudson.FilePath;
+import hudson.plugins.s3.DigestCache;
+import hudson.plugins.s3.Uploads;
+import hudson.remoting.VirtualChannel;
+import jenkins.security.Roles;
+import org.jenkinsci.remoting.RoleChecker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Computes the MD5 of all files of an entry within a single call, where the files are.
+ *
+ * The files are digested in parallel on {@link Uploads#getExecutor()}, local files which didn't change
+ * since they were digested last are taken from the {@link DigestCache}.
+ */
+public final class DigestAllCallable implements MasterSlaveCallable<List<String>> {
+    private static final long serialVersionUID = 1L;
+
+    private final List<String> files;
+
+    public DigestAllCallable(List<String> files) {
+        this.files = files;
+    }
+
+    /**
+     * Digest on the slave directly
+     */
+    @Override
+    public List<String> invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+        final List<FilePath> filePaths = new ArrayList<>(files.size());
+        for (String file : files) {
+            filePaths.add(new FilePath(new File(file)));
+        }
+        return digestAll(filePaths);
+    }
+
+    /**
+     * Digest on the slave, one call per file
+     */
+    @Override
+    public List<String> invoke(FilePath file) throws IOException, InterruptedException {
+        final List<FilePath> filePaths = new ArrayList<>(files.size());
+        for (String remote : files) {
+            filePaths.add(new FilePath(file.getChannel(), remote));
+        }
+        return digestAll(filePaths);
+    }
+
+    /**
+     * @return the MD5 of every file, in their order
+     */
+    private static List<String> digestAll(List<FilePath> filePaths) throws IOException, InterruptedException {
+        final List<CompletableFuture<String>> digests = new ArrayList<>(filePaths.size());
+        for (FilePath filePath : filePaths) {
+            digests.add(CompletableFuture.supplyAsync(() -> {
+                try {
+                    return digest(filePath);
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                } catch (InterruptedException e) {
+                    throw new CompletionException(e);
+                }
+            }, Uploads.getInstance().getExecutor()));
+        }
+
+        final List<String> md5s = new ArrayList<>(digests.size());
+        try {
+            for (CompletableFuture<String> digest : digests) {
+                md5s.add(digest.get());
+            }
+        } catch (ExecutionException e) {
+            final Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            throw new IOException("Failed to digest files: " + cause, cause);
+        } finally {
+            // the remaining files aren't needed once one failed
+            for (CompletableFuture<String> digest : digests) {
+                digest.cancel(false);
+            }
+        }
+        return md5s;
+    }
+
+    /**
+     * Digests a remote file where it is, rather than streaming it here.
+     */
+    private static String digest(FilePath filePath) throws IOException, InterruptedException {
+        if (filePath.isRemote()) {
+            return filePath.digest();
+        }
+        return DigestCache.digest(new File(filePath.getRemote()));
+    }
+
+    @Override
+    public void checkRoles(RoleChecker checker) throws SecurityException {
+        checker.check(this, Roles.SLAVE);
+    }
+}
@@ -1,13 +1,20 @@
 package hudson.plugins.s3.callable;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.plugins.s3.ClientCache;
 import hudson.plugins.s3.Uploads;
 import software.amazon.awssdk.core.internal.util.Mimetype;
 import hudson.FilePath;
 import hudson.ProxyConfiguration;
+import hudson.plugins.s3.BandwidthLimit;
 import hudson.plugins.s3.Destination;
+import hudson.plugins.s3.PrefixLimiter;
+import hudson.plugins.s3.TransferStats;
+import hudson.plugins.s3.TransferTuning;
 import hudson.remoting.VirtualChannel;
 import hudson.util.Secret;
 import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
 
 import java.io.File;
 import java.io.IOException;
@@ -15,11 +22,17 @@ import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.function.Consumer;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
-public abstract class S3BaseUploadCallable extends S3Callable<String> {
+public abstract class S3BaseUploadCallable extends S3Callable<CompletableFuture<String>> {
     private static final long serialVersionUID = 1L;
-    private final Destination dest;
+    private static final Logger LOGGER = Logger.getLogger(S3BaseUploadCallable.class.getName());
+    private Destination dest;
     private final String storageClass;
     private final Map<String, String> userMetadata;
     private final boolean useServerSideEncryption;
@@ -27,8 +40,8 @@ public abstract class S3BaseUploadCallable extends S3Callable<String> {
 
     public S3BaseUploadCallable(String accessKey, Secret secretKey, boolean useRole,
                                 Destination dest, Map<String, String> userMetadata, String storageClass, String selregion,
-                                boolean useServerSideEncryption, ProxyConfiguration proxy) {
-        super(accessKey, secretKey, useRole, selregion, proxy);
+                                boolean useServerSideEncryption, ProxyConfiguration proxy, TransferTuning tuning, BandwidthLimit bandwidth) {
+        super(accessKey, secretKey, useRole, selregion, proxy, tuning, bandwidth);
         this.dest = dest;
         this.storageClass = storageClass;
         this.userMetadata = userMetadata;
@@ -39,18 +52,97 @@ public abstract class S3BaseUploadCallable extends S3Callable<String> {
      * Upload from slave directly
      */
     @Override
-    public String invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
+    public CompletableFuture<String> invoke(File file, VirtualChannel channel) throws IOException, InterruptedException {
         return invoke(new FilePath(file));
     }
 
     /**
-     * Stream from slave to master, then upload from master
+     * Stream from slave to master, then upload from master.
+     * The upload runs in a session of its own, see {@link #start(Uploads.Session, FilePath)}.
      */
-    public abstract String invoke(FilePath file) throws IOException, InterruptedException;
+    public CompletableFuture<String> invoke(FilePath file) throws IOException, InterruptedException {
+        final Uploads.Session session = Uploads.getInstance().openSession(UUID.randomUUID().toString());
+        try {
+            return start(session, file).whenComplete((md5, failure) -> session.close());
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            session.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts uploading the file within the given session.
+     * The transfer manager, with the part size for the file, stays leased until the upload has finished.
+     * Resumable uploads are reported to the tuner when auto-tuning.
+     *
+     * @return completes with the MD5 of the uploaded content once the upload has finished,
+     * the digest is computed while the content streams through
+     */
+    public CompletableFuture<String> start(Uploads.Session session, FilePath file) throws IOException, InterruptedException {
+        return startRecorded(session, file, null);
+    }
 
-    protected Uploads.Metadata buildMetadata(FilePath filePath) throws IOException, InterruptedException {
+    /**
+     * Starts uploading the file within the given session, and records it in the stats once it was uploaded,
+     * along with the throttling of its requests.
+     */
+    public CompletableFuture<String> startRecorded(Uploads.Session session, FilePath file, @CheckForNull TransferStats stats) throws IOException, InterruptedException {
+        final TransferTuning tuning = getTuning();
+        final long length = file.length();
+        // resumable uploads pick their part size per request, the client's is the configured one
+        final boolean resumable = uploadsResumably(file, length);
+        final ClientCache.Lease<TransferClients> lease = leaseTransferManager(resumable ? tuning.getPartSize() : tuning.partSizeFor(length));
+        final long started = System.nanoTime();
+        try {
+            return start(session, file, lease.get(), stats).whenComplete((md5, failure) -> {
+                lease.close();
+                if (failure == null && stats != null) {
+                    stats.recordFile(length, System.nanoTime() - started);
+                }
+                if (failure == null && resumable && tuning.isAutoTune()) {
+                    getTuner().record(length, started, System.nanoTime());
+                }
+            });
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            lease.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @param stats counts the throttling of the requests, see {@link #buildMetadata}
+     */
+    protected abstract CompletableFuture<String> start(Uploads.Session session, FilePath file, TransferClients clients, @CheckForNull TransferStats stats)
+            throws IOException, InterruptedException;
+
+    /**
+     * @return whether the file is uploaded in parts which survive a failure, the tuner gates and measures those parts
+     */
+    protected boolean uploadsResumably(FilePath file, long length) {
+        return false;
+    }
+
+    /**
+     * Starts a transfer which holds a permit of the {@link PrefixLimiter} of the destination until it has finished.
+     * Transfers which send their requests themselves take a permit per request instead.
+     */
+    protected <T> CompletableFuture<T> limited(TransferStart<T> transfer) throws IOException, InterruptedException {
+        final PrefixLimiter.Permit permit = PrefixLimiter.forObject(dest.bucketName, dest.objectName).acquireInterruptibly();
+        try {
+            return transfer.start().whenComplete((result, failure) -> permit.release(failure));
+        } catch (IOException | InterruptedException | RuntimeException e) {
+            permit.release(e);
+            throw e;
+        }
+    }
+
+    /**
+     * @param stats counts the throttling of the requests sent for the object, {@code null} if nothing counts them
+     */
+    protected Uploads.Metadata buildMetadata(FilePath filePath, @CheckForNull TransferStats stats) throws IOException, InterruptedException {
         long contentLength = filePath.length();
         Consumer<PutObjectRequest.Builder> builder = metadata -> {
+            PrefixLimiter.countThrottles(metadata, stats);
             metadata.contentType(Mimetype.getInstance().getMimetype(new File(filePath.getName())));
             metadata.contentLength(contentLength);
             if (storageClass != null && !storageClass.isEmpty()) {
@@ -93,4 +185,47 @@ public abstract class S3BaseUploadCallable extends S3Callable<String> {
     public Destination getDest() {
         return dest;
     }
+
+    /**
+     * Retargets the upload, for content stored by its digest, which is only known once the file has been read.
+     */
+    void setDest(Destination dest) {
+        this.dest = dest;
+    }
+
+    /**
+     * Looks up whether the bucket has an object at the destination already, without waiting for the answer.
+     *
+     * @return {@code false} when that can't be told, so the file is uploaded
+     */
+    CompletableFuture<Boolean> lookUp() {
+        final Destination dest = this.dest;
+        final ClientCache.Lease<TransferClients> lease = leaseTransferManager();
+        final CompletableFuture<Boolean> found;
+        try {
+            found = lease.get().client.headObject(request -> request.bucket(dest.bucketName).key(dest.objectName))
+                    .handle((response, error) -> {
+                        if (error == null) {
+                            return true;
+                        }
+                        final Throwable cause = error instanceof CompletionException ? error.getCause() : error;
+                        if (!(cause instanceof S3Exception)) {
+                            throw new CompletionException(cause);
+                        }
+                        if (((S3Exception) cause).statusCode() != 404) {
+                            LOGGER.log(Level.FINE, "Failed to look up " + dest, cause);
+                        }
+                        return false;
+                    });
+        } catch (RuntimeException e) {
+            lease.close();
+            throw e;
+        }
+        return found.whenComplete((exists, error) -> lease.close());
+    }
+
+    @FunctionalInterface
+    protected interface TransferStart<T> {
+        CompletableFuture<T> start() throws IOException, InterruptedException;
+    }
 }
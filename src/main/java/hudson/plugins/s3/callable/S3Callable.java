@@ -2,8 +2,12 @@ package hudson.plugins.s3.callable;
 
 import hudson.FilePath.FileCallable;
 import hudson.ProxyConfiguration;
+import hudson.plugins.s3.BandwidthLimit;
+import hudson.plugins.s3.ClientCache;
 import hudson.plugins.s3.ClientHelper;
-import hudson.plugins.s3.Uploads;
+import hudson.plugins.s3.ClientKey;
+import hudson.plugins.s3.TransferTuner;
+import hudson.plugins.s3.TransferTuning;
 import hudson.util.Secret;
 import jenkins.security.Roles;
 import org.jenkinsci.remoting.RoleChecker;
@@ -12,7 +16,7 @@ import software.amazon.awssdk.transfer.s3.S3TransferManager;
 
 import java.net.URI;
 import java.net.URISyntaxException;
-import java.util.HashMap;
+import java.util.concurrent.TimeUnit;
 
 import static org.apache.commons.lang.StringUtils.isNotEmpty;
 
@@ -25,37 +29,80 @@ abstract class S3Callable<T> implements FileCallable<T> {
     private final String region;
     private final ProxyConfiguration proxy;
     private final String customEndpoint;
+    private final TransferTuning tuning;
+    private final BandwidthLimit bandwidth;
 
-    private static final HashMap<String, S3TransferManager> transferManagers = new HashMap<>();
+    /**
+     * Transfer managers shared by the callables running in this JVM, on the master as well as on slaves.
+     * Evicted managers are closed with their clients, which releases their event loops and connections.
+     */
+    private static final ClientCache<ClientKey, TransferClients> transferManagers = new ClientCache<>(
+            Integer.getInteger(S3Callable.class.getName() + ".maxTransferManagers", 8),
+            Long.getLong(S3Callable.class.getName() + ".transferManagerIdleSeconds", 300), TimeUnit.SECONDS);
 
-    S3Callable(String accessKey, Secret secretKey, boolean useRole, String region, ProxyConfiguration proxy) {
+    S3Callable(String accessKey, Secret secretKey, boolean useRole, String region, ProxyConfiguration proxy, TransferTuning tuning, BandwidthLimit bandwidth) {
         this.accessKey = accessKey;
         this.secretKey = secretKey;
         this.useRole = useRole;
         this.region = region;
         this.proxy = proxy;
         this.customEndpoint = ClientHelper.ENDPOINT;
+        this.tuning = tuning != null ? tuning : TransferTuning.DEFAULT;
+        this.bandwidth = bandwidth != null ? bandwidth : BandwidthLimit.NONE;
     }
 
-    protected synchronized S3TransferManager getTransferManager() {
-        final String uniqueKey = getUniqueKey();
-        if (transferManagers.get(uniqueKey) == null) {
-            try {
-                final S3AsyncClient client = ClientHelper.createAsyncClient(
-                        accessKey,
-                        Secret.toString(secretKey),
-                        useRole,
-                        region,
-                        proxy,
-                        isNotEmpty(customEndpoint) ? new URI(customEndpoint) : null,
-                        (long)Uploads.MULTIPART_UPLOAD_THRESHOLD);
-                transferManagers.put(uniqueKey, S3TransferManager.builder().s3Client(client).build());
-            } catch (URISyntaxException e) {
-                throw new RuntimeException(e);
-            }
-        }
+    protected TransferTuning getTuning() {
+        return tuning;
+    }
+
+    protected BandwidthLimit getBandwidth() {
+        return bandwidth;
+    }
+
+    /**
+     * Leases the transfer manager for this callable's configuration,
+     * the lease has to be released once the transfers using it are done.
+     */
+    protected ClientCache.Lease<TransferClients> leaseTransferManager() {
+        return leaseTransferManager(tuning.getPartSize());
+    }
+
+    /**
+     * Leases a transfer manager sending multipart transfers in parts of at least the given size.
+     * When auto-tuning, its pool has room for the most connections the {@link TransferTuner} may pick,
+     * so a new pick doesn't need another client.
+     */
+    protected ClientCache.Lease<TransferClients> leaseTransferManager(long partSize) {
+        final int connections = tuning.isAutoTune() ? tuning.getConnectionLimit() : tuning.getMaxConnections();
+        final ClientKey key = ClientKey.of(accessKey, secretKey, useRole, region, proxy, customEndpoint,
+                tuning.getMultipartThreshold(), partSize, connections);
+        return transferManagers.lease(key, () -> createTransferManager(partSize, connections));
+    }
 
-        return transferManagers.get(uniqueKey);
+    /**
+     * The tuner of this configuration in this JVM, shared by all part sizes.
+     */
+    protected TransferTuner getTuner() {
+        final ClientKey key = ClientKey.of(accessKey, secretKey, useRole, region, proxy, customEndpoint, tuning);
+        return TransferTuner.forKey(key, tuning.getConnectionLimit());
+    }
+
+    private TransferClients createTransferManager(long partSize, int connections) {
+        try {
+            final S3AsyncClient client = ClientHelper.createAsyncClient(
+                    accessKey,
+                    Secret.toString(secretKey),
+                    useRole,
+                    region,
+                    proxy,
+                    isNotEmpty(customEndpoint) ? new URI(customEndpoint) : null,
+                    tuning.getMultipartThreshold(),
+                    partSize,
+                    connections);
+            return new TransferClients(client, S3TransferManager.builder().s3Client(client).build());
+        } catch (URISyntaxException e) {
+            throw new RuntimeException(e);
+        }
     }
 
     @Override
@@ -63,7 +110,22 @@ abstract class S3Callable<T> implements FileCallable<T> {
         roleChecker.check(this, Roles.SLAVE);
     }
 
-    private String getUniqueKey() {
-        return region + '_' + secretKey + '_' + accessKey + '_' + useRole;
+    /**
+     * A transfer manager with its client, the manager doesn't close a client it was given.
+     */
+    static final class TransferClients implements AutoCloseable {
+        final S3AsyncClient client;
+        final S3TransferManager manager;
+
+        TransferClients(S3AsyncClient client, S3TransferManager manager) {
+            this.client = client;
+            this.manager = manager;
+        }
+
+        @Override
+        public void close() {
+            manager.close();
+            client.close();
+        }
     }
 }
\ No newline at end of file
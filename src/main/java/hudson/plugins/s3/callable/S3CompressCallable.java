@@ -0,0 +1,68 @@
+package hudson.plugins.s3.callable;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.ProxyConfiguration;
+import hudson.plugins.s3.BandwidthLimit;
+import hudson.plugins.s3.Compression;
+import hudson.plugins.s3.Destination;
+import hudson.plugins.s3.MD5;
+import hudson.plugins.s3.TransferStats;
+import hudson.plugins.s3.TransferTuning;
+import hudson.plugins.s3.Uploads;
+import hudson.util.Secret;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.CloseShieldOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+public final class S3CompressCallable extends S3BaseUploadCallable implements MasterSlaveCallable<CompletableFuture<String>> {
+    private static final long serialVersionUID = 1L;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final Compression compression;
+    private final int compressionLevel;
+
+    public S3CompressCallable(String accessKey, Secret secretKey, boolean useRole, Destination dest, Map<String, String> userMetadata, String storageClass, String selregion, boolean useServerSideEncryption, ProxyConfiguration proxy, TransferTuning tuning, BandwidthLimit bandwidth,
+                              Compression compression, int compressionLevel) {
+        super(accessKey, secretKey, useRole, dest, userMetadata, storageClass, selregion, useServerSideEncryption, proxy, tuning, bandwidth);
+        this.compression = compression;
+        this.compressionLevel = compressionLevel;
+    }
+
+    /**
+     * Compresses the file while it is uploaded, nothing is staged in a temporary file.
+     * The compressed length isn't known up front, so the upload is always sent in parts.
+     */
+    @Override
+    protected CompletableFuture<String> start(Uploads.Session session, FilePath file, TransferClients clients, @CheckForNull TransferStats stats)
+            throws IOException, InterruptedException {
+        final Uploads.Metadata metadata = buildMetadata(file, stats);
+        metadata.putMetadata(Compression.METADATA_KEY, compression.getMetadataValue());
+        final String contentEncoding = compression.getContentEncoding();
+        if (contentEncoding != null) {
+            metadata.andThen(meta -> meta.contentEncoding(contentEncoding));
+        }
+        metadata.andThen(meta -> meta.contentLength(null));
+
+        // the digest covers the uncompressed content, which is what a download restores
+        final MessageDigest md5 = MD5.newDigest();
+        final long length = file.length();
+        return limited(() -> session.startStreaming(clients.manager, file.read(),
+                        getDest().bucketName, getDest().objectName, metadata, (source, target) -> compress(source, target, md5, length), getBandwidth()).completionFuture())
+                .thenApply(completed -> MD5.toHex(md5));
+    }
+
+    private void compress(InputStream source, OutputStream target, MessageDigest md5, long length) throws IOException {
+        // closing the codec stream finishes it, the target itself is closed by Uploads
+        try (OutputStream compressed = compression.compress(CloseShieldOutputStream.wrap(target), compressionLevel, length)) {
+            IOUtils.copy(new DigestInputStream(source, md5), compressed, BUFFER_SIZE);
+        }
+    }
+}
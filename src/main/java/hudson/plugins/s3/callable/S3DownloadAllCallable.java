@@ -0,0 +1,202 @@
+package hudson.plugins.s3.callable;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath.FileCallable;
+import hudson.plugins.s3.ArtifactCache;
+import hudson.plugins.s3.DigestCache;
+import hudson.plugins.s3.RangedDownload;
+import hudson.plugins.s3.RetryPolicy;
+import hudson.plugins.s3.TransferStats;
+import hudson.remoting.VirtualChannel;
+import jenkins.security.Roles;
+import org.jenkinsci.remoting.RoleChecker;
+import software.amazon.awssdk.utils.NamedThreadFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Logger;
+
+/**
+ * Downloads all artifacts of a build within a single call, so copying to a slave
+ * costs one remoting round trip instead of one per file.
+ *
+ * Up to {@code maxConcurrentDownloads} files are downloaded at the same time, except for artifacts with the same target,
+ * every file is retried on its own as the {@link RetryPolicy} allows, all files share one retry budget. Targets which already have the expected MD5 are kept as they are
+ * in incremental mode, and artifacts are taken from the node's {@link ArtifactCache} if one is given.
+ * The {@link TransferStats} of the downloads come back by bucket, with the retries and throttling of every file, for the controller's metrics,
+ * a failed call sends those until then with its {@link TransferFailedException}.
+ */
+public final class S3DownloadAllCallable implements FileCallable<TransferResult<List<String>>> {
+    private static final long serialVersionUID = 1L;
+    private static final Logger LOGGER = Logger.getLogger(S3DownloadAllCallable.class.getName());
+
+    /**
+     * How long a failed or interrupted call waits for the other downloads to stop writing their targets.
+     */
+    private static final long STOP_TIMEOUT_SECONDS = Long.getLong(S3DownloadAllCallable.class.getName() + ".stopTimeoutSeconds", 60);
+
+    private final List<String> targets;
+    private final List<S3DownloadCallable> downloads;
+    private final List<String> md5s;
+    private final boolean incremental;
+    private final String cacheDir;
+    private final int maxConcurrentDownloads;
+    private final RetryPolicy retryPolicy;
+
+    /**
+     * @param md5s MD5 recorded for every artifact, {@code null} where there is none
+     * @param incremental keep the targets which already have the recorded MD5
+     * @param cacheDir directory of the node's artifact cache, {@code null} to download everything from S3
+     */
+    public S3DownloadAllCallable(List<String> targets, List<S3DownloadCallable> downloads, List<String> md5s, boolean incremental,
+                                 @CheckForNull String cacheDir, int maxConcurrentDownloads, RetryPolicy retryPolicy) {
+        this.targets = targets;
+        this.downloads = downloads;
+        this.md5s = md5s;
+        this.incremental = incremental;
+        this.cacheDir = cacheDir;
+        this.maxConcurrentDownloads = maxConcurrentDownloads;
+        this.retryPolicy = retryPolicy;
+    }
+
+    /**
+     * @return the MD5 of every downloaded file, in the order of the targets
+     */
+    @Override
+    public TransferResult<List<String>> invoke(File dir, VirtualChannel channel) throws IOException, InterruptedException {
+        final ExecutorService executor = Executors.newFixedThreadPool(Math.max(1, Math.min(maxConcurrentDownloads, downloads.size())),
+                new NamedThreadFactory(Executors.defaultThreadFactory(), S3DownloadAllCallable.class.getName()));
+        final RetryPolicy.Budget budget = retryPolicy.newBudget(downloads.size());
+        final Map<String, TransferStats> stats = new LinkedHashMap<>();
+        try {
+            // flattening can map artifacts of the same name to one target, they are downloaded one after the other
+            // in their order, the last one wins as it did when all files were downloaded one by one
+            final Map<String, List<Integer>> byTarget = new LinkedHashMap<>();
+            for (int i = 0; i < downloads.size(); i++) {
+                byTarget.computeIfAbsent(new File(targets.get(i)).getAbsolutePath(), k -> new ArrayList<>()).add(i);
+                stats.computeIfAbsent(downloads.get(i).getDest().bucketName, k -> new TransferStats());
+            }
+            final List<Future<Void>> groups = new ArrayList<>(byTarget.size());
+            final String[] results = new String[downloads.size()];
+            for (List<Integer> group : byTarget.values()) {
+                groups.add(executor.submit(() -> {
+                    for (int i : group) {
+                        results[i] = fetch(i, budget, stats.get(downloads.get(i).getDest().bucketName));
+                    }
+                    return null;
+                }));
+            }
+
+            try {
+                for (Future<Void> group : groups) {
+                    try {
+                        group.get();
+                    } catch (ExecutionException e) {
+                        final Throwable cause = e.getCause();
+                        if (cause instanceof IOException) {
+                            throw (IOException) cause;
+                        }
+                        throw new IOException(cause);
+                    }
+                }
+            } catch (IOException e) {
+                // the numbers are complete once the other downloads stopped
+                stop(executor);
+                throw new TransferFailedException(e, stats);
+            }
+            return new TransferResult<>(Arrays.asList(results), stats);
+        } finally {
+            // stops the remaining downloads if one of them failed for good, or the call was interrupted
+            stop(executor);
+        }
+    }
+
+    /**
+     * Stops the downloads and waits for them, so neither the caller nor a retried call sees targets or progress files
+     * which are still being written.
+     */
+    private static void stop(ExecutorService executor) {
+        executor.shutdownNow();
+        try {
+            if (!executor.awaitTermination(STOP_TIMEOUT_SECONDS, TimeUnit.SECONDS)) {
+                LOGGER.warning("Downloads didn't stop within " + STOP_TIMEOUT_SECONDS + " seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Brings the i-th target up to date.
+     *
+     * @return the MD5 of the target
+     */
+    private String fetch(int i, RetryPolicy.Budget budget, TransferStats bucketStats)
+            throws IOException, InterruptedException {
+        final File target = new File(targets.get(i));
+        final S3DownloadCallable download = downloads.get(i);
+        final String expectedMd5 = md5s.get(i);
+        // the comparison runs in parallel as well, it has to read files that changed
+        if (incremental && expectedMd5 != null && target.isFile() && expectedMd5.equals(DigestCache.digest(target))) {
+            bucketStats.recordSkipped();
+            return expectedMd5;
+        }
+        final String md5;
+        if (cacheDir != null && expectedMd5 != null) {
+            final boolean[] downloaded = new boolean[1];
+            md5 = ArtifactCache.forDirectory(new File(cacheDir)).materialize(expectedMd5, target, file -> {
+                downloaded[0] = true;
+                return download(download, file, budget, bucketStats);
+            });
+            if (!downloaded[0]) {
+                bucketStats.recordSkipped();
+            }
+        } else {
+            md5 = download(download, target, budget, bucketStats);
+        }
+        DigestCache.put(target, md5);
+        return md5;
+    }
+
+    /**
+     * Downloads the artifact, the retries and throttling it took are counted with its bucket.
+     */
+    private String download(S3DownloadCallable download, File target, RetryPolicy.Budget budget, TransferStats stats)
+            throws IOException, InterruptedException {
+        final long started = System.nanoTime();
+        final AtomicInteger attempts = new AtomicInteger();
+        // a large object continues with the ranges downloaded before, see RangedDownload
+        final String md5;
+        try {
+            md5 = retryPolicy.call(budget, download.getDest(), () -> {
+                attempts.incrementAndGet();
+                return download.download(target, stats);
+            });
+        } catch (IOException e) {
+            // failed for good, no later attempt picks up the ranges
+            Files.deleteIfExists(RangedDownload.progressFileOf(target).toPath());
+            throw e;
+        } finally {
+            stats.addRetries(Math.max(0, attempts.get() - 1));
+        }
+        stats.recordFile(target.length(), System.nanoTime() - started);
+        return md5;
+    }
+
+    @Override
+    public void checkRoles(RoleChecker checker) throws SecurityException {
+        checker.check(this, Roles.SLAVE);
+    }
+}
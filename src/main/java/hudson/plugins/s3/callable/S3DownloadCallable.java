@@ -1,38 +1,134 @@
 package hudson.plugins.s3.callable;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.ProxyConfiguration;
+import hudson.plugins.s3.BandwidthLimit;
+import hudson.plugins.s3.ClientCache;
+import hudson.plugins.s3.Compression;
 import hudson.plugins.s3.Destination;
 import hudson.plugins.s3.MD5;
+import hudson.plugins.s3.PrefixLimiter;
+import hudson.plugins.s3.RangedDownload;
+import hudson.plugins.s3.TransferStats;
+import hudson.plugins.s3.TransferTuning;
 import hudson.remoting.VirtualChannel;
 import hudson.util.Secret;
-import software.amazon.awssdk.transfer.s3.model.DownloadFileRequest;
-import software.amazon.awssdk.transfer.s3.model.FileDownload;
+import org.apache.commons.io.IOUtils;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.transfer.s3.model.Download;
+import software.amazon.awssdk.transfer.s3.model.DownloadRequest;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 
+/**
+ * Downloads an object to a file on the node and returns its MD5.
+ *
+ * The object is requested as a whole, holding a permit of the {@link PrefixLimiter} of the object's prefix.
+ * Once its response tells the object is above the profile's multipart threshold and stored uncompressed, the rest of it
+ * is fetched as parallel byte ranges, see {@link RangedDownload}, everything else is streamed and decompressed on the way.
+ */
 public final class S3DownloadCallable extends S3Callable<String>
 {
     private static final long serialVersionUID = 1L;
     private final Destination dest;
     
-    public S3DownloadCallable(String accessKey, Secret secretKey, boolean useRole, Destination dest, String region, ProxyConfiguration proxy)
+    public S3DownloadCallable(String accessKey, Secret secretKey, boolean useRole, Destination dest, String region, ProxyConfiguration proxy, TransferTuning tuning, BandwidthLimit bandwidth)
     {
-        super(accessKey, secretKey, useRole, region, proxy);
+        super(accessKey, secretKey, useRole, region, proxy, tuning, bandwidth);
         this.dest = dest;
     }
 
     @Override
     public String invoke(File file, VirtualChannel channel) throws IOException, InterruptedException
     {
-        final DownloadFileRequest req = DownloadFileRequest.builder()
-                .getObjectRequest(builder -> builder.bucket(dest.bucketName).key(dest.objectName))
-                .destination(file).build();
-        FileDownload download = getTransferManager().downloadFile(req);
+        return download(file, null);
+    }
+
+    /**
+     * @param stats counts the throttling of the requests, {@code null} if nothing counts them
+     * @return the MD5 of the downloaded file
+     */
+    public String download(File file, @CheckForNull TransferStats stats) throws IOException, InterruptedException
+    {
+        final File parent = file.getParentFile();
+        if (parent != null) {
+            Files.createDirectories(parent.toPath());
+        }
+
+        try (ClientCache.Lease<TransferClients> lease = leaseTransferManager()) {
+            final PrefixLimiter.Permit permit = PrefixLimiter.forObject(dest.bucketName, dest.objectName).acquireInterruptibly();
+            final ResponseInputStream<GetObjectResponse> response;
+            try {
+                response = get(lease.get(), stats);
+            } catch (RuntimeException e) {
+                permit.release(e);
+                throw e;
+            }
+
+            final long length = RangedDownload.objectSize(response.response());
+            if (length > getTuning().getMultipartThreshold() && response.response().metadata().get(Compression.METADATA_KEY) == null) {
+                final S3AsyncClient client = lease.get().client;
+                RangedDownload.download(client, dest.bucketName, dest.objectName, response, permit, getTuning().partSizeFor(length), file, getBandwidth(), stats);
+                // ranges arrive in any order, the file is read once more for its MD5
+                return MD5.generateFromFile(file);
+            }
+            try {
+                final String md5 = stream(response, file);
+                permit.release(null);
+                return md5;
+            } catch (IOException | RuntimeException e) {
+                permit.release(e);
+                throw e;
+            }
+        }
+    }
 
-        download.completionFuture().join();
+    /**
+     * @return the object, once its response arrived
+     */
+    private ResponseInputStream<GetObjectResponse> get(TransferClients clients, @CheckForNull TransferStats stats) {
+        final DownloadRequest<ResponseInputStream<GetObjectResponse>> req = DownloadRequest.builder()
+                .getObjectRequest(builder -> PrefixLimiter.countThrottles(builder.bucket(dest.bucketName).key(dest.objectName), stats))
+                .responseTransformer(AsyncResponseTransformer.toBlockingInputStream())
+                .build();
+        final Download<ResponseInputStream<GetObjectResponse>> download = clients.manager.download(req);
+        return download.completionFuture().join().result();
+    }
+
+    private String stream(ResponseInputStream<GetObjectResponse> response, File file) throws IOException {
+        // digest the content while it is written, instead of reading the file again afterwards
+        final MessageDigest md5 = MD5.newDigest();
+        try (ResponseInputStream<GetObjectResponse> object = response;
+             InputStream inputStream = new DigestInputStream(decompress(object, getBandwidth()), md5);
+             OutputStream outputStream = new FileOutputStream(file)) {
+            IOUtils.copy(inputStream, outputStream);
+        }
+
+        return MD5.toHex(md5);
+    }
+
+    public Destination getDest() {
+        return dest;
+    }
 
-        return MD5.generateFromFile(file);
+    /**
+     * Objects uploaded with a codec are restored to their original content,
+     * older gzip objects carry no codec and are stored as they are.
+     * The bandwidth limit applies to the content as received.
+     */
+    private static InputStream decompress(ResponseInputStream<GetObjectResponse> response, BandwidthLimit bandwidth) throws IOException {
+        final String codec = response.response().metadata().get(Compression.METADATA_KEY);
+        return Compression.fromMetadata(codec).decompress(bandwidth.limit(response));
     }
 
 }
@@ -0,0 +1,279 @@
+package hudson.plugins.s3.callable;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.FilePath;
+import hudson.plugins.s3.Destination;
+import hudson.plugins.s3.ETag;
+import hudson.plugins.s3.FingerprintRecord;
+import hudson.plugins.s3.RetryPolicy;
+import hudson.plugins.s3.TransferStats;
+import hudson.plugins.s3.Uploads;
+import hudson.remoting.VirtualChannel;
+import jenkins.security.Roles;
+import org.jenkinsci.remoting.RoleChecker;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Uploads all files of an entry within a single call, so publishing from a slave
+ * costs one remoting round trip instead of several per file.
+ *
+ * The credentials are shared by all per-file callables, so they are only
+ * serialized once together with this callable.
+ *
+ * Files whose content is already in the bucket, according to the ETags of the
+ * {@code existing} objects, are not uploaded again.
+ *
+ * A failed upload is started again as the {@link RetryPolicy} allows, all files share one retry budget.
+ * Failures to start an upload and failures of the running upload count as attempts of the same file.
+ * Large local files continue with the parts S3 received already.
+ *
+ * Content addressed files are stored under their MD5, see {@link Destination#contentKey(String)},
+ * and only uploaded if no build stored the same content before. Their MD5s are computed by a {@link DigestAllCallable}
+ * beforehand, so the controller refers to the content before it is looked up, and can't delete it in between.
+ * The look-ups run ahead of the uploads, up to {@code maxConcurrentUploads} at a time.
+ *
+ * The fingerprints come back with the {@link TransferStats} of the uploads, for the controller's metrics.
+ * A failed call sends the numbers of the uploads until then with its {@link TransferFailedException}.
+ */
+public final class S3UploadAllCallable implements MasterSlaveCallable<TransferResult<List<FingerprintRecord>>> {
+    private static final long serialVersionUID = 1L;
+
+    private final String sessionId;
+    private final String bucketName;
+    private final String region;
+    private final List<String> files;
+    private final List<String> fileNames;
+    private final List<S3BaseUploadCallable> uploads;
+    private final boolean managedArtifacts;
+    private final long buildStartTime;
+    private final int maxConcurrentUploads;
+    private final RetryPolicy retryPolicy;
+    private final Map<String, ExistingObject> existing;
+    @CheckForNull
+    private final List<String> md5s;
+
+    /**
+     * @param existing objects in the bucket by key, to skip uploading identical files, {@code null} to upload everything
+     * @param md5s MD5 of every file to store the files by their content instead of at the destinations of the uploads,
+     *             {@code null} to upload them to their destinations
+     */
+    public S3UploadAllCallable(String sessionId, String bucketName, String region, List<String> files, List<String> fileNames,
+                               List<S3BaseUploadCallable> uploads, boolean managedArtifacts, long buildStartTime,
+                               int maxConcurrentUploads, RetryPolicy retryPolicy, @CheckForNull Map<String, ExistingObject> existing,
+                               @CheckForNull List<String> md5s) {
+        this.sessionId = sessionId;
+        this.bucketName = bucketName;
+        this.region = region;
+        this.files = files;
+        this.fileNames = fileNames;
+        this.uploads = uploads;
+        this.managedArtifacts = managedArtifacts;
+        this.buildStartTime = buildStartTime;
+        this.maxConcurrentUploads = maxConcurrentUploads;
+        this.retryPolicy = retryPolicy;
+        this.existing = existing;
+        this.md5s = md5s;
+    }
+
+    /**
+     * Upload from slave directly
+     */
+    @Override
+    public TransferResult<List<FingerprintRecord>> invoke(File f, VirtualChannel channel) throws IOException, InterruptedException {
+        final List<FilePath> filePaths = new ArrayList<>(files.size());
+        for (String file : files) {
+            filePaths.add(new FilePath(new File(file)));
+        }
+        return uploadAll(filePaths);
+    }
+
+    /**
+     * Stream from slave to master, then upload from master
+     */
+    @Override
+    public TransferResult<List<FingerprintRecord>> invoke(FilePath file) throws IOException, InterruptedException {
+        final List<FilePath> filePaths = new ArrayList<>(files.size());
+        for (String remote : files) {
+            filePaths.add(new FilePath(file.getChannel(), remote));
+        }
+        return uploadAll(filePaths);
+    }
+
+    private TransferResult<List<FingerprintRecord>> uploadAll(List<FilePath> filePaths) throws IOException, InterruptedException {
+        final RetryPolicy.Budget budget = retryPolicy.newBudget(filePaths.size());
+        final TransferStats stats = new TransferStats();
+        final List<FingerprintRecord> fingerprints;
+        try {
+            fingerprints = uploadAll(filePaths, budget, stats);
+        } catch (IOException e) {
+            throw new TransferFailedException(e, statsOf(budget, stats));
+        }
+        return new TransferResult<>(fingerprints, statsOf(budget, stats));
+    }
+
+    private List<FingerprintRecord> uploadAll(List<FilePath> filePaths, RetryPolicy.Budget budget, TransferStats stats)
+            throws IOException, InterruptedException {
+        final boolean[] produced = new boolean[filePaths.size()];
+        final String[] contentKeys = new String[filePaths.size()];
+        final List<CompletableFuture<String>> digests = new ArrayList<>(filePaths.size());
+        final List<CompletableFuture<Boolean>> lookUps = new ArrayList<>();
+        final String[] results = new String[filePaths.size()];
+        final List<AtomicInteger> attempts = new ArrayList<>(filePaths.size());
+
+        try (Uploads.Session session = Uploads.getInstance().openSession(sessionId)) {
+            // index of the oldest upload which might still be in flight
+            int waited = 0;
+            for (int i = 0; i < filePaths.size(); i++) {
+                final FilePath filePath = filePaths.get(i);
+                produced[i] = managedArtifacts && buildStartTime <= filePath.lastModified() + 2000;
+                final S3BaseUploadCallable upload = uploads.get(i);
+                attempts.add(new AtomicInteger());
+                final String unchanged;
+                if (md5s != null) {
+                    while (lookUps.size() < Math.min(filePaths.size(), i + maxConcurrentUploads)) {
+                        final int next = lookUps.size();
+                        contentKeys[next] = Destination.contentKey(md5s.get(next));
+                        uploads.get(next).setDest(new Destination(bucketName, contentKeys[next]));
+                        lookUps.add(uploads.get(next).lookUp());
+                    }
+                    unchanged = lookUps.get(i).join() ? md5s.get(i) : null;
+                } else {
+                    unchanged = unchangedDigest(upload, filePath);
+                }
+                if (unchanged != null) {
+                    stats.recordSkipped();
+                    digests.add(CompletableFuture.completedFuture(unchanged));
+                } else {
+                    digests.add(start(session, upload, filePath, budget, stats, attempts.get(i)));
+                }
+
+                // keep at most 'maxConcurrentUploads' files (and their open streams) in flight
+                if (i + 1 - waited >= maxConcurrentUploads) {
+                    results[waited] = await(session, uploads.get(waited), filePaths.get(waited), digests.get(waited), budget, stats,
+                            attempts.get(waited));
+                    waited++;
+                }
+            }
+
+            // the digest of an upload is complete once it has finished
+            for (; waited < filePaths.size(); waited++) {
+                results[waited] = await(session, uploads.get(waited), filePaths.get(waited), digests.get(waited), budget, stats,
+                        attempts.get(waited));
+            }
+        } catch (CompletionException | CancellationException e) {
+            throw new IOException("Upload failed: " + e, e);
+        }
+
+        final List<FingerprintRecord> fingerprints = new ArrayList<>(filePaths.size());
+        for (int i = 0; i < filePaths.size(); i++) {
+            fingerprints.add(new FingerprintRecord(produced[i], bucketName, fileNames.get(i), region, results[i], contentKeys[i]));
+        }
+        return fingerprints;
+    }
+
+    /**
+     * @return the numbers of the uploads so far, also of those which failed
+     */
+    private Map<String, TransferStats> statsOf(RetryPolicy.Budget budget, TransferStats stats) {
+        stats.addRetries(budget.getUsed());
+        // all files go to the same bucket
+        return uploads.isEmpty() ? Collections.emptyMap() : Collections.singletonMap(uploads.get(0).getDest().bucketName, stats);
+    }
+
+    /**
+     * @return the MD5 of the file if the bucket has the same content already, {@code null} if it has to be uploaded
+     */
+    private String unchangedDigest(S3BaseUploadCallable upload, FilePath filePath) throws IOException, InterruptedException {
+        final ExistingObject object = existing != null ? existing.get(upload.getDest().objectName) : null;
+        if (object == null) {
+            return null;
+        }
+        // only files of the same size are read
+        final long length = filePath.length();
+        if (length != object.size) {
+            return null;
+        }
+        try (InputStream inputStream = filePath.read()) {
+            final ETag eTag = ETag.compute(inputStream, length, upload.getTuning());
+            return eTag.getETag().equals(object.eTag) ? eTag.getMD5() : null;
+        }
+    }
+
+    /**
+     * Waits for the upload of the file, and uploads it again if it failed and the retry policy allows.
+     * Large local files continue where the failed upload stopped, see {@link Uploads.Session#startResumable}.
+     */
+    private String await(Uploads.Session session, S3BaseUploadCallable upload, FilePath filePath, CompletableFuture<String> digest,
+                         RetryPolicy.Budget budget, TransferStats stats, AtomicInteger attempts) throws IOException, InterruptedException {
+        while (true) {
+            try {
+                return digest.join();
+            } catch (CancellationException e) {
+                throw new IOException("Upload cancelled for " + upload.getDest(), e);
+            } catch (CompletionException e) {
+                retryAfter(e, upload, budget, attempts);
+                digest = start(session, upload, filePath, budget, stats, attempts);
+            }
+        }
+    }
+
+    private CompletableFuture<String> start(Uploads.Session session, S3BaseUploadCallable upload, FilePath filePath,
+                                            RetryPolicy.Budget budget, TransferStats stats, AtomicInteger attempts) throws IOException, InterruptedException {
+        while (true) {
+            try {
+                return upload.startRecorded(session, filePath, stats);
+            } catch (IOException | RuntimeException e) {
+                retryAfter(e, upload, budget, attempts);
+            }
+        }
+    }
+
+    /**
+     * Counts the failed attempt of the file, and waits before the next one if the retry policy allows it.
+     */
+    private void retryAfter(Exception failure, S3BaseUploadCallable upload, RetryPolicy.Budget budget, AtomicInteger attempts)
+            throws IOException, InterruptedException {
+        final int attempt = attempts.incrementAndGet();
+        final long delay = retryPolicy.delayAfter(failure, attempt, budget);
+        if (delay < 0) {
+            final Throwable cause = failure instanceof CompletionException && failure.getCause() != null ? failure.getCause() : failure;
+            throw new IOException("Upload failed for " + upload.getDest() + ": " + cause + ":: Failed after " + attempt + " tries.", failure);
+        }
+        Thread.sleep(delay);
+    }
+
+    @Override
+    public void checkRoles(RoleChecker checker) throws SecurityException {
+        checker.check(this, Roles.SLAVE);
+    }
+
+    /**
+     * An object as listed in the bucket.
+     */
+    public static final class ExistingObject implements Serializable {
+        private static final long serialVersionUID = 1L;
+
+        private final long size;
+        private final String eTag;
+
+        /**
+         * @param eTag without quotes
+         */
+        public ExistingObject(long size, String eTag) {
+            this.size = size;
+            this.eTag = eTag;
+        }
+    }
+}
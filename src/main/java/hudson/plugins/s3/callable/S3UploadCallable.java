@@ -1,31 +1,111 @@
 package hudson.plugins.s3.callable;
 
+import edu.umd.cs.findbugs.annotations.CheckForNull;
 import hudson.FilePath;
 import hudson.ProxyConfiguration;
+import hudson.plugins.s3.BandwidthLimit;
 import hudson.plugins.s3.Destination;
+import hudson.plugins.s3.DigestCache;
 import hudson.plugins.s3.MD5;
+import hudson.plugins.s3.TransferStats;
+import hudson.plugins.s3.TransferTuning;
 import hudson.plugins.s3.Uploads;
 import hudson.util.Secret;
 
+import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
 
-public final class S3UploadCallable extends S3BaseUploadCallable implements MasterSlaveCallable<String> {
+public final class S3UploadCallable extends S3BaseUploadCallable implements MasterSlaveCallable<CompletableFuture<String>> {
     private static final long serialVersionUID = 1L;
 
-    public S3UploadCallable(String accessKey, Secret secretKey, boolean useRole, Destination dest, Map<String, String> userMetadata, String storageClass, String selregion, boolean useServerSideEncryption, ProxyConfiguration proxy) {
-        super(accessKey, secretKey, useRole, dest, userMetadata, storageClass, selregion, useServerSideEncryption, proxy);
+    public S3UploadCallable(String accessKey, Secret secretKey, boolean useRole, Destination dest, Map<String, String> userMetadata, String storageClass, String selregion, boolean useServerSideEncryption, ProxyConfiguration proxy, TransferTuning tuning, BandwidthLimit bandwidth) {
+        super(accessKey, secretKey, useRole, dest, userMetadata, storageClass, selregion, useServerSideEncryption, proxy, tuning, bandwidth);
     }
 
     /**
-     * Stream from slave to master, then upload from master
+     * Local files larger than the multipart threshold are uploaded resumably, a retry continues where a failed upload stopped.
      */
     @Override
-    public String invoke(FilePath file) throws IOException, InterruptedException {
-        Uploads.Metadata metadata = buildMetadata(file);
+    protected CompletableFuture<String> start(Uploads.Session session, FilePath file, TransferClients clients, @CheckForNull TransferStats stats)
+            throws IOException, InterruptedException {
+        Uploads.Metadata metadata = buildMetadata(file, stats);
 
-        Uploads.getInstance().startUploading(getTransferManager(), file, file.read(), getDest().bucketName, getDest().objectName, metadata, null);
+        if (!file.isRemote()) {
+            final Path path = Paths.get(file.getRemote());
+            final long length = metadata.getContentLength();
+            if (uploadsResumably(file, length)) {
+                return startResumable(session, clients, path, metadata, length);
+            }
+            // the digest is fed by the body as the SDK reads the file, it is the one of the bytes sent
+            final File f = path.toFile();
+            final long lastModified = f.lastModified();
+            final MessageDigest md5 = MD5.newDigest();
+            return limited(() -> session.startUploading(clients.manager, path, getDest().bucketName, getDest().objectName, metadata, null, getBandwidth(), md5).completionFuture())
+                    .thenApply(completed -> {
+                        final String digest = MD5.toHex(md5);
+                        if (f.length() == length && f.lastModified() == lastModified) {
+                            remember(f, digest);
+                        }
+                        return digest;
+                    });
+        }
 
-        return MD5.generateFromFile(file);
+        final MessageDigest md5 = MD5.newDigest();
+        final InputStream inputStream = new DigestInputStream(file.read(), md5);
+        return limited(() -> session.startUploading(clients.manager, inputStream, getDest().bucketName, getDest().objectName, metadata, null, getBandwidth()).completionFuture())
+                .thenApply(completed -> MD5.toHex(md5));
+    }
+
+    @Override
+    protected boolean uploadsResumably(FilePath file, long length) {
+        return !file.isRemote() && length > getTuning().getMultipartThreshold();
+    }
+
+    /**
+     * The digest is taken from the parts as they are sent, like for smaller files. Parts S3 received in an earlier attempt
+     * aren't sent again though, a resumed upload reads the file once it completed, or not at all if the {@link DigestCache} knows it.
+     * Either way the digest is only taken if the file didn't change until the upload completed.
+     */
+    private CompletableFuture<String> startResumable(Uploads.Session session, TransferClients clients, Path path, Uploads.Metadata metadata, long length) {
+        final File f = path.toFile();
+        final long lastModified = f.lastModified();
+        return session.startResumable(clients.client, path, getDest().bucketName, getDest().objectName, metadata,
+                        getTuning().partSizeFor(length), getBandwidth(), getTuning().isAutoTune() ? getTuner() : null, true)
+                .thenCompose(sent -> sent != null ? CompletableFuture.completedFuture(sent)
+                        : CompletableFuture.supplyAsync(() -> digest(f), Uploads.getInstance().getExecutor()))
+                .thenApply(digest -> {
+                    if (f.length() != length || f.lastModified() != lastModified) {
+                        throw new UncheckedIOException(new IOException(f + " changed while it was uploaded to " + getDest()));
+                    }
+                    remember(f, digest);
+                    return digest;
+                });
+    }
+
+    private static String digest(File file) {
+        try {
+            return DigestCache.digest(file);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Records the digest of a file which didn't change while it was sent, so skipping unchanged files doesn't read it again.
+     */
+    private static void remember(File file, String md5) {
+        try {
+            DigestCache.put(file, md5);
+        } catch (IOException e) {
+            // only a later upload of the file reads it again
+        }
     }
 }
\ No newline at end of file
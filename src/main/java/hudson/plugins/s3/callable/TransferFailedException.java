@@ -0,0 +1,45 @@
+package hudson.plugins.s3.callable;
+
+import edu.umd.cs.findbugs.annotations.CheckForNull;
+import hudson.plugins.s3.TransferStats;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A call failed, with the numbers by bucket of the transfers it made until then.
+ */
+public final class TransferFailedException extends IOException {
+    private static final long serialVersionUID = 1L;
+
+    private final Map<String, TransferStats> stats = new LinkedHashMap<>();
+
+    public TransferFailedException(IOException cause, Map<String, TransferStats> stats) {
+        super(cause.getMessage(), cause);
+        // copied, transfers of the call may still be finishing
+        for (Map.Entry<String, TransferStats> entry : stats.entrySet()) {
+            final TransferStats copy = new TransferStats();
+            copy.add(entry.getValue());
+            this.stats.put(entry.getKey(), copy);
+        }
+    }
+
+    public Map<String, TransferStats> getStats() {
+        return stats;
+    }
+
+    /**
+     * @return the numbers of the failed call, {@code null} if the failure doesn't come with them
+     */
+    @CheckForNull
+    public static Map<String, TransferStats> statsOf(Throwable failure) {
+        // remoting may wrap the exception of the node
+        for (Throwable t = failure; t != null; t = t.getCause()) {
+            if (t instanceof TransferFailedException) {
+                return ((TransferFailedException) t).getStats();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,29 @@
+package hudson.plugins.s3.callable;
+
+import hudson.plugins.s3.TransferStats;
+
+import java.io.Serializable;
+import java.util.Map;
+
+/**
+ * Result of the transfers of one call, with their numbers by bucket.
+ */
+public final class TransferResult<T> implements Serializable {
+    private static final long serialVersionUID = 1L;
+
+    private final T value;
+    private final Map<String, TransferStats> stats;
+
+    public TransferResult(T value, Map<String, TransferStats> stats) {
+        this.value = value;
+        this.stats = stats;
+    }
+
+    public T getValue() {
+        return value;
+    }
+
+    public Map<String, TransferStats> getStats() {
+        return stats;
+    }
+}
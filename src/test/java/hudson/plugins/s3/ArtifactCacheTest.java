@@ -0,0 +1,104 @@
+package hudson.plugins.s3;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+public class ArtifactCacheTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final AtomicInteger downloads = new AtomicInteger();
+
+    @Test
+    public void testSecondCopyComesFromCache() throws Exception {
+        final ArtifactCache cache = new ArtifactCache(tmp.newFolder("cache"), 1024, false);
+        final File first = new File(tmp.getRoot(), "ws1/a.txt");
+        final File second = new File(tmp.getRoot(), "ws2/a.txt");
+
+        assertEquals(md5("content"), cache.materialize(md5("content"), first, download("content")));
+        assertEquals(md5("content"), cache.materialize(md5("content"), second, download("content")));
+
+        assertEquals(1, downloads.get());
+        assertEquals("content", read(second));
+    }
+
+    @Test
+    public void testCopiesDontShareTheirContent() throws Exception {
+        final ArtifactCache cache = new ArtifactCache(tmp.newFolder("cache"), 1024, false);
+        final File first = new File(tmp.getRoot(), "ws1/a.txt");
+        cache.materialize(md5("content"), first, download("content"));
+
+        Files.write(first.toPath(), "changed!".getBytes(StandardCharsets.UTF_8));
+        first.setLastModified(first.lastModified() + 2000);
+
+        final File second = new File(tmp.getRoot(), "ws2/a.txt");
+        cache.materialize(md5("content"), second, download("content"));
+        assertEquals(1, downloads.get());
+        assertEquals("content", read(second));
+    }
+
+    @Test
+    public void testModifiedLinkedArtifactIsDownloadedAgain() throws Exception {
+        final ArtifactCache cache = new ArtifactCache(tmp.newFolder("cache"), 1024, true);
+        final File first = new File(tmp.getRoot(), "ws1/a.txt");
+        cache.materialize(md5("content"), first, download("content"));
+
+        // a build changing the linked file in place
+        Files.write(first.toPath(), "changed!".getBytes(StandardCharsets.UTF_8));
+        first.setLastModified(first.lastModified() + 2000);
+
+        final File second = new File(tmp.getRoot(), "ws2/a.txt");
+        cache.materialize(md5("content"), second, download("content"));
+        assertEquals(2, downloads.get());
+        assertEquals("content", read(second));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() throws Exception {
+        final File dir = tmp.newFolder("cache");
+        final ArtifactCache cache = new ArtifactCache(dir, 10, false);
+        cache.materialize(md5("first"), new File(tmp.getRoot(), "ws/first"), download("first"));
+        cache.materialize(md5("second"), new File(tmp.getRoot(), "ws/second"), download("second"));
+
+        assertFalse(new File(new File(dir, md5("first").substring(0, 2)), md5("first")).exists());
+        assertEquals("first", read(new File(tmp.getRoot(), "ws/first")));
+    }
+
+    @Test
+    public void testMismatchingContentIsNotCached() throws Exception {
+        final ArtifactCache cache = new ArtifactCache(tmp.newFolder("cache"), 1024, false);
+        final File first = new File(tmp.getRoot(), "ws1/a");
+        assertEquals(md5("actual"), cache.materialize(md5("recorded"), first, download("actual")));
+        assertEquals(md5("actual"), cache.materialize(md5("recorded"), new File(tmp.getRoot(), "ws2/a"), download("actual")));
+        // once per copy, the mismatching download is moved to its target
+        assertEquals(2, downloads.get());
+        assertEquals("actual", read(first));
+    }
+
+    private ArtifactCache.Download download(String content) {
+        return file -> {
+            downloads.incrementAndGet();
+            Files.createDirectories(file.getParentFile().toPath());
+            Files.write(file.toPath(), content.getBytes(StandardCharsets.UTF_8));
+            return md5(content);
+        };
+    }
+
+    private static String md5(String content) {
+        return DigestUtils.md5Hex(content);
+    }
+
+    private static String read(File file) throws Exception {
+        return new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,210 @@
+package hudson.plugins.s3;
+
+import org.junit.Test;
+import org.reactivestreams.Publisher;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.core.async.SdkPublisher;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class BandwidthLimitTest {
+    /**
+     * A tenth of a second passes right away, see {@link TokenBucket}.
+     */
+    private static final long BYTES_PER_SECOND = 100_000;
+    private static final int BUFFER_SIZE = 8_000;
+    private static final int BUFFERS = 5;
+
+    @Test
+    public void testRequestBuffersKeepTheirOrder() throws Exception {
+        final BandwidthLimit bandwidth = new BandwidthLimit("request order", BYTES_PER_SECOND, 0);
+        final Recorder recorder = new Recorder();
+        final long started = System.nanoTime();
+        bandwidth.limitRequest(AsyncRequestBody.fromPublisher(publisher(null))).subscribe(recorder);
+
+        recorder.done.get(10, TimeUnit.SECONDS);
+        assertEquals(expectedOrder(), recorder.received);
+        // 40 KB at 100 KB/s, of which 10 KB pass right away
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(250));
+    }
+
+    @Test
+    public void testCompletionFollowsTheDelayedBuffers() throws Exception {
+        final BandwidthLimit bandwidth = new BandwidthLimit("request completion", BYTES_PER_SECOND, 0);
+        final Recorder recorder = new Recorder();
+        bandwidth.limitRequest(AsyncRequestBody.fromPublisher(publisher(null))).subscribe(recorder);
+
+        recorder.done.get(10, TimeUnit.SECONDS);
+        // every buffer arrived before the completion
+        assertEquals(BUFFERS, recorder.receivedWhenDone);
+    }
+
+    @Test
+    public void testResponseErrorFollowsTheDelayedBuffers() throws Exception {
+        final BandwidthLimit bandwidth = new BandwidthLimit("response error", BYTES_PER_SECOND, 0);
+        final Recorder recorder = new Recorder();
+        final AsyncResponseTransformer<String, Void> transformer = bandwidth.limitResponse(new AsyncResponseTransformer<String, Void>() {
+            @Override
+            public CompletableFuture<Void> prepare() {
+                return recorder.done;
+            }
+
+            @Override
+            public void onResponse(String response) {
+            }
+
+            @Override
+            public void onStream(SdkPublisher<ByteBuffer> publisher) {
+                publisher.subscribe(recorder);
+            }
+
+            @Override
+            public void exceptionOccurred(Throwable error) {
+                recorder.done.completeExceptionally(error);
+            }
+        });
+
+        final IOException error = new IOException("Connection reset");
+        final CompletableFuture<Void> done = transformer.prepare();
+        transformer.onResponse("response");
+        transformer.onStream(SdkPublisher.adapt(publisher(error)));
+        try {
+            done.get(10, TimeUnit.SECONDS);
+            fail("The error didn't arrive");
+        } catch (ExecutionException e) {
+            assertSame(error, e.getCause());
+        }
+        assertEquals(expectedOrder(), recorder.received);
+        assertEquals(BUFFERS, recorder.receivedWhenDone);
+    }
+
+    @Test
+    public void testStreamIsReadAtTheLimit() throws Exception {
+        final BandwidthLimit bandwidth = new BandwidthLimit("stream", BYTES_PER_SECOND, 0);
+        final byte[] content = new byte[30_000];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        final long started = System.nanoTime();
+        try (InputStream in = bandwidth.limit(new ByteArrayInputStream(content))) {
+            assertArrayEquals(content, readAll(in));
+        }
+        // 30 KB at 100 KB/s, of which 10 KB pass right away
+        assertTrue(System.nanoTime() - started >= TimeUnit.MILLISECONDS.toNanos(150));
+    }
+
+    @Test
+    public void testInterruptedReadFails() throws Exception {
+        final BandwidthLimit bandwidth = new BandwidthLimit("interrupted stream", BYTES_PER_SECOND, 0);
+        try (InputStream in = bandwidth.limit(new ByteArrayInputStream(new byte[30_000]))) {
+            Thread.currentThread().interrupt();
+            readAll(in);
+            fail("The read wasn't interrupted");
+        } catch (InterruptedIOException expected) {
+            assertTrue(Thread.interrupted());
+        }
+    }
+
+    @Test
+    public void testUnlimitedBodiesAreNotWrapped() {
+        final InputStream in = new ByteArrayInputStream(new byte[0]);
+        assertSame(in, BandwidthLimit.NONE.limit(in));
+        final AsyncRequestBody body = AsyncRequestBody.fromBytes(new byte[0]);
+        assertSame(body, BandwidthLimit.NONE.limitRequest(body));
+    }
+
+    private static byte[] readAll(InputStream in) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        final byte[] buffer = new byte[BUFFER_SIZE];
+        for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+            out.write(buffer, 0, read);
+        }
+        return out.toByteArray();
+    }
+
+    private static List<Integer> expectedOrder() {
+        final List<Integer> order = new ArrayList<>();
+        for (int i = 0; i < BUFFERS; i++) {
+            order.add(i);
+        }
+        return order;
+    }
+
+    /**
+     * Sends buffers whose first byte is their index, then completes or fails with the error.
+     */
+    private static Publisher<ByteBuffer> publisher(Throwable error) {
+        return subscriber -> {
+            subscriber.onSubscribe(new Subscription() {
+                @Override
+                public void request(long n) {
+                }
+
+                @Override
+                public void cancel() {
+                }
+            });
+            for (int i = 0; i < BUFFERS; i++) {
+                final byte[] buffer = new byte[BUFFER_SIZE];
+                buffer[0] = (byte) i;
+                subscriber.onNext(ByteBuffer.wrap(buffer));
+            }
+            if (error != null) {
+                subscriber.onError(error);
+            } else {
+                subscriber.onComplete();
+            }
+        };
+    }
+
+    /**
+     * Records the index of every buffer, and how many arrived when the body ended.
+     */
+    private static final class Recorder implements Subscriber<ByteBuffer> {
+        final List<Integer> received = Collections.synchronizedList(new ArrayList<>());
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        volatile int receivedWhenDone = -1;
+
+        @Override
+        public void onSubscribe(Subscription subscription) {
+            subscription.request(Long.MAX_VALUE);
+        }
+
+        @Override
+        public void onNext(ByteBuffer buffer) {
+            received.add((int) buffer.get(0));
+        }
+
+        @Override
+        public void onError(Throwable error) {
+            receivedWhenDone = received.size();
+            done.completeExceptionally(error);
+        }
+
+        @Override
+        public void onComplete() {
+            receivedWhenDone = received.size();
+            done.complete(null);
+        }
+    }
+}
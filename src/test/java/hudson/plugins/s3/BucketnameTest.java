@@ -33,4 +33,12 @@ public class BucketnameTest {
             new Destination("my-bucket/with-some/subfolder/", "path-from\\windows.txt").toString() );
   }
 
+  @Test
+  public void testContentAddressedArtifactsResolveToTheirContentKey() {
+    final S3Artifact artifact = new S3Artifact("us-east-1", "my-bucket/with-path", "dir/file.txt",
+            Destination.contentKey("0123456789abcdef0123456789abcdef"));
+    assertEquals("Destination [bucketName=my-bucket, objectName=with-path/cas/01/0123456789abcdef0123456789abcdef]",
+            Destination.newFromRun(null, artifact).toString());
+  }
+
 }
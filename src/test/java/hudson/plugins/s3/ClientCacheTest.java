@@ -0,0 +1,182 @@
+package hudson.plugins.s3;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ClientCacheTest {
+    private final List<ClientCache<String, Client>> caches = new ArrayList<>();
+
+    @After
+    public void closeCaches() {
+        for (ClientCache<String, Client> cache : caches) {
+            cache.close();
+        }
+    }
+
+    private ClientCache<String, Client> newCache(int maxSize, long idleTime, TimeUnit unit) {
+        final ClientCache<String, Client> cache = new ClientCache<>(maxSize, idleTime, unit);
+        caches.add(cache);
+        return cache;
+    }
+
+    @Test
+    public void testSharesClientsPerKey() {
+        final ClientCache<String, Client> cache = newCache(4, 1, TimeUnit.HOURS);
+        try (ClientCache.Lease<Client> first = cache.lease("a", Client::new);
+             ClientCache.Lease<Client> second = cache.lease("a", Client::new);
+             ClientCache.Lease<Client> other = cache.lease("b", Client::new)) {
+            assertSame(first.get(), second.get());
+            assertFalse(first.get() == other.get());
+            assertEquals(2, cache.size());
+        }
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUsed() {
+        final ClientCache<String, Client> cache = newCache(1, 1, TimeUnit.HOURS);
+        final Client a;
+        try (ClientCache.Lease<Client> lease = cache.lease("a", Client::new)) {
+            a = lease.get();
+        }
+        assertFalse(a.closed);
+
+        final Client b;
+        try (ClientCache.Lease<Client> lease = cache.lease("b", Client::new)) {
+            b = lease.get();
+            assertTrue(a.closed);
+        }
+        assertFalse(b.closed);
+        assertEquals(1, cache.size());
+    }
+
+    @Test
+    public void testKeepsLeasedClients() {
+        final ClientCache<String, Client> cache = newCache(0, 0, TimeUnit.SECONDS);
+        final ClientCache.Lease<Client> lease = cache.lease("a", Client::new);
+        cache.sweep();
+        assertFalse(lease.get().closed);
+
+        final Client client = lease.get();
+        lease.close();
+        assertTrue(client.closed);
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testReleaseIsIdempotent() {
+        final ClientCache<String, Client> cache = newCache(4, 0, TimeUnit.SECONDS);
+        final ClientCache.Lease<Client> first = cache.lease("a", Client::new);
+        final ClientCache.Lease<Client> second = cache.lease("a", Client::new);
+        first.close();
+        first.close();
+        assertFalse(second.get().closed);
+        second.close();
+        assertEquals(0, cache.size());
+    }
+
+    @Test
+    public void testInvalidateAll() {
+        final ClientCache<String, Client> cache = newCache(4, 1, TimeUnit.HOURS);
+        final Client idle;
+        try (ClientCache.Lease<Client> lease = cache.lease("a", Client::new)) {
+            idle = lease.get();
+        }
+        final ClientCache.Lease<Client> leased = cache.lease("b", Client::new);
+
+        cache.invalidateAll();
+        assertTrue(idle.closed);
+        assertFalse(leased.get().closed);
+        assertEquals(0, cache.size());
+
+        try (ClientCache.Lease<Client> lease = cache.lease("b", Client::new)) {
+            assertFalse(lease.get() == leased.get());
+        }
+        final Client client = leased.get();
+        leased.close();
+        assertTrue(client.closed);
+    }
+
+    @Test
+    public void testCloseRetiresTheClients() {
+        final ClientCache<String, Client> cache = newCache(4, 1, TimeUnit.HOURS);
+        final Client idle;
+        try (ClientCache.Lease<Client> lease = cache.lease("a", Client::new)) {
+            idle = lease.get();
+        }
+        final ClientCache.Lease<Client> leased = cache.lease("b", Client::new);
+
+        cache.close();
+        assertTrue(idle.closed);
+        assertFalse(leased.get().closed);
+        final Client client = leased.get();
+        leased.close();
+        assertTrue(client.closed);
+    }
+
+    @Test
+    public void testCreatesClientsOutsideTheLock() throws Exception {
+        final ClientCache<String, Client> cache = newCache(4, 1, TimeUnit.HOURS);
+        final CountDownLatch creating = new CountDownLatch(1);
+        final CountDownLatch created = new CountDownLatch(1);
+        final CompletableFuture<Client> slow = CompletableFuture.supplyAsync(() -> {
+            try (ClientCache.Lease<Client> lease = cache.lease("slow", () -> {
+                creating.countDown();
+                try {
+                    created.await();
+                } catch (InterruptedException e) {
+                    throw new IllegalStateException(e);
+                }
+                return new Client();
+            })) {
+                return lease.get();
+            }
+        });
+        creating.await();
+
+        // another key doesn't wait for the slow client
+        try (ClientCache.Lease<Client> lease = cache.lease("fast", Client::new)) {
+            assertFalse(lease.get().closed);
+        }
+        assertFalse(slow.isDone());
+        created.countDown();
+        assertFalse(slow.get(10, TimeUnit.SECONDS).closed);
+    }
+
+    @Test
+    public void testFailedCreationIsRetried() {
+        final ClientCache<String, Client> cache = newCache(4, 1, TimeUnit.HOURS);
+        try {
+            cache.lease("a", () -> {
+                throw new IllegalArgumentException("no credentials");
+            });
+            fail();
+        } catch (IllegalArgumentException e) {
+            assertEquals("no credentials", e.getMessage());
+        }
+        assertEquals(0, cache.size());
+        try (ClientCache.Lease<Client> lease = cache.lease("a", Client::new)) {
+            assertFalse(lease.get().closed);
+        }
+    }
+
+    private static final class Client implements AutoCloseable {
+        private boolean closed;
+
+        @Override
+        public void close() {
+            closed = true;
+        }
+    }
+}
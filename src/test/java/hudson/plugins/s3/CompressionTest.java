@@ -0,0 +1,64 @@
+package hudson.plugins.s3;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class CompressionTest {
+
+    @Test
+    public void testRoundTrip() throws Exception {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 3 * 1024 * 1024; i++) {
+            text.append("[INFO] Building module ").append(i % 50).append('\n');
+        }
+        final byte[] data = text.toString().getBytes("UTF-8");
+
+        for (Compression compression : Compression.values()) {
+            final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+            try (OutputStream out = compression.compress(compressed, 0, data.length)) {
+                out.write(data);
+            }
+            try (InputStream in = compression.decompress(new ByteArrayInputStream(compressed.toByteArray()))) {
+                assertArrayEquals(compression.name(), data, IOUtils.toByteArray(in));
+            }
+        }
+    }
+
+    @Test
+    public void testFromMetadata() {
+        for (Compression compression : Compression.values()) {
+            assertEquals(compression, Compression.fromMetadata(compression.getMetadataValue()));
+        }
+        assertEquals(Compression.NONE, Compression.fromMetadata(null));
+        assertEquals(Compression.NONE, Compression.fromMetadata("brotli"));
+    }
+
+    @Test
+    public void testLevelsAreWithinTheCodecsRange() {
+        assertEquals(0, Compression.GZIP.levelFor(-1));
+        assertEquals(6, Compression.GZIP.levelFor(6));
+        assertEquals(9, Compression.GZIP.levelFor(19));
+        assertEquals(19, Compression.ZSTD.levelFor(19));
+        assertEquals(0, Compression.LZ4.levelFor(5));
+    }
+
+    @Test
+    public void testLevelBeyondTheRangeCompresses() throws Exception {
+        final byte[] data = "level".getBytes("UTF-8");
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (OutputStream out = Compression.GZIP.compress(compressed, 12, data.length)) {
+            out.write(data);
+        }
+        try (InputStream in = Compression.GZIP.decompress(new ByteArrayInputStream(compressed.toByteArray()))) {
+            assertArrayEquals(data, IOUtils.toByteArray(in));
+        }
+    }
+}
@@ -0,0 +1,174 @@
+package hudson.plugins.s3;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ContentReferencesTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final List<Destination> cancelled = Collections.synchronizedList(new ArrayList<>());
+
+    @Test
+    public void testLastReleaseMakesTheObjectUnused() throws Exception {
+        final ContentReferences references = newReferences(tmp.getRoot());
+        final Destination a = new Destination("bucket", "cas/aa/a");
+        final Destination b = new Destination("bucket", "cas/bb/b");
+        references.acquire(Arrays.asList(a, a, b));
+        assertEquals(2, references.count(a));
+
+        assertTrue(references.release(Collections.singletonList(a)).isEmpty());
+        assertEquals(Arrays.asList(a, b), references.release(Arrays.asList(a, b)));
+        assertEquals(0, references.count(a));
+    }
+
+    @Test
+    public void testObjectsWithoutReferencesAreKept() throws Exception {
+        final ContentReferences references = newReferences(tmp.getRoot());
+        assertTrue(references.release(Collections.singletonList(new Destination("bucket", "cas/aa/a"))).isEmpty());
+    }
+
+    @Test
+    public void testAcquireCancelsPendingDeletions() throws Exception {
+        final ContentReferences references = newReferences(tmp.getRoot());
+        final Destination a = new Destination("bucket", "cas/aa/a");
+        references.acquire(Collections.singletonList(a));
+        assertEquals(Collections.singletonList(a), cancelled);
+    }
+
+    @Test
+    public void testReferredObjectsAreNotDeleted() throws Exception {
+        final ContentReferences references = newReferences(tmp.getRoot());
+        final Destination a = new Destination("bucket", "cas/aa/a");
+        final Destination b = new Destination("bucket", "cas/bb/b");
+        // acquired again after the deletion was queued
+        references.acquire(Collections.singletonList(a));
+
+        final List<Destination> deleted = references.deleteUnreferenced(Arrays.asList(a, b), unreferenced -> unreferenced);
+        assertEquals(Collections.singletonList(b), deleted);
+    }
+
+    @Test
+    public void testSlowDeletionDoesNotBlockOtherReferences() throws Exception {
+        final ContentReferences references = newReferences(tmp.getRoot());
+        final Destination a = new Destination("bucket", "cas/aa/a");
+        final Destination b = new Destination("bucket", "cas/bb/b");
+        final CountDownLatch deleting = new CountDownLatch(1);
+        final CountDownLatch s3 = new CountDownLatch(1);
+        final Thread deletion = new Thread(() -> references.deleteUnreferenced(Collections.singletonList(a), unreferenced -> {
+            deleting.countDown();
+            try {
+                // S3 is slow to answer
+                s3.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return unreferenced;
+        }));
+        deletion.start();
+        assertTrue(deleting.await(10, TimeUnit.SECONDS));
+
+        references.acquire(Collections.singletonList(b));
+        assertEquals(1, references.count(b));
+        assertTrue(deletion.isAlive());
+
+        s3.countDown();
+        deletion.join();
+    }
+
+    @Test
+    public void testReferenceWaitsForTheDeletionInFlight() throws Exception {
+        final ContentReferences references = newReferences(tmp.getRoot());
+        final Destination a = new Destination("bucket", "cas/aa/a");
+        final CountDownLatch deleting = new CountDownLatch(1);
+        final CountDownLatch s3 = new CountDownLatch(1);
+        final Thread deletion = new Thread(() -> references.deleteUnreferenced(Collections.singletonList(a), unreferenced -> {
+            deleting.countDown();
+            try {
+                s3.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return unreferenced;
+        }));
+        deletion.start();
+        assertTrue(deleting.await(10, TimeUnit.SECONDS));
+
+        final CountDownLatch acquired = new CountDownLatch(1);
+        final Thread upload = new Thread(() -> {
+            try {
+                references.acquire(Collections.singletonList(a));
+                acquired.countDown();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        });
+        upload.start();
+        // the upload looks the object up only once it is gone
+        assertFalse(acquired.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(1, references.count(a));
+
+        s3.countDown();
+        assertTrue(acquired.await(10, TimeUnit.SECONDS));
+        deletion.join();
+        upload.join();
+        // referred to now, the next deletion leaves it alone
+        assertTrue(references.deleteUnreferenced(Collections.singletonList(a), unreferenced -> unreferenced).isEmpty());
+    }
+
+    @Test
+    public void testCountsAreLoadedAgain() throws Exception {
+        final File dir = tmp.getRoot();
+        final ContentReferences references = newReferences(dir);
+        final Destination a = new Destination("bucket", "cas/aa/a");
+        final Destination b = new Destination("bucket", "cas/bb/b");
+        references.acquire(Arrays.asList(a, a, b));
+        references.release(Collections.singletonList(b));
+
+        final ContentReferences loaded = newReferences(dir);
+        assertEquals(2, loaded.count(a));
+        assertEquals(0, loaded.count(b));
+
+        // and once more, from the counts saved while loading
+        loaded.release(Collections.singletonList(a));
+        assertEquals(1, newReferences(dir).count(a));
+    }
+
+    @Test
+    public void testIncompleteChangeIsIgnored() throws Exception {
+        final File dir = tmp.getRoot();
+        final ContentReferences references = newReferences(dir);
+        final Destination a = new Destination("bucket", "cas/aa/a");
+        references.acquire(Collections.singletonList(a));
+        // the controller stopped while the next change was written
+        Files.write(new File(dir, ContentReferences.class.getName() + ".0.log").toPath(), "+ buck".getBytes(StandardCharsets.UTF_8),
+                StandardOpenOption.APPEND);
+
+        final ContentReferences loaded = newReferences(dir);
+        assertEquals(1, loaded.count(a));
+        // later changes don't continue the incomplete line
+        loaded.acquire(Collections.singletonList(a));
+        assertEquals(2, newReferences(dir).count(a));
+    }
+
+    private ContentReferences newReferences(File dir) {
+        return new ContentReferences(dir, (Collection<Destination> objects) -> cancelled.addAll(objects));
+    }
+}
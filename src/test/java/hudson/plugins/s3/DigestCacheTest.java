@@ -0,0 +1,43 @@
+package hudson.plugins.s3;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+
+import static org.junit.Assert.assertEquals;
+
+public class DigestCacheTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testDigest() throws Exception {
+        final File file = tmp.newFile();
+        Files.write(file.toPath(), "first".getBytes(StandardCharsets.UTF_8));
+        assertEquals(DigestUtils.md5Hex("first"), DigestCache.digest(file));
+    }
+
+    @Test
+    public void testChangedFileIsDigestedAgain() throws Exception {
+        final File file = tmp.newFile();
+        Files.write(file.toPath(), "first".getBytes(StandardCharsets.UTF_8));
+        DigestCache.digest(file);
+
+        Files.write(file.toPath(), "second, longer".getBytes(StandardCharsets.UTF_8));
+        assertEquals(DigestUtils.md5Hex("second, longer"), DigestCache.digest(file));
+    }
+
+    @Test
+    public void testRecordedDigestIsUsed() throws Exception {
+        final File file = tmp.newFile();
+        Files.write(file.toPath(), "content".getBytes(StandardCharsets.UTF_8));
+        // an unchanged file isn't read again
+        DigestCache.put(file, "recorded");
+        assertEquals("recorded", DigestCache.digest(file));
+    }
+}
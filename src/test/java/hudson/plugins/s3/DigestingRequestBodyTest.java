@@ -0,0 +1,56 @@
+package hudson.plugins.s3;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.util.concurrent.CompletableFuture;
+
+import static org.junit.Assert.assertEquals;
+
+public class DigestingRequestBodyTest {
+    @Test
+    public void testDigestIsTheOneOfTheLastAttempt() throws Exception {
+        final byte[] content = "content of the file".getBytes(StandardCharsets.UTF_8);
+        final MessageDigest md5 = MD5.newDigest();
+        final DigestingRequestBody body = new DigestingRequestBody(AsyncRequestBody.fromBytes(content), md5);
+
+        // a retried request subscribes again
+        assertEquals(content.length, drain(body));
+        assertEquals(content.length, drain(body));
+        assertEquals(DigestUtils.md5Hex(content), MD5.toHex(md5));
+    }
+
+    private static int drain(AsyncRequestBody body) throws Exception {
+        final CompletableFuture<Integer> drained = new CompletableFuture<>();
+        body.subscribe(new Subscriber<ByteBuffer>() {
+            private int bytes;
+
+            @Override
+            public void onSubscribe(Subscription subscription) {
+                subscription.request(Long.MAX_VALUE);
+            }
+
+            @Override
+            public void onNext(ByteBuffer buffer) {
+                bytes += buffer.remaining();
+            }
+
+            @Override
+            public void onError(Throwable error) {
+                drained.completeExceptionally(error);
+            }
+
+            @Override
+            public void onComplete() {
+                drained.complete(bytes);
+            }
+        });
+        return drained.get();
+    }
+}
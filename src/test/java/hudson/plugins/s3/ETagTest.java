@@ -0,0 +1,47 @@
+package hudson.plugins.s3;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+
+public class ETagTest {
+
+    @Test
+    public void testSinglePart() throws Exception {
+        final byte[] data = "0123456789".getBytes("UTF-8");
+        final ETag eTag = ETag.compute(new ByteArrayInputStream(data), data.length, 10, 4);
+        assertEquals(DigestUtils.md5Hex(data), eTag.getETag());
+        assertEquals(DigestUtils.md5Hex(data), eTag.getMD5());
+    }
+
+    @Test
+    public void testMultipart() throws Exception {
+        final byte[] data = "0123456789A".getBytes("UTF-8");
+        final ETag eTag = ETag.compute(new ByteArrayInputStream(data), data.length, 10, 4);
+
+        final ByteArrayOutputStream parts = new ByteArrayOutputStream();
+        parts.write(DigestUtils.md5(Arrays.copyOfRange(data, 0, 4)));
+        parts.write(DigestUtils.md5(Arrays.copyOfRange(data, 4, 8)));
+        parts.write(DigestUtils.md5(Arrays.copyOfRange(data, 8, 11)));
+        assertEquals(Hex.encodeHexString(DigestUtils.md5(parts.toByteArray())) + "-3", eTag.getETag());
+        assertEquals(DigestUtils.md5Hex(data), eTag.getMD5());
+    }
+
+    @Test
+    public void testPartSizeGrowsForHugeFiles() {
+        assertEquals(8, ETag.partSize(100, 8));
+        assertEquals(10001, ETag.partSize(ETag.MAX_PARTS * 10001L - 5, 8));
+    }
+
+    @Test
+    public void testUnquote() {
+        assertEquals("abc-2", ETag.unquote("\"abc-2\""));
+        assertEquals("abc", ETag.unquote("abc"));
+    }
+}
@@ -0,0 +1,74 @@
+package hudson.plugins.s3;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class ParallelGzipOutputStreamTest {
+    private static final int BLOCK_SIZE = 32 * 1024;
+
+    @Test
+    public void testEmptyInput() throws Exception {
+        assertRoundTrip(new byte[0]);
+    }
+
+    @Test
+    public void testSmallerThanBlock() throws Exception {
+        assertRoundTrip("Hello World".getBytes("UTF-8"));
+    }
+
+    @Test
+    public void testManyCompressibleBlocks() throws Exception {
+        final StringBuilder text = new StringBuilder();
+        for (int i = 0; text.length() < 20 * BLOCK_SIZE + 123; i++) {
+            text.append("line ").append(i % 100).append(" of a build log\n");
+        }
+        assertRoundTrip(text.toString().getBytes("UTF-8"));
+    }
+
+    @Test
+    public void testRandomExactBlocks() throws Exception {
+        final byte[] data = new byte[8 * BLOCK_SIZE];
+        new Random(42).nextBytes(data);
+        assertRoundTrip(data);
+    }
+
+    @Test
+    public void testSingleByteWrites() throws Exception {
+        final byte[] data = new byte[3 * BLOCK_SIZE + 7];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) (i % 7);
+        }
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(compressed, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE, new ForkJoinPool(3))) {
+            for (byte b : data) {
+                gzip.write(b);
+            }
+        }
+        assertArrayEquals(data, gunzip(compressed.toByteArray()));
+    }
+
+    private void assertRoundTrip(byte[] data) throws IOException {
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (ParallelGzipOutputStream gzip = new ParallelGzipOutputStream(compressed, Deflater.DEFAULT_COMPRESSION, BLOCK_SIZE, new ForkJoinPool(4))) {
+            gzip.write(data);
+        }
+        assertArrayEquals(data, gunzip(compressed.toByteArray()));
+    }
+
+    private byte[] gunzip(byte[] compressed) throws IOException {
+        try (InputStream in = new GZIPInputStream(new ByteArrayInputStream(compressed))) {
+            return IOUtils.toByteArray(in);
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package hudson.plugins.s3;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class PrefixLimiterTest {
+    @Test
+    public void testPrefixesAreTheLeadingDirectories() {
+        assertEquals("jobs/project/12/", PrefixLimiter.prefixOf("jobs/project/12/artifacts/target/a.zip"));
+        assertEquals("dir/", PrefixLimiter.prefixOf("dir/a.zip"));
+        assertEquals("", PrefixLimiter.prefixOf("a.zip"));
+    }
+
+    @Test
+    public void testRequestsBeyondTheLimitWait() {
+        final PrefixLimiter limiter = new PrefixLimiter("bucket", "jobs/");
+        final List<PrefixLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < PrefixLimiter.INITIAL_LIMIT; i++) {
+            permits.add(limiter.acquire().join());
+        }
+        final CompletableFuture<PrefixLimiter.Permit> waiting = limiter.acquire();
+        assertFalse(waiting.isDone());
+
+        permits.get(0).release(null);
+        assertTrue(waiting.isDone());
+        assertEquals(PrefixLimiter.INITIAL_LIMIT, limiter.getInFlight());
+        // a permit is released once
+        permits.get(0).release(null);
+        assertEquals(PrefixLimiter.INITIAL_LIMIT, limiter.getInFlight());
+    }
+
+    @Test
+    public void testThrottlingDecreasesOncePerInterval() {
+        final PrefixLimiter limiter = new PrefixLimiter("bucket", "jobs/");
+        final long now = System.nanoTime();
+        limiter.throttled(now);
+        final int decreased = (int) (PrefixLimiter.INITIAL_LIMIT * PrefixLimiter.DECREASE);
+        assertEquals(decreased, limiter.getLimit());
+        // the other requests of the same round
+        limiter.throttled(now + TimeUnit.MILLISECONDS.toNanos(10));
+        assertEquals(decreased, limiter.getLimit());
+        limiter.throttled(now + TimeUnit.MILLISECONDS.toNanos(PrefixLimiter.DECREASE_INTERVAL_MILLIS));
+        assertEquals((int) (PrefixLimiter.INITIAL_LIMIT * PrefixLimiter.DECREASE * PrefixLimiter.DECREASE), limiter.getLimit());
+    }
+
+    @Test
+    public void testCompletedRequestsIncreaseTheLimitByOnePerRound() {
+        final PrefixLimiter limiter = new PrefixLimiter("bucket", "jobs/");
+        final int limit = limiter.getLimit();
+        // the limit grows along the way, a round takes one request more
+        for (int i = 0; i <= limit; i++) {
+            limiter.acquire().join().release(null);
+        }
+        assertEquals(limit + 1, limiter.getLimit());
+        // failed requests don't count
+        for (int i = 0; i < 2 * limit; i++) {
+            limiter.acquire().join().release(new RuntimeException());
+        }
+        assertEquals(limit + 1, limiter.getLimit());
+    }
+
+    @Test
+    public void testCancelledWaitersDontHoldPermits() {
+        final PrefixLimiter limiter = new PrefixLimiter("bucket", "jobs/");
+        final List<PrefixLimiter.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < PrefixLimiter.INITIAL_LIMIT; i++) {
+            permits.add(limiter.acquire().join());
+        }
+        final CompletableFuture<PrefixLimiter.Permit> cancelled = limiter.acquire();
+        cancelled.cancel(false);
+        final CompletableFuture<PrefixLimiter.Permit> waiting = limiter.acquire();
+
+        permits.get(0).release(null);
+        assertTrue(waiting.isDone());
+        assertEquals(PrefixLimiter.INITIAL_LIMIT, limiter.getInFlight());
+    }
+
+    @Test
+    public void testIdleLimitersAreDropped() {
+        final PrefixLimiter idle = PrefixLimiter.forObject("idle-bucket", "jobs/project/1/a.zip");
+        idle.acquire().join().release(null);
+        final PrefixLimiter busy = PrefixLimiter.forObject("idle-bucket", "jobs/project/2/a.zip");
+        final PrefixLimiter.Permit permit = busy.acquire().join();
+
+        PrefixLimiter.sweep(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2 * PrefixLimiter.IDLE_MILLIS));
+        final PrefixLimiter replaced = PrefixLimiter.forObject("idle-bucket", "jobs/project/1/a.zip");
+        assertNotSame(idle, replaced);
+        assertSame(busy, PrefixLimiter.forObject("idle-bucket", "jobs/project/2/a.zip"));
+
+        // a request through the dropped limiter counts with the one of the prefix now
+        idle.acquire().join();
+        assertEquals(1, replaced.getInFlight());
+        permit.release(null);
+    }
+}
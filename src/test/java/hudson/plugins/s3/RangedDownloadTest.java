@@ -0,0 +1,174 @@
+package hudson.plugins.s3;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import software.amazon.awssdk.core.ResponseInputStream;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.core.async.AsyncResponseTransformer;
+import software.amazon.awssdk.http.AbortableInputStream;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+import software.amazon.awssdk.services.s3.model.GetObjectResponse;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.LongPredicate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RangedDownloadTest {
+    private static final long RANGE_SIZE = 10;
+    private static final String ETAG = "\"etag\"";
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final byte[] content = new byte[95];
+    private final FakeS3 s3 = new FakeS3();
+
+    public RangedDownloadTest() {
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+    }
+
+    @Test
+    public void testRangesAreWrittenToTheirOffsets() throws Exception {
+        final File target = new File(tmp.getRoot(), "target");
+        download(target);
+
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+        assertFalse(RangedDownload.progressFileOf(target).exists());
+        // the first range comes with the GET the download started from
+        assertEquals(9, s3.requested.size());
+        assertFalse(s3.requested.contains("bytes=0-9"));
+    }
+
+    @Test
+    public void testFailedDownloadResumesWithTheMissingRanges() throws Exception {
+        final File target = new File(tmp.getRoot(), "target");
+        s3.failing = start -> start == 50;
+        try {
+            download(target);
+            fail("Download didn't fail");
+        } catch (IOException expected) {
+            assertTrue(RangedDownload.progressFileOf(target).exists());
+        }
+
+        s3.failing = start -> false;
+        s3.requested.clear();
+        download(target);
+        assertEquals(Collections.singletonList("bytes=50-59"), s3.requested);
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    @Test
+    public void testInterruptedDownloadWaitsForTheRangesInFlight() throws Exception {
+        final File target = new File(tmp.getRoot(), "target");
+        s3.holding = true;
+        final AtomicReference<Throwable> thrown = new AtomicReference<>();
+        final Thread thread = new Thread(() -> {
+            try {
+                download(target);
+            } catch (Throwable t) {
+                thrown.set(t);
+            }
+        });
+        thread.start();
+        while (s3.held.isEmpty()) {
+            Thread.sleep(10);
+        }
+
+        thread.interrupt();
+        thread.join(500);
+        assertTrue("returned while ranges were written", thread.isAlive());
+
+        s3.release();
+        thread.join();
+        assertTrue(String.valueOf(thrown.get()), thrown.get() instanceof InterruptedException);
+
+        // the ranges in flight were recorded
+        final int sent = s3.requested.size();
+        s3.holding = false;
+        s3.requested.clear();
+        download(target);
+        assertEquals(9 - sent, s3.requested.size());
+        assertArrayEquals(content, Files.readAllBytes(target.toPath()));
+    }
+
+    private void download(File target) throws IOException, InterruptedException {
+        final GetObjectResponse response = GetObjectResponse.builder().eTag(ETAG).contentLength((long) content.length).build();
+        final ResponseInputStream<GetObjectResponse> first = new ResponseInputStream<>(response,
+                AbortableInputStream.create(new ByteArrayInputStream(content)));
+        final PrefixLimiter.Permit permit = PrefixLimiter.forObject("bucket", "key").acquireInterruptibly();
+        RangedDownload.download(s3, "bucket", "key", first, permit, RANGE_SIZE, target, BandwidthLimit.NONE, null);
+    }
+
+    /**
+     * Serves ranges of the content, answering right away unless it holds the ranges.
+     */
+    private final class FakeS3 implements S3AsyncClient {
+        final List<String> requested = Collections.synchronizedList(new ArrayList<>());
+        final List<Runnable> held = Collections.synchronizedList(new ArrayList<>());
+        volatile LongPredicate failing = start -> false;
+        volatile boolean holding;
+
+        @Override
+        public <ReturnT> CompletableFuture<ReturnT> getObject(GetObjectRequest request,
+                                                              AsyncResponseTransformer<GetObjectResponse, ReturnT> transformer) {
+            requested.add(request.range());
+            final String[] range = request.range().substring("bytes=".length()).split("-");
+            final int start = Integer.parseInt(range[0]);
+            final int end = Integer.parseInt(range[1]);
+            if (!ETAG.equals(request.ifMatch()) || failing.test(start)) {
+                final CompletableFuture<ReturnT> refused = new CompletableFuture<>();
+                refused.completeExceptionally(S3Exception.builder().statusCode(403).message("Access Denied").build());
+                return refused;
+            }
+            final CompletableFuture<ReturnT> future = transformer.prepare();
+            final Runnable respond = () -> {
+                transformer.onResponse(GetObjectResponse.builder().eTag(ETAG).contentLength((long) end - start + 1)
+                        .contentRange("bytes " + start + '-' + end + '/' + content.length).build());
+                transformer.onStream(AsyncRequestBody.fromBytes(Arrays.copyOfRange(content, start, end + 1)));
+            };
+            if (holding) {
+                held.add(respond);
+            } else {
+                respond.run();
+            }
+            return future;
+        }
+
+        void release() {
+            final List<Runnable> responses;
+            synchronized (held) {
+                responses = new ArrayList<>(held);
+                held.clear();
+            }
+            responses.forEach(Runnable::run);
+        }
+
+        @Override
+        public String serviceName() {
+            return "s3";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,317 @@
+package hudson.plugins.s3;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.reactivestreams.Subscriber;
+import org.reactivestreams.Subscription;
+import software.amazon.awssdk.core.async.AsyncRequestBody;
+import software.amazon.awssdk.services.s3.S3AsyncClient;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.AbortMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CompleteMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadRequest;
+import software.amazon.awssdk.services.s3.model.CreateMultipartUploadResponse;
+import software.amazon.awssdk.services.s3.model.ListPartsRequest;
+import software.amazon.awssdk.services.s3.model.ListPartsResponse;
+import software.amazon.awssdk.services.s3.model.NoSuchUploadException;
+import software.amazon.awssdk.services.s3.model.Part;
+import software.amazon.awssdk.services.s3.model.PutObjectRequest;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+import software.amazon.awssdk.services.s3.model.UploadPartRequest;
+import software.amazon.awssdk.services.s3.model.UploadPartResponse;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.function.IntPredicate;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResumableUploadTest {
+    private static final long PART_SIZE = 10;
+
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    private final FakeS3 s3 = new FakeS3();
+
+    @Test
+    public void testFailedUploadResumesWithThePartsS3Has() throws Exception {
+        final File file = newFile(25);
+        s3.failing = partNumber -> partNumber == 3;
+        assertFails(start(file, request("key")));
+
+        s3.failing = partNumber -> false;
+        start(file, request("key")).get();
+        assertEquals(1, s3.created.size());
+        assertEquals(Arrays.asList(1, 2, 3, 3), s3.sent);
+        assertEquals(Arrays.asList(1, 2, 3), s3.completed);
+    }
+
+    @Test
+    public void testPartOfAnotherSizeIsSentAgain() throws Exception {
+        final File file = newFile(25);
+        s3.failing = partNumber -> partNumber == 3;
+        assertFails(start(file, request("key")));
+
+        // S3 has part 2, cut short
+        s3.parts.get(s3.created.get(0)).put(2, PART_SIZE - 1);
+        s3.failing = partNumber -> false;
+        start(file, request("key")).get();
+        assertEquals(Arrays.asList(1, 2, 3, 2, 3), s3.sent);
+        assertEquals(Arrays.asList(1, 2, 3), s3.completed);
+    }
+
+    @Test
+    public void testUploadUnknownToS3StartsOver() throws Exception {
+        final File file = newFile(25);
+        s3.failing = partNumber -> partNumber == 3;
+        assertFails(start(file, request("key")));
+
+        // e.g. aborted by the bucket's lifecycle rule
+        s3.parts.remove(s3.created.get(0));
+        s3.failing = partNumber -> false;
+        start(file, request("key")).get();
+        assertEquals(2, s3.created.size());
+        assertEquals(Arrays.asList(1, 2, 3, 1, 2, 3), s3.sent);
+    }
+
+    @Test
+    public void testOtherHeadersStartAnotherUpload() throws Exception {
+        final File file = newFile(25);
+        s3.failing = partNumber -> partNumber == 3;
+        assertFails(start(file, request("key")));
+
+        s3.failing = partNumber -> false;
+        start(file, request("key").toBuilder().storageClass("STANDARD_IA").build()).get();
+        assertEquals(2, s3.created.size());
+        assertEquals(Arrays.asList(1, 2, 3, 1, 2, 3), s3.sent);
+    }
+
+    @Test
+    public void testCancelledUploadStopsSendingParts() throws Exception {
+        // more parts than are sent at the same time
+        final File file = newFile(20 * PART_SIZE);
+        s3.holding = true;
+        final CompletableFuture<String> upload = start(file, request("key"));
+        final int inFlight = s3.held.size();
+        assertTrue(inFlight < 20);
+
+        upload.cancel(false);
+        s3.holding = false;
+        for (CompletableFuture<UploadPartResponse> held : s3.held) {
+            held.complete(UploadPartResponse.builder().eTag("etag").build());
+        }
+        assertEquals(inFlight, s3.sent.size());
+
+        // the parts S3 received stay for the next attempt
+        start(file, request("key")).get();
+        assertEquals(1, s3.created.size());
+        assertEquals(20, s3.sent.size());
+        assertEquals(20, s3.completed.size());
+    }
+
+    @Test
+    public void testConcurrentUploadIsAbortedWhenItFails() throws Exception {
+        final File file = newFile(25);
+        s3.holding = true;
+        final CompletableFuture<String> first = start(file, request("key"));
+
+        s3.holding = false;
+        s3.failing = partNumber -> true;
+        assertFails(start(file, request("key")));
+        assertEquals(Collections.singletonList(s3.created.get(1)), s3.aborted);
+
+        s3.failing = partNumber -> false;
+        for (CompletableFuture<UploadPartResponse> held : s3.held) {
+            held.complete(UploadPartResponse.builder().eTag("etag").build());
+        }
+        first.get();
+    }
+
+    @Test
+    public void testDigestIsTakenFromThePartsSent() throws Exception {
+        final File file = newFile(25);
+        s3.reading = true;
+        final String md5 = ResumableUpload.start(s3, file.toPath(), request("key"), PART_SIZE, BandwidthLimit.NONE, null, true).get();
+
+        assertEquals(DigestUtils.md5Hex(Files.readAllBytes(file.toPath())), md5);
+        assertArrayEquals(Files.readAllBytes(file.toPath()), s3.received());
+    }
+
+    @Test
+    public void testResumedUploadLeavesTheDigestToTheCaller() throws Exception {
+        final File file = newFile(25);
+        s3.failing = partNumber -> partNumber == 3;
+        assertFails(ResumableUpload.start(s3, file.toPath(), request("key"), PART_SIZE, BandwidthLimit.NONE, null, true));
+
+        s3.failing = partNumber -> false;
+        assertNull(ResumableUpload.start(s3, file.toPath(), request("key"), PART_SIZE, BandwidthLimit.NONE, null, true).get());
+        assertEquals(Arrays.asList(1, 2, 3), s3.completed);
+    }
+
+    private File newFile(long length) throws Exception {
+        final File file = tmp.newFile();
+        final byte[] content = new byte[(int) length];
+        for (int i = 0; i < content.length; i++) {
+            content[i] = (byte) i;
+        }
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    private static PutObjectRequest request(String key) {
+        return PutObjectRequest.builder().bucket("bucket").key(key).build();
+    }
+
+    private CompletableFuture<String> start(File file, PutObjectRequest request) {
+        return ResumableUpload.start(s3, file.toPath(), request, PART_SIZE, BandwidthLimit.NONE, null, false);
+    }
+
+    private static void assertFails(CompletableFuture<?> upload) throws InterruptedException {
+        try {
+            upload.get();
+            fail("Upload didn't fail");
+        } catch (ExecutionException expected) {
+            // the part was refused
+        }
+    }
+
+    /**
+     * Keeps the sizes of the parts of every multipart upload, answering synchronously unless it holds the parts.
+     * When reading, a part is answered once its content was read, and the content is kept.
+     */
+    private static final class FakeS3 implements S3AsyncClient {
+        final List<String> created = Collections.synchronizedList(new ArrayList<>());
+        final List<String> aborted = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> sent = Collections.synchronizedList(new ArrayList<>());
+        final List<Integer> completed = Collections.synchronizedList(new ArrayList<>());
+        final Map<String, Map<Integer, Long>> parts = new ConcurrentHashMap<>();
+        final List<CompletableFuture<UploadPartResponse>> held = Collections.synchronizedList(new ArrayList<>());
+        volatile IntPredicate failing = partNumber -> false;
+        volatile boolean holding;
+        volatile boolean reading;
+        final Map<Integer, byte[]> contents = new ConcurrentHashMap<>();
+
+        @Override
+        public CompletableFuture<CreateMultipartUploadResponse> createMultipartUpload(CreateMultipartUploadRequest request) {
+            final String uploadId = "upload-" + created.size();
+            created.add(uploadId);
+            parts.put(uploadId, new ConcurrentHashMap<>());
+            return CompletableFuture.completedFuture(CreateMultipartUploadResponse.builder().uploadId(uploadId).build());
+        }
+
+        @Override
+        public CompletableFuture<ListPartsResponse> listParts(ListPartsRequest request) {
+            final Map<Integer, Long> uploaded = parts.get(request.uploadId());
+            if (uploaded == null) {
+                final CompletableFuture<ListPartsResponse> unknown = new CompletableFuture<>();
+                unknown.completeExceptionally(NoSuchUploadException.builder().message("No such upload").build());
+                return unknown;
+            }
+            final List<Part> listed = new ArrayList<>();
+            for (Map.Entry<Integer, Long> part : new TreeMap<>(uploaded).entrySet()) {
+                listed.add(Part.builder().partNumber(part.getKey()).size(part.getValue()).eTag("etag-" + part.getKey()).build());
+            }
+            return CompletableFuture.completedFuture(ListPartsResponse.builder().parts(listed).isTruncated(false).build());
+        }
+
+        @Override
+        public CompletableFuture<UploadPartResponse> uploadPart(UploadPartRequest request, AsyncRequestBody body) {
+            sent.add(request.partNumber());
+            if (failing.test(request.partNumber())) {
+                final CompletableFuture<UploadPartResponse> refused = new CompletableFuture<>();
+                refused.completeExceptionally(S3Exception.builder().statusCode(500).message("Internal error").build());
+                return refused;
+            }
+            parts.get(request.uploadId()).put(request.partNumber(), request.contentLength());
+            if (reading) {
+                return read(request.partNumber(), body);
+            }
+            if (holding) {
+                final CompletableFuture<UploadPartResponse> pending = new CompletableFuture<>();
+                held.add(pending);
+                return pending;
+            }
+            return CompletableFuture.completedFuture(UploadPartResponse.builder().eTag("etag-" + request.partNumber()).build());
+        }
+
+        private CompletableFuture<UploadPartResponse> read(int partNumber, AsyncRequestBody body) {
+            final CompletableFuture<UploadPartResponse> response = new CompletableFuture<>();
+            final ByteArrayOutputStream content = new ByteArrayOutputStream();
+            body.subscribe(new Subscriber<ByteBuffer>() {
+                @Override
+                public void onSubscribe(Subscription subscription) {
+                    subscription.request(Long.MAX_VALUE);
+                }
+
+                @Override
+                public void onNext(ByteBuffer buffer) {
+                    final byte[] bytes = new byte[buffer.remaining()];
+                    buffer.get(bytes);
+                    content.write(bytes, 0, bytes.length);
+                }
+
+                @Override
+                public void onError(Throwable error) {
+                    response.completeExceptionally(error);
+                }
+
+                @Override
+                public void onComplete() {
+                    contents.put(partNumber, content.toByteArray());
+                    response.complete(UploadPartResponse.builder().eTag("etag-" + partNumber).build());
+                }
+            });
+            return response;
+        }
+
+        byte[] received() {
+            final ByteArrayOutputStream received = new ByteArrayOutputStream();
+            for (byte[] content : new TreeMap<>(contents).values()) {
+                received.write(content, 0, content.length);
+            }
+            return received.toByteArray();
+        }
+
+        @Override
+        public CompletableFuture<CompleteMultipartUploadResponse> completeMultipartUpload(CompleteMultipartUploadRequest request) {
+            request.multipartUpload().parts().forEach(part -> completed.add(part.partNumber()));
+            parts.remove(request.uploadId());
+            return CompletableFuture.completedFuture(CompleteMultipartUploadResponse.builder().key(request.key()).build());
+        }
+
+        @Override
+        public CompletableFuture<AbortMultipartUploadResponse> abortMultipartUpload(AbortMultipartUploadRequest request) {
+            aborted.add(request.uploadId());
+            parts.remove(request.uploadId());
+            return CompletableFuture.completedFuture(AbortMultipartUploadResponse.builder().build());
+        }
+
+        @Override
+        public String serviceName() {
+            return "s3";
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
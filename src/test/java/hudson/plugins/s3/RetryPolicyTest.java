@@ -0,0 +1,107 @@
+package hudson.plugins.s3;
+
+import org.junit.Test;
+import software.amazon.awssdk.awscore.exception.AwsErrorDetails;
+import software.amazon.awssdk.core.exception.SdkClientException;
+import software.amazon.awssdk.services.s3.model.S3Exception;
+
+import java.io.IOException;
+import java.nio.file.NoSuchFileException;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class RetryPolicyTest {
+    @Test
+    public void testFailuresAreClassified() {
+        assertEquals(RetryPolicy.Failure.PERMANENT, RetryPolicy.classify(s3Exception(403, "AccessDenied")));
+        assertEquals(RetryPolicy.Failure.PERMANENT, RetryPolicy.classify(s3Exception(404, "NoSuchBucket")));
+        assertEquals(RetryPolicy.Failure.THROTTLED, RetryPolicy.classify(s3Exception(503, "SlowDown")));
+        assertEquals(RetryPolicy.Failure.TRANSIENT, RetryPolicy.classify(s3Exception(500, "InternalError")));
+        assertEquals(RetryPolicy.Failure.TRANSIENT, RetryPolicy.classify(s3Exception(400, "RequestTimeout")));
+        assertEquals(RetryPolicy.Failure.TRANSIENT, RetryPolicy.classify(SdkClientException.create("Connection reset")));
+        assertEquals(RetryPolicy.Failure.TRANSIENT, RetryPolicy.classify(new IOException("Broken pipe")));
+    }
+
+    @Test
+    public void testSigningFailuresAreNotRetried() {
+        // signed again with the same credentials and clock
+        assertEquals(RetryPolicy.Failure.PERMANENT, RetryPolicy.classify(s3Exception(400, "ExpiredToken")));
+        assertEquals(RetryPolicy.Failure.PERMANENT, RetryPolicy.classify(s3Exception(403, "RequestTimeTooSkewed")));
+        final RetryPolicy policy = new RetryPolicy(5, 100);
+        assertEquals(-1, policy.delayAfter(s3Exception(400, "ExpiredToken"), 1, policy.newBudget(10)));
+    }
+
+    @Test
+    public void testWrappedFailuresAreClassifiedByTheirCause() {
+        assertEquals(RetryPolicy.Failure.PERMANENT, RetryPolicy.classify(new CompletionException(new NoSuchFileException("a.zip"))));
+        assertEquals(RetryPolicy.Failure.THROTTLED, RetryPolicy.classify(new IOException(new CompletionException(s3Exception(503, "SlowDown")))));
+    }
+
+    @Test
+    public void testDelaysGrowWithJitter() {
+        final RetryPolicy policy = new RetryPolicy(10, 1000);
+        for (int attempts = 1; attempts <= 4; attempts++) {
+            final long full = 1000L << (attempts - 1);
+            final long delay = policy.delay(RetryPolicy.Failure.TRANSIENT, attempts);
+            assertTrue(delay + " for attempt " + attempts, delay >= full / 2 && delay <= full);
+        }
+        // throttling waits twice as long
+        final long throttled = policy.delay(RetryPolicy.Failure.THROTTLED, 1);
+        assertTrue(String.valueOf(throttled), throttled >= 1000 && throttled <= 2000);
+        // never longer than the maximum
+        assertTrue(policy.delay(RetryPolicy.Failure.TRANSIENT, 100) <= 120_000);
+    }
+
+    @Test
+    public void testPermanentFailuresAreNotRetried() throws Exception {
+        final RetryPolicy policy = new RetryPolicy(5, 0);
+        final AtomicInteger calls = new AtomicInteger();
+        try {
+            policy.call(policy.newBudget(1), "a.zip", () -> {
+                calls.incrementAndGet();
+                throw s3Exception(403, "AccessDenied");
+            });
+            fail();
+        } catch (IOException e) {
+            assertEquals(1, calls.get());
+        }
+    }
+
+    @Test
+    public void testTransientFailuresAreRetried() throws Exception {
+        final RetryPolicy policy = new RetryPolicy(5, 0);
+        final AtomicInteger calls = new AtomicInteger();
+        final String result = policy.call(policy.newBudget(1), "a.zip", () -> {
+            if (calls.incrementAndGet() < 3) {
+                throw new IOException("Connection reset");
+            }
+            return "done";
+        });
+        assertEquals("done", result);
+        assertEquals(3, calls.get());
+    }
+
+    @Test
+    public void testRetriesStopWhenTheBudgetIsUsedUp() {
+        final RetryPolicy policy = new RetryPolicy(3, 0);
+        // 20% of 20 transfers
+        final RetryPolicy.Budget budget = policy.newBudget(20);
+        assertEquals(4, budget.getRemaining());
+        final IOException failure = new IOException("Connection reset");
+        for (int i = 0; i < 4; i++) {
+            assertTrue(policy.delayAfter(failure, 1, budget) >= 0);
+        }
+        assertEquals(-1, policy.delayAfter(failure, 1, budget));
+        // a single transfer may use all of its attempts
+        assertEquals(2, policy.newBudget(1).getRemaining());
+    }
+
+    private static S3Exception s3Exception(int statusCode, String errorCode) {
+        return (S3Exception) S3Exception.builder().statusCode(statusCode)
+                .awsErrorDetails(AwsErrorDetails.builder().errorCode(errorCode).build()).build();
+    }
+}
@@ -134,6 +134,9 @@ public class S3Test {
                 Mockito.anyBoolean(),
                 Mockito.anyBoolean(),
                 Mockito.anyBoolean(),
+                Mockito.any(Compression.class),
+                Mockito.anyInt(),
+                Mockito.anyBoolean(),
                 Mockito.anyBoolean()
         )).thenReturn(newArrayList(new FingerprintRecord(true, "bucket", "path", "eu-west-1", "xxxx")));
         return profile;
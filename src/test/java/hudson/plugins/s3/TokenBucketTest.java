@@ -0,0 +1,44 @@
+package hudson.plugins.s3;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class TokenBucketTest {
+    private static final long SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    @Test
+    public void testBurstsOfATenthOfASecondPassRightAway() {
+        final TokenBucket bucket = new TokenBucket(1000, 0);
+        assertEquals(0, bucket.reserve(100, 0));
+        // the next 100 bytes take a tenth of a second
+        assertEquals(SECOND / 10, bucket.reserve(100, 0));
+    }
+
+    @Test
+    public void testReservationsQueueInOrder() {
+        final TokenBucket bucket = new TokenBucket(1000, 0);
+        bucket.reserve(100, 0);
+        assertEquals(SECOND, bucket.reserve(1000, 0));
+        // waits for the earlier reservation
+        assertEquals(SECOND + SECOND / 10, bucket.reserve(100, 0));
+        // half a second later, half a second less to wait
+        assertEquals(SECOND / 2 + 2 * SECOND / 10, bucket.reserve(100, SECOND / 2));
+    }
+
+    @Test
+    public void testIdleTimeDoesntBuildUpMoreThanABurst() {
+        final TokenBucket bucket = new TokenBucket(1000, 0);
+        assertEquals(0, bucket.reserve(100, 60 * SECOND));
+        assertEquals(SECOND / 10, bucket.reserve(100, 60 * SECOND));
+    }
+
+    @Test
+    public void testChangedRateApplies() {
+        final TokenBucket bucket = new TokenBucket(1000, System.nanoTime());
+        bucket.setRate(2000);
+        assertEquals(2000, bucket.getRate());
+    }
+}
@@ -0,0 +1,119 @@
+package hudson.plugins.s3;
+
+import hudson.plugins.s3.callable.TransferFailedException;
+import org.junit.Test;
+import software.amazon.awssdk.core.interceptor.ExecutionAttributes;
+import software.amazon.awssdk.services.s3.model.GetObjectRequest;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+public class TransferMetricsTest {
+    @Test
+    public void testPercentilesAreTheUpperBoundOfTheirBucket() {
+        final Histogram histogram = new Histogram();
+        for (int i = 1; i <= 100; i++) {
+            histogram.record(i);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50, histogram.getMean());
+        // 50 is in the bucket of 32..63
+        assertEquals(63, histogram.percentile(50));
+        // not beyond the largest value
+        assertEquals(100, histogram.percentile(99));
+        assertEquals(0, new Histogram().percentile(50));
+    }
+
+    @Test
+    public void testHistogramsAddUp() {
+        final Histogram a = new Histogram();
+        a.record(1);
+        final Histogram b = new Histogram();
+        b.record(1000);
+        b.record(3000);
+        a.add(b);
+        assertEquals(3, a.getCount());
+        assertEquals(3000, a.getMax());
+        assertEquals(1, a.percentile(33));
+        assertEquals(1023, a.percentile(50));
+    }
+
+    @Test
+    public void testStatsRecordFiles() {
+        final TransferStats stats = new TransferStats();
+        stats.recordFile(10_000_000, TimeUnit.SECONDS.toNanos(2));
+        stats.recordSkipped();
+        stats.addRetries(2);
+        assertEquals(1, stats.getFiles());
+        assertEquals(1, stats.getSkippedFiles());
+        assertEquals(10_000_000, stats.getBytes());
+        assertEquals(2000, stats.getLatency().getMax());
+        assertEquals(5_000_000, stats.getThroughput().getMax());
+        assertEquals(2, stats.getRetries());
+    }
+
+    @Test
+    public void testStatsCountTheThrottlingOfTheirOwnRequests() {
+        final TransferStats stats = new TransferStats();
+        final GetObjectRequest counted = PrefixLimiter.countThrottles(GetObjectRequest.builder().bucket("throttled-bucket").key("jobs/a"), stats).build();
+        // another call to the same prefix
+        final GetObjectRequest other = GetObjectRequest.builder().bucket("throttled-bucket").key("jobs/b").build();
+
+        // the SDK hands the attributes of the request to the interceptors
+        PrefixLimiter.Interceptor.throttled(counted, counted.overrideConfiguration().get().executionAttributes());
+        PrefixLimiter.Interceptor.throttled(other, new ExecutionAttributes());
+        PrefixLimiter.Interceptor.throttled(counted, counted.overrideConfiguration().get().executionAttributes());
+        assertEquals(2, stats.getThrottles());
+        assertEquals(3, PrefixLimiter.forObject("throttled-bucket", "jobs/a").getThrottles());
+    }
+
+    @Test
+    public void testSeriesAddTheStatsOfTheirCalls() {
+        final TransferMetrics metrics = new TransferMetrics(null);
+        final TransferMetrics.Series series = metrics.series("profile", "bucket", TransferMetrics.Operation.UPLOAD);
+        assertSame(series, metrics.series("profile", "bucket", TransferMetrics.Operation.UPLOAD));
+        metrics.series("profile", "bucket", TransferMetrics.Operation.DOWNLOAD);
+        assertEquals(2, metrics.getSeries().size());
+
+        series.started(3);
+        series.started(1);
+        assertEquals(4, series.getInFlight());
+        final TransferStats stats = new TransferStats();
+        stats.recordFile(100, TimeUnit.MILLISECONDS.toNanos(10));
+        stats.recordFile(100, TimeUnit.MILLISECONDS.toNanos(30));
+        stats.recordSkipped();
+        series.finished(3, stats, false);
+        series.finished(1, null, true);
+
+        assertEquals(0, series.getInFlight());
+        assertEquals(2, series.getCalls());
+        assertEquals(1, series.getFailedCalls());
+        assertEquals(2, series.getFiles());
+        assertEquals(1, series.getSkippedFiles());
+        assertEquals(200, series.getBytes());
+        assertEquals(30, series.getLatencyMaxMillis());
+        assertEquals("upload", series.getOperation());
+    }
+
+    @Test
+    public void testFailedCallsAddTheTransfersUntilTheyFailed() {
+        final TransferMetrics.Series series = new TransferMetrics(null).series("profile", "bucket", TransferMetrics.Operation.DOWNLOAD);
+        final TransferStats stats = new TransferStats();
+        stats.recordFile(100, TimeUnit.MILLISECONDS.toNanos(10));
+        stats.addRetries(2);
+        series.started(3);
+        series.finished(3, TransferFailedException.statsOf(new IOException(
+                new TransferFailedException(new IOException("Access Denied"), Collections.singletonMap("bucket", stats))))
+                .get("bucket"), true);
+
+        assertEquals(1, series.getCalls());
+        assertEquals(1, series.getFailedCalls());
+        assertEquals(1, series.getFiles());
+        assertEquals(100, series.getBytes());
+        assertEquals(2, series.getRetries());
+    }
+}
@@ -0,0 +1,133 @@
+package hudson.plugins.s3;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntToDoubleFunction;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TransferTuningTest {
+    private static final long MB = 1024 * 1024;
+
+    private long now;
+
+    @Test
+    public void testFixedTuningKeepsTheConfiguredPartSize() {
+        final TransferTuning tuning = new TransferTuning(16 * MB, 8 * MB, 0, false);
+        assertEquals(8 * MB, tuning.partSizeFor(10 * 1024 * MB));
+        assertEquals(1, tuning.partsFor(16 * MB));
+        assertEquals(3, tuning.partsFor(17 * MB));
+        assertEquals(TransferTuning.SDK_DEFAULT_CONNECTIONS, tuning.getConnectionLimit());
+    }
+
+    @Test
+    public void testPartsAreNeverSmallerThanS3Allows() {
+        assertEquals(TransferTuning.MIN_PART_SIZE, new TransferTuning(16 * MB, MB, 0, false).getPartSize());
+    }
+
+    @Test
+    public void testAutoTuningGrowsPartsWithTheFile() {
+        final TransferTuning tuning = new TransferTuning(16 * MB, 8 * MB, 64, true);
+        // small files keep the configured part size
+        assertEquals(8 * MB, tuning.partSizeFor(100 * MB));
+        // 10 GB over 64 connections, two parts per connection: 80 MB, rounded up to a power of two of 8 MB
+        assertEquals(128 * MB, tuning.partSizeFor(10 * 1024 * MB));
+        assertEquals(80, tuning.partsFor(10 * 1024 * MB));
+        assertEquals(TransferTuning.MAX_AUTO_PART_SIZE, tuning.partSizeFor(1024L * 1024 * MB));
+    }
+
+    @Test
+    public void testTunerClimbsToTheLinkCapacity() {
+        final TransferTuner tuner = new TransferTuner("test", 256);
+        // throughput grows with connections up to 64
+        for (int i = 0; i < 3; i++) {
+            window(tuner, connections -> Math.min(connections, 64), connections -> 1);
+        }
+        // 128 didn't pay off, back to 64 and kept there
+        assertEquals(64, tuner.connections());
+        for (int i = 0; i < TransferTuner.HOLD_WINDOWS; i++) {
+            window(tuner, connections -> Math.min(connections, 64), connections -> 1);
+            assertEquals(64, tuner.connections());
+        }
+    }
+
+    @Test
+    public void testTunerBacksOffWhenLatencyGrows() {
+        final TransferTuner tuner = new TransferTuner("test", 256);
+        // beyond 32 connections the throughput grows a little, but every part takes far longer
+        final IntToDoubleFunction throughput = connections -> connections <= 32 ? connections : 32 * 1.2;
+        final IntToDoubleFunction latency = connections -> connections <= 32 ? 1 : 10;
+        window(tuner, throughput, latency);
+        assertEquals(64, tuner.connections());
+        window(tuner, throughput, latency);
+        assertEquals(32, tuner.connections());
+        // after holding, fewer connections are probed, they are slower
+        for (int i = 0; i < TransferTuner.HOLD_WINDOWS + 1; i++) {
+            window(tuner, throughput, latency);
+        }
+        assertEquals(16, tuner.connections());
+        window(tuner, throughput, latency);
+        assertEquals(32, tuner.connections());
+    }
+
+    @Test
+    public void testPartsWaitForTheTunedConnections() {
+        final TransferTuner tuner = new TransferTuner("test", 256);
+        final List<TransferTuner.Permit> permits = new ArrayList<>();
+        for (int i = 0; i < tuner.connections(); i++) {
+            final CompletableFuture<TransferTuner.Permit> permit = tuner.acquire();
+            assertTrue(permit.isDone());
+            permits.add(permit.join());
+        }
+        final CompletableFuture<TransferTuner.Permit> waiting = tuner.acquire();
+        assertFalse(waiting.isDone());
+
+        permits.get(0).release();
+        assertTrue(waiting.isDone());
+        // released twice, the permit is only given back once
+        permits.get(0).release();
+        assertFalse(tuner.acquire().isDone());
+    }
+
+    @Test
+    public void testIdleTunersAreDropped() {
+        final TransferTuner idle = TransferTuner.forKey("idle configuration", 256);
+        idle.acquire().join().release();
+        final TransferTuner busy = TransferTuner.forKey("busy configuration", 256);
+        final TransferTuner.Permit permit = busy.acquire().join();
+
+        TransferTuner.sweep(System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(2 * TransferTuner.IDLE_MILLIS));
+        final TransferTuner replaced = TransferTuner.forKey("idle configuration", 256);
+        assertNotSame(idle, replaced);
+        assertSame(busy, TransferTuner.forKey("busy configuration", 256));
+
+        // a part through the dropped tuner waits for the connections of the one in use now
+        for (int i = 0; i < replaced.connections(); i++) {
+            idle.acquire().join();
+        }
+        assertFalse(replaced.acquire().isDone());
+        permit.release();
+    }
+
+    /**
+     * Runs a window of transfers, one after the other, at the throughput and latency per part of the model.
+     */
+    private void window(TransferTuner tuner, IntToDoubleFunction throughput, IntToDoubleFunction latency) {
+        final int connections = tuner.connections();
+        final long bytes = 100 * MB;
+        for (int i = 0; i < TransferTuner.WINDOW; i++) {
+            final long duration = (long) (bytes / throughput.applyAsDouble(connections));
+            tuner.recordPart(now, now + (long) (1000 * latency.applyAsDouble(connections)));
+            tuner.record(bytes, now, now + duration);
+            now += duration;
+        }
+    }
+}
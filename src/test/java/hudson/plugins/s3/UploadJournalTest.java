@@ -0,0 +1,87 @@
+package hudson.plugins.s3;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class UploadJournalTest {
+    @Rule
+    public TemporaryFolder tmp = new TemporaryFolder();
+
+    @Test
+    public void testProgressSurvivesARestart() throws Exception {
+        final File dir = tmp.newFolder();
+        final UploadJournal.Entry entry = new UploadJournal.Entry("upload-id");
+        entry.parts.put(1, "\"etag-1\"");
+        entry.parts.put(3, "\"etag-3\"");
+        entry.checksums.put(3, "crc-3");
+        new UploadJournal(dir).save("bucket/key|file", entry);
+
+        final UploadJournal.Entry loaded = new UploadJournal(dir).load("bucket/key|file");
+        assertEquals("upload-id", loaded.uploadId);
+        assertEquals(entry.parts, loaded.parts);
+        assertEquals(entry.checksums, loaded.checksums);
+    }
+
+    @Test
+    public void testCompletedUploadIsForgotten() throws Exception {
+        final File dir = tmp.newFolder();
+        final UploadJournal journal = new UploadJournal(dir);
+        journal.save("bucket/key|file", new UploadJournal.Entry("upload-id"));
+        journal.remove("bucket/key|file");
+
+        assertNull(journal.load("bucket/key|file"));
+        assertNull(new UploadJournal(dir).load("bucket/key|file"));
+    }
+
+    @Test
+    public void testWithoutDirectoryOnlyMemoryIsUsed() {
+        final UploadJournal journal = new UploadJournal(null);
+        final UploadJournal.Entry entry = new UploadJournal.Entry("upload-id");
+        journal.save("bucket/key|file", entry);
+        assertEquals(entry, journal.load("bucket/key|file"));
+    }
+
+    @Test
+    public void testRunningUploadCanOnlyBeClaimedOnce() {
+        final UploadJournal journal = new UploadJournal(null);
+        assertTrue(journal.claim("bucket/key|file"));
+        assertFalse(journal.claim("bucket/key|file"));
+        journal.release("bucket/key|file");
+        assertTrue(journal.claim("bucket/key|file"));
+    }
+
+    @Test
+    public void testReleasedUploadIsReadFromDiskAgain() throws Exception {
+        final File dir = tmp.newFolder();
+        final UploadJournal journal = new UploadJournal(dir);
+        assertTrue(journal.claim("bucket/key|file"));
+        final UploadJournal.Entry entry = new UploadJournal.Entry("upload-id");
+        journal.save("bucket/key|file", entry);
+        journal.release("bucket/key|file");
+
+        final UploadJournal.Entry loaded = journal.load("bucket/key|file");
+        assertNotSame(entry, loaded);
+        assertEquals("upload-id", loaded.uploadId);
+    }
+
+    @Test
+    public void testAbandonedUploadIsEvicted() {
+        final UploadJournal journal = new UploadJournal(null);
+        journal.save("bucket/key|abandoned", new UploadJournal.Entry("abandoned"));
+        assertTrue(journal.claim("bucket/key|running"));
+        journal.save("bucket/key|running", new UploadJournal.Entry("running"));
+
+        journal.evictAbandoned(System.currentTimeMillis() + 1);
+        assertNull(journal.load("bucket/key|abandoned"));
+        assertEquals("running", journal.load("bucket/key|running").uploadId);
+    }
+}